@@ -25,6 +25,11 @@ public @interface Compensable {
 
     public boolean asyncCancel() default false;
 
+    /**
+     * 是否并发confirm/cancel事务的参与者，需要配置并发终结的线程池
+     */
+    public boolean parallelTerminate() default false;
+
     class NullableTransactionContextEditor implements TransactionContextEditor {
 
         @Override
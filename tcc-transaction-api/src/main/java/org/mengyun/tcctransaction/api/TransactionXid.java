@@ -4,8 +4,10 @@ package org.mengyun.tcctransaction.api;
 import javax.transaction.xa.Xid;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by changmingxie on 10/26/15.
@@ -16,6 +18,10 @@ import java.util.UUID;
  * http://www.zgqxb.com.cn/mydoc/j2se_api_cn/javax/transaction/xa/Xid.html
  *
  * Xid： 指一个XA事务。不同的数据库要不同的 Xid（每个数据库连接（分支）一个）
+ *
+ * 创建后不再修改，可以在事务、事务上下文和缓存之间共享，不需要克隆。
+ * getGlobalTransactionId和getBranchQualifier返回内部数组，调用方不能修改。
+ * setter只用于JSON等按属性反序列化的场景。
  */
 public class TransactionXid implements Xid, Serializable {
 
@@ -36,22 +42,52 @@ public class TransactionXid implements Xid, Serializable {
      */
     private byte[] branchQualifier;
 
+    /**
+     * 缓存的hashCode，0表示未计算
+     */
+    private transient int hash;
+
+    /**
+     * 缓存的toString结果
+     */
+    private transient String string;
+
+    /**
+     * 本进程的节点ID，启动时随机生成一次，作为ID的高8字节
+     */
+    private static final long NODE_ID;
+
+    /**
+     * ID的低8字节序号，初始值随机
+     */
+    private static final AtomicLong SEQUENCE;
+
+    static {
+        SecureRandom random = new SecureRandom();
+        NODE_ID = random.nextLong();
+        SEQUENCE = new AtomicLong(random.nextLong());
+    }
+
     public TransactionXid() {
-        globalTransactionId = uuidToByteArray(UUID.randomUUID());
-        branchQualifier = uuidToByteArray(UUID.randomUUID());
+        globalTransactionId = nextId();
+        branchQualifier = nextId();
     }
 
     public void setGlobalTransactionId(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
+        this.hash = 0;
+        this.string = null;
     }
 
     public void setBranchQualifier(byte[] branchQualifier) {
         this.branchQualifier = branchQualifier;
+        this.hash = 0;
+        this.string = null;
     }
 
     public TransactionXid(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
-        branchQualifier = uuidToByteArray(UUID.randomUUID());
+        branchQualifier = nextId();
     }
 
     public TransactionXid(byte[] globalTransactionId, byte[] branchQualifier) {
@@ -83,18 +119,28 @@ public class TransactionXid implements Xid, Serializable {
         return branchQualifier;
     }
 
+    /**
+     * 格式不变，作为Redis key、文件名和ZooKeeper节点名使用，只计算一次.
+     */
     @Override
     public String toString() {
 
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(UUID.nameUUIDFromBytes(globalTransactionId).toString());
-        stringBuilder.append(":").append(UUID.nameUUIDFromBytes(branchQualifier).toString());
+        String result = string;
+
+        if (result == null) {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append(UUID.nameUUIDFromBytes(globalTransactionId).toString());
+            stringBuilder.append(":").append(UUID.nameUUIDFromBytes(branchQualifier).toString());
 
-        return stringBuilder.toString();
+            result = stringBuilder.toString();
+            string = result;
+        }
+
+        return result;
     }
 
     /**
-     * 克隆事务ID.
+     * 克隆事务ID，事务ID不再修改，一般不需要克隆.
      */
     public TransactionXid clone() {
 
@@ -115,11 +161,18 @@ public class TransactionXid implements Xid, Serializable {
     }
 
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + this.getFormatId();
-        result = prime * result + Arrays.hashCode(branchQualifier);
-        result = prime * result + Arrays.hashCode(globalTransactionId);
+
+        int result = hash;
+
+        if (result == 0) {
+            final int prime = 31;
+            result = 1;
+            result = prime * result + this.getFormatId();
+            result = prime * result + Arrays.hashCode(branchQualifier);
+            result = prime * result + Arrays.hashCode(globalTransactionId);
+            hash = result;
+        }
+
         return result;
     }
 
@@ -132,7 +185,9 @@ public class TransactionXid implements Xid, Serializable {
             return false;
         }
         TransactionXid other = (TransactionXid) obj;
-        if (this.getFormatId() != other.getFormatId()) {
+        if (hash != 0 && other.hash != 0 && hash != other.hash) {
+            return false;
+        } else if (this.getFormatId() != other.getFormatId()) {
             return false;
         } else if (!Arrays.equals(branchQualifier, other.branchQualifier)) {
             return false;
@@ -142,6 +197,28 @@ public class TransactionXid implements Xid, Serializable {
         return true;
     }
 
+    /**
+     * 生成16字节的ID：节点ID + 序号.
+     * 序号经过可逆的混淆，同一进程内不重复，取值分散；不同进程靠随机的节点ID区分。
+     * 只有一次CAS，不像UUID.randomUUID那样在SecureRandom上竞争。
+     */
+    private static byte[] nextId() {
+
+        long sequence = SEQUENCE.incrementAndGet();
+
+        // murmur3 fmix64，一一映射
+        sequence ^= sequence >>> 33;
+        sequence *= 0xff51afd7ed558ccdL;
+        sequence ^= sequence >>> 33;
+        sequence *= 0xc4ceb9fe1a85ec53L;
+        sequence ^= sequence >>> 33;
+
+        ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
+        bb.putLong(NODE_ID);
+        bb.putLong(sequence);
+        return bb.array();
+    }
+
     public static byte[] uuidToByteArray(UUID uuid) {
         ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
         bb.putLong(uuid.getMostSignificantBits());
@@ -5,6 +5,7 @@ import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 
 import java.io.Serializable;
 
@@ -30,6 +31,12 @@ public class Participant implements Serializable {
 
     Class<? extends TransactionContextEditor> transactionContextEditorClass;
 
+    /**
+     * confirm/cancel完成后更新，恢复重试时跳过已完成的参与者.
+     * 旧版本写入的记录中没有该字段，为null，按TRYING处理；kryo按字段序列化时由KryoSupport兼容旧格式
+     */
+    private volatile ParticipantStatus status;
+
     public Participant() {
 
     }
@@ -57,6 +64,7 @@ public class Participant implements Serializable {
     public void rollback() {
         LOG.debug("==>Participant.rollback()");
         terminator.invoke(new TransactionContext(xid, TransactionStatus.CANCELLING.getId()), cancelInvocationContext, transactionContextEditorClass);
+        status = ParticipantStatus.CANCELLED;
     }
 
     /**
@@ -65,6 +73,15 @@ public class Participant implements Serializable {
     public void commit() {
         LOG.debug("==>Participant.commit()");
         terminator.invoke(new TransactionContext(xid, TransactionStatus.CONFIRMING.getId()), confirmInvocationContext, transactionContextEditorClass);
+        status = ParticipantStatus.CONFIRMED;
+    }
+
+    public ParticipantStatus getStatus() {
+        return status != null ? status : ParticipantStatus.TRYING;
+    }
+
+    public void setStatus(ParticipantStatus status) {
+        this.status = status;
     }
 
     public Terminator getTerminator() {
@@ -83,4 +100,8 @@ public class Participant implements Serializable {
         return cancelInvocationContext;
     }
 
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
+    }
+
 }
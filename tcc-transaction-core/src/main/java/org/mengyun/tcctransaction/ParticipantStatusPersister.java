@@ -0,0 +1,39 @@
+package org.mengyun.tcctransaction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 参与者状态持久化.
+ * <p>
+ * 参与者confirm/cancel完成后立即按版本号更新事务记录，其它参与者失败后恢复任务只重试未完成的参与者.
+ * 持久化失败时只记录日志，恢复任务会重新调用该参与者，参与者需要幂等（TCC本身的要求）.
+ */
+public class ParticipantStatusPersister {
+
+    static final Logger logger = Logger.getLogger(ParticipantStatusPersister.class.getSimpleName());
+
+    private final TransactionRepository transactionRepository;
+
+    public ParticipantStatusPersister(TransactionRepository transactionRepository) {
+        this.transactionRepository = transactionRepository;
+    }
+
+    /**
+     * 并发confirm/cancel时在事务上串行更新，每次写入所有参与者当前的状态.
+     * @param transaction
+     */
+    public void persist(Transaction transaction) {
+
+        synchronized (transaction) {
+
+            // 在锁内标记，避免被并发完成的更新重置后走不写事务内容的增量更新
+            transaction.setParticipantStatusChanged(true);
+
+            try {
+                transactionRepository.update(transaction);
+            } catch (Throwable throwable) {
+                logger.warn(String.format("persist participant status failed, finished participants will be terminated again by recovery job. txid:%s", transaction.getXid()), throwable);
+            }
+        }
+    }
+}
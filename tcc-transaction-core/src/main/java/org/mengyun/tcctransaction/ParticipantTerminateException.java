@@ -0,0 +1,20 @@
+package org.mengyun.tcctransaction;
+
+import java.util.List;
+
+/**
+ * 并发confirm/cancel参与者时的汇总异常，cause为第一个失败的参与者的异常.
+ */
+public class ParticipantTerminateException extends SystemException {
+
+    private final List<Throwable> failures;
+
+    public ParticipantTerminateException(String message, List<Throwable> failures) {
+        super(message, failures.get(0));
+        this.failures = failures;
+    }
+
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+}
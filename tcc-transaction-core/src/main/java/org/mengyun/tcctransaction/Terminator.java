@@ -3,10 +3,14 @@ package org.mengyun.tcctransaction;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
 import org.mengyun.tcctransaction.utils.StringUtils;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 终结者.
@@ -16,6 +20,11 @@ public class Terminator implements Serializable {
 
     private static final long serialVersionUID = -164958655471605778L;
 
+    /**
+     * 调用方法缓存，方法、事务上下文参数位置和事务上下文编辑器只在第一次confirm/cancel时解析.
+     * 目标实例不缓存，每次从容器中获取，容器刷新后使用新的实例；实例的类变化时重新解析方法
+     */
+    private static final ConcurrentMap<InvokerKey, Invoker> INVOKERS = new ConcurrentHashMap<InvokerKey, Invoker>();
 
     public Terminator() {
 
@@ -32,25 +41,19 @@ public class Terminator implements Serializable {
         if (StringUtils.isNotEmpty(invocationContext.getMethodName())) {
 
             try {
-
                 /**
                  * 从容器中获取调用类的实例
                  */
                 Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
 
-                Method method = null;
+                Invoker invoker = getInvoker(target, invocationContext, transactionContextEditorClass);
 
-                /**
-                 * 利用反射获得方法实例
-                 */
-                method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
-
-                FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance().set(transactionContext, target, method, invocationContext.getArgs());
+                invoker.setTransactionContext(transactionContext, target, invocationContext.getArgs());
 
                 /**
                  * 执行方法调用
                  */
-                return method.invoke(target, invocationContext.getArgs());
+                return invoker.method.invoke(target, invocationContext.getArgs());
 
             } catch (Exception e) {
                 throw new SystemException(e);
@@ -58,4 +61,115 @@ public class Terminator implements Serializable {
         }
         return null;
     }
+
+    private static Invoker getInvoker(Object target, InvocationContext invocationContext, Class<? extends TransactionContextEditor> transactionContextEditorClass) throws NoSuchMethodException {
+
+        InvokerKey key = new InvokerKey(invocationContext.getTargetClass(), invocationContext.getMethodName(),
+                invocationContext.getParameterTypes(), transactionContextEditorClass);
+
+        Invoker invoker = INVOKERS.get(key);
+
+        if (invoker == null || invoker.targetType != target.getClass()) {
+
+            /**
+             * 利用反射获得方法实例，在实例的类（可能是代理类）上查找，保证调用经过代理
+             */
+            Method method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
+
+            try {
+                // 跳过每次调用的访问检查
+                method.setAccessible(true);
+            } catch (RuntimeException e) {
+                // 无法访问时保持默认的访问检查
+            }
+
+            TransactionContextEditor transactionContextEditor = FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance();
+
+            invoker = new Invoker(target.getClass(), method, transactionContextEditor);
+
+            INVOKERS.put(key, invoker);
+        }
+
+        return invoker;
+    }
+
+    private static class Invoker {
+
+        /**
+         * 解析方法时目标实例的类（可能是代理类）
+         */
+        private final Class<?> targetType;
+
+        private final Method method;
+
+        private final TransactionContextEditor transactionContextEditor;
+
+        /**
+         * 事务上下文编辑器按参数位置传递时预先计算的参数位置，没有时为-1
+         */
+        private final int transactionContextParamPosition;
+
+        private final boolean parameterEditor;
+
+        Invoker(Class<?> targetType, Method method, TransactionContextEditor transactionContextEditor) {
+            this.targetType = targetType;
+            this.method = method;
+            this.transactionContextEditor = transactionContextEditor;
+            this.transactionContextParamPosition = CompensableMethodUtils.getTransactionContextParamPosition(method.getParameterTypes());
+            this.parameterEditor = CompensableMethodUtils.isParameterTransactionContextEditor(transactionContextEditor);
+        }
+
+        void setTransactionContext(TransactionContext transactionContext, Object target, Object[] args) {
+
+            if (!parameterEditor) {
+                transactionContextEditor.set(transactionContext, target, method, args);
+            } else if (transactionContextParamPosition >= 0) {
+                args[transactionContextParamPosition] = transactionContext;
+            }
+        }
+    }
+
+    private static class InvokerKey {
+
+        private final Class targetClass;
+
+        private final String methodName;
+
+        private final Class[] parameterTypes;
+
+        private final Class transactionContextEditorClass;
+
+        private final int hashCode;
+
+        InvokerKey(Class targetClass, String methodName, Class[] parameterTypes, Class transactionContextEditorClass) {
+            this.targetClass = targetClass;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+            this.transactionContextEditorClass = transactionContextEditorClass;
+
+            int result = targetClass != null ? targetClass.hashCode() : 0;
+            result = 31 * result + methodName.hashCode();
+            result = 31 * result + Arrays.hashCode(parameterTypes);
+            result = 31 * result + (transactionContextEditorClass != null ? transactionContextEditorClass.hashCode() : 0);
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            InvokerKey that = (InvokerKey) other;
+
+            return targetClass == that.targetClass
+                    && methodName.equals(that.methodName)
+                    && Arrays.equals(parameterTypes, that.parameterTypes)
+                    && transactionContextEditorClass == that.transactionContextEditorClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
@@ -4,6 +4,7 @@ package org.mengyun.tcctransaction;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
 
 import javax.transaction.xa.Xid;
@@ -13,6 +14,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by changmingxie on 10/26/15.
@@ -66,6 +73,16 @@ public class Transaction implements Serializable {
      */
     private Map<String, Object> attachments = new ConcurrentHashMap<String, Object>();
 
+    /**
+     * 已持久化的参与者数量，由事务库在写入和加载后维护，不序列化
+     */
+    private transient int persistedParticipantCount = 0;
+
+    /**
+     * 上次持久化后是否有参与者完成了confirm/cancel，由事务库在写入后重置，不序列化
+     */
+    private transient volatile boolean participantStatusChanged = false;
+
     public Transaction() {
 
     }
@@ -91,6 +108,20 @@ public class Transaction implements Serializable {
         this.transactionType = transactionType;
     }
 
+    /**
+     * 事务构造方法，用于序列化时恢复事务，其余属性通过对应的方法设置
+     * @param xid
+     * @param status
+     * @param transactionType
+     * @param createTime
+     */
+    public Transaction(TransactionXid xid, TransactionStatus status, TransactionType transactionType, Date createTime) {
+        this.xid = xid;
+        this.status = status;
+        this.transactionType = transactionType;
+        this.createTime = createTime;
+    }
+
     /**
      * 招募参与者（加入参与者）
      * @param participant
@@ -104,7 +135,7 @@ public class Transaction implements Serializable {
      * @return
      */
     public Xid getXid() {
-        return xid.clone();
+        return xid;
     }
 
     public TransactionStatus getStatus() {
@@ -129,23 +160,141 @@ public class Transaction implements Serializable {
      * 提交
      */
     public void commit() {
-        /**
-         * 遍历所有的参与者，调用参与者的提交方法
-         */
-        for (Participant participant : participants) {
-            participant.commit();
-        }
+        commit(null);
+    }
+
+    /**
+     * 提交，executorService不为空且有多个未完成的参与者时并发提交，全部结束后汇总失败.
+     * 已经confirm的参与者不再重复调用.
+     */
+    public void commit(ExecutorService executorService) {
+        commit(executorService, null);
+    }
+
+    /**
+     * 提交，每个参与者confirm后通过participantStatusPersister持久化参与者状态.
+     */
+    public void commit(ExecutorService executorService, ParticipantStatusPersister participantStatusPersister) {
+        terminate(true, executorService, participantStatusPersister);
     }
 
     /**
      * 回滚
      */
     public void rollback() {
-        /**
-         * 遍历所有的参与者，调用参与者的回滚方法
-         */
+        rollback(null);
+    }
+
+    /**
+     * 回滚，executorService不为空且有多个未完成的参与者时并发回滚，全部结束后汇总失败.
+     * 已经cancel的参与者不再重复调用.
+     */
+    public void rollback(ExecutorService executorService) {
+        rollback(executorService, null);
+    }
+
+    /**
+     * 回滚，每个参与者cancel后通过participantStatusPersister持久化参与者状态.
+     */
+    public void rollback(ExecutorService executorService, ParticipantStatusPersister participantStatusPersister) {
+        terminate(false, executorService, participantStatusPersister);
+    }
+
+    private void terminate(final boolean commit, ExecutorService executorService, final ParticipantStatusPersister participantStatusPersister) {
+
+        ParticipantStatus terminatedStatus = commit ? ParticipantStatus.CONFIRMED : ParticipantStatus.CANCELLED;
+
+        List<Participant> pendingParticipants = new ArrayList<Participant>(participants.size());
+
         for (Participant participant : participants) {
-            participant.rollback();
+            if (participant.getStatus() != terminatedStatus) {
+                pendingParticipants.add(participant);
+            }
+        }
+
+        final AtomicInteger remainingCount = new AtomicInteger(pendingParticipants.size());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        if (executorService == null || pendingParticipants.size() <= 1) {
+            /**
+             * 遍历所有的参与者，调用参与者的提交或回滚方法
+             */
+            for (Participant participant : pendingParticipants) {
+                terminate(participant, commit, remainingCount, failed, participantStatusPersister);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(pendingParticipants.size());
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        for (final Participant participant : pendingParticipants) {
+            try {
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        terminate(participant, commit, remainingCount, failed, participantStatusPersister);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // 线程池已满时在当前线程执行
+                try {
+                    terminate(participant, commit, remainingCount, failed, participantStatusPersister);
+                } catch (Throwable throwable) {
+                    failures.add(throwable);
+                }
+            }
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            } catch (InterruptedException e) {
+                // 未完成的参与者保持原状态，由恢复任务重试
+                Thread.currentThread().interrupt();
+                failures.add(e);
+                break;
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new ParticipantTerminateException(String.format("%d of %d participants failed to %s",
+                    failures.size(), pendingParticipants.size(), commit ? "confirm" : "cancel"), failures);
+        }
+    }
+
+    /**
+     * 参与者完成后持久化参与者状态.
+     * 最后一个参与者完成且没有参与者失败时事务记录随后被删除，不需要持久化;
+     * 失败的参与者先标记失败再减少剩余数，最后完成的参与者一定能看到之前的失败.
+     */
+    private void terminate(Participant participant, boolean commit, AtomicInteger remainingCount, AtomicBoolean failed,
+                           ParticipantStatusPersister participantStatusPersister) {
+
+        boolean terminated = false;
+
+        try {
+            if (commit) {
+                participant.commit();
+            } else {
+                participant.rollback();
+            }
+            terminated = true;
+        } finally {
+            if (!terminated) {
+                failed.set(true);
+                remainingCount.decrementAndGet();
+            }
+        }
+
+        participantStatusChanged = true;
+
+        if (remainingCount.decrementAndGet() > 0 || failed.get()) {
+            if (participantStatusPersister != null) {
+                participantStatusPersister.persist(this);
+            }
         }
     }
 
@@ -196,5 +345,21 @@ public class Transaction implements Serializable {
         this.lastUpdateTime = new Date();
     }
 
+    public int getPersistedParticipantCount() {
+        return persistedParticipantCount;
+    }
+
+    public void setPersistedParticipantCount(int persistedParticipantCount) {
+        this.persistedParticipantCount = persistedParticipantCount;
+    }
+
+    public boolean isParticipantStatusChanged() {
+        return participantStatusChanged;
+    }
+
+    public void setParticipantStatusChanged(boolean participantStatusChanged) {
+        this.participantStatusChanged = participantStatusChanged;
+    }
+
 
 }
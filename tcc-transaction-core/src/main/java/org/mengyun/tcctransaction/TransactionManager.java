@@ -4,11 +4,14 @@ import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.DurabilityMode;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
 
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created by changmingxie on 10/26/15.
@@ -23,6 +26,30 @@ public class TransactionManager {
 
     private ExecutorService executorService;
 
+    /**
+     * 事务结束阶段的持久化模式，非SYNC模式需要事务库继承CachableTransactionRepository，否则按SYNC执行
+     */
+    private DurabilityMode durabilityMode = DurabilityMode.SYNC;
+
+    /**
+     * 是否延迟持久化事务自身的参与者（默认关闭）.
+     * 开启后主事务/分支事务方法自身的参与者（第一个加入的参与者）只加入内存中的事务，在下一个检查点随事务一起持久化:
+     * 方法内第一个远程调用发出前加入参与者时、分支事务try结束时、commit/rollback更新状态时，或者应用调用{@link #checkpoint()}时.
+     * 其余参与者的try可能在其它进程中执行，仍然在加入时持久化，保证恢复任务知道所有可能已经执行try的远程参与者.
+     * 检查点之前宕机时，恢复任务不会cancel自身的参与者，其本地try的修改需要与主事务方法处于同一个本地事务中.
+     */
+    private boolean lazyEnlistEnabled = false;
+
+    /**
+     * 是否对所有事务并发confirm/cancel参与者（默认关闭），关闭时可以通过@Compensable的parallelTerminate单独开启
+     */
+    private boolean parallelTerminateEnabled = false;
+
+    /**
+     * 并发confirm/cancel参与者使用的有界线程池，为空时顺序执行
+     */
+    private ExecutorService parallelTerminateExecutorService;
+
     public void setTransactionRepository(TransactionRepository transactionRepository) {
         this.transactionRepository = transactionRepository;
     }
@@ -31,6 +58,22 @@ public class TransactionManager {
         this.executorService = executorService;
     }
 
+    public void setDurabilityMode(DurabilityMode durabilityMode) {
+        this.durabilityMode = durabilityMode;
+    }
+
+    public void setLazyEnlistEnabled(boolean lazyEnlistEnabled) {
+        this.lazyEnlistEnabled = lazyEnlistEnabled;
+    }
+
+    public void setParallelTerminateEnabled(boolean parallelTerminateEnabled) {
+        this.parallelTerminateEnabled = parallelTerminateEnabled;
+    }
+
+    public void setParallelTerminateExecutorService(ExecutorService parallelTerminateExecutorService) {
+        this.parallelTerminateExecutorService = parallelTerminateExecutorService;
+    }
+
     public TransactionManager() {
     }
 
@@ -79,11 +122,22 @@ public class TransactionManager {
      * 提交.
      */
     public void commit(boolean asyncCommit) {
+        commit(asyncCommit, false);
+    }
+
+    /**
+     * 提交.
+     * @param asyncCommit 是否在线程池中异步提交
+     * @param parallelTerminate 是否并发confirm参与者，全局开启时忽略
+     */
+    public void commit(boolean asyncCommit, final boolean parallelTerminate) {
         logger.debug("==>TransactionManager commit()");
         final Transaction transaction = getCurrentTransaction();
 
         transaction.changeStatus(TransactionStatus.CONFIRMING);
         logger.debug("==>update transaction status to CONFIRMING");
+
+        // CONFIRMING必须在confirm参与者之前持久化，否则宕机后恢复任务会cancel已经confirm的参与者
         transactionRepository.update(transaction);
 
         //判断是否是异步提交
@@ -94,16 +148,23 @@ public class TransactionManager {
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        commitTransaction(transaction);
+                        commitTransaction(transaction, parallelTerminate);
                     }
                 });
                 logger.debug("async submit cost time:" + (System.currentTimeMillis() - statTime));
+            } catch (RejectedExecutionException rejectedException) {
+                // 线程池已满或已关闭：恢复任务只扫描主事务，主事务记录已是CONFIRMING状态，留给恢复任务confirm；
+                // 分支事务需要抛出异常，由主事务重试confirm
+                if (transaction.getTransactionType() != TransactionType.ROOT) {
+                    throw new ConfirmingException(rejectedException);
+                }
+                logger.warn("compensable transaction async confirm rejected, recovery job will try to confirm later. " + rejectedException.getMessage());
             } catch (Throwable commitException) {
                 logger.warn("compensable transaction async submit confirm failed, recovery job will try to confirm later.", commitException);
                 throw new ConfirmingException(commitException);
             }
         } else {
-            commitTransaction(transaction);
+            commitTransaction(transaction, parallelTerminate);
         }
     }
 
@@ -117,6 +178,15 @@ public class TransactionManager {
     }
 
     public void rollback(boolean asyncRollback) {
+        rollback(asyncRollback, false);
+    }
+
+    /**
+     * 回滚.
+     * @param asyncRollback 是否在线程池中异步回滚
+     * @param parallelTerminate 是否并发cancel参与者，全局开启时忽略
+     */
+    public void rollback(boolean asyncRollback, final boolean parallelTerminate) {
 
         final Transaction transaction = getCurrentTransaction();
         transaction.changeStatus(TransactionStatus.CANCELLING);
@@ -130,40 +200,62 @@ public class TransactionManager {
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        rollbackTransaction(transaction);
+                        rollbackTransaction(transaction, parallelTerminate);
                     }
                 });
+            } catch (RejectedExecutionException rejectedException) {
+                // 线程池已满或已关闭：主事务记录已是CANCELLING状态，留给恢复任务cancel；分支事务由主事务重试cancel
+                if (transaction.getTransactionType() != TransactionType.ROOT) {
+                    throw new CancellingException(rejectedException);
+                }
+                logger.warn("compensable transaction async rollback rejected, recovery job will try to rollback later. " + rejectedException.getMessage());
             } catch (Throwable rollbackException) {
                 logger.warn("compensable transaction async rollback failed, recovery job will try to rollback later.", rollbackException);
                 throw new CancellingException(rollbackException);
             }
         } else {
             //回滚事务
-            rollbackTransaction(transaction);
+            rollbackTransaction(transaction, parallelTerminate);
         }
     }
 
 
-    private void commitTransaction(Transaction transaction) {
+    private void commitTransaction(Transaction transaction, boolean parallelTerminate) {
         try {
-            transaction.commit();
-            transactionRepository.delete(transaction);
+            transaction.commit(getTerminateExecutorService(parallelTerminate), new ParticipantStatusPersister(transactionRepository));
+            terminate(transaction);
         } catch (Throwable commitException) {
             logger.warn("compensable transaction confirm failed, recovery job will try to confirm later.", commitException);
             throw new ConfirmingException(commitException);
         }
     }
 
-    private void rollbackTransaction(Transaction transaction) {
+    private void rollbackTransaction(Transaction transaction, boolean parallelTerminate) {
         try {
-            transaction.rollback();
-            transactionRepository.delete(transaction);
+            transaction.rollback(getTerminateExecutorService(parallelTerminate), new ParticipantStatusPersister(transactionRepository));
+            terminate(transaction);
         } catch (Throwable rollbackException) {
             logger.warn("compensable transaction rollback failed, recovery job will try to rollback later.", rollbackException);
             throw new CancellingException(rollbackException);
         }
     }
 
+    private ExecutorService getTerminateExecutorService(boolean parallelTerminate) {
+        return parallelTerminateEnabled || parallelTerminate ? parallelTerminateExecutorService : null;
+    }
+
+    /**
+     * confirm/cancel成功后删除事务记录，非SYNC模式下异步批量删除
+     */
+    private void terminate(Transaction transaction) {
+
+        if (durabilityMode != DurabilityMode.SYNC && transactionRepository instanceof CachableTransactionRepository) {
+            ((CachableTransactionRepository) transactionRepository).deleteLater(transaction);
+        } else {
+            transactionRepository.delete(transaction);
+        }
+    }
+
     public Transaction getCurrentTransaction() {
         if (isTransactionActive()) {
             return CURRENT.get().peek();
@@ -211,7 +303,25 @@ public class TransactionManager {
         Transaction transaction = this.getCurrentTransaction();
         //添加参与者
         transaction.enlistParticipant(participant);
-        //更新事务到数据库
+
+        //延迟模式下事务自身的参与者等到下一个检查点再持久化
+        if (lazyEnlistEnabled && transaction.getParticipants().size() == 1) {
+            return;
+        }
+
+        //更新事务到数据库，同时持久化之前延迟的参与者
         transactionRepository.update(transaction);
     }
+
+    /**
+     * 检查点：当前事务有未持久化的参与者时更新事务.
+     */
+    public void checkpoint() {
+
+        Transaction transaction = getCurrentTransaction();
+
+        if (transaction != null && transaction.getParticipants().size() > transaction.getPersistedParticipantCount()) {
+            transactionRepository.update(transaction);
+        }
+    }
 }
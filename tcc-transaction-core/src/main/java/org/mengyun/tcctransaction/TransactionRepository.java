@@ -12,6 +12,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.Page;
 
 /**
  * 事务库接口.
@@ -49,4 +50,13 @@ public interface TransactionRepository {
      * @return
      */
     List<Transaction> findAllUnmodifiedSince(Date date);
+
+    /**
+     * 分页找出未处理的事务日志（从某一时间点开始），查询结果不放入缓存.
+     * @param date 最后更新时间早于该时间点
+     * @param cursor 上一页返回的游标，查询第一页时为null
+     * @param pageSize 每页最大记录数
+     * @return
+     */
+    Page<Transaction> findAllUnmodifiedSince(Date date, String cursor, int pageSize);
 }
@@ -0,0 +1,18 @@
+package org.mengyun.tcctransaction.common;
+
+/**
+ * 事务结束阶段的持久化模式，write-behind的写操作由事务库的后台线程批量执行，需要事务库继承CachableTransactionRepository.
+ */
+public enum DurabilityMode {
+
+    /**
+     * 同步写入CONFIRMING/CANCELLING状态和删除事务记录（默认）.
+     */
+    SYNC,
+
+    /**
+     * confirm/cancel成功后的删除异步批量执行.
+     * 删除前宕机时事务记录仍然是CONFIRMING/CANCELLING，恢复任务会重新confirm/cancel，参与者需要幂等（TCC本身的要求）.
+     */
+    ASYNC_TERMINATE
+}
@@ -0,0 +1,45 @@
+package org.mengyun.tcctransaction.common;
+
+/**
+ * 参与者状态.
+ */
+public enum ParticipantStatus {
+
+    /**
+     * 尚未confirm/cancel:1.
+     */
+    TRYING(1),
+
+    /**
+     * 已confirm:2.
+     */
+    CONFIRMED(2),
+
+    /**
+     * 已cancel:3.
+     */
+    CANCELLED(3);
+
+    int id;
+
+    ParticipantStatus(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static ParticipantStatus valueOf(int id) {
+        switch (id) {
+            case 1:
+                return TRYING;
+            case 2:
+                return CONFIRMED;
+            case 3:
+                return CANCELLED;
+            default:
+                return null;
+        }
+    }
+}
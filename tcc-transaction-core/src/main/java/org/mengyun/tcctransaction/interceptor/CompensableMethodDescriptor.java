@@ -0,0 +1,214 @@
+package org.mengyun.tcctransaction.interceptor;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 补偿方法的描述，按拦截的方法和目标类缓存，拦截器每次调用不再重复反射解析.
+ * <p>
+ * 包含@Compensable注解的属性、事务上下文编辑器实例、参与者的目标类型和事务上下文参数的位置，创建后不再修改.
+ */
+public final class CompensableMethodDescriptor {
+
+    private static final ConcurrentMap<MethodKey, CompensableMethodDescriptor> DESCRIPTORS = new ConcurrentHashMap<MethodKey, CompensableMethodDescriptor>();
+
+    /**
+     * 切点签名上的方法
+     */
+    private final Method signatureMethod;
+
+    /**
+     * 有@Compensable注解的方法
+     */
+    private final Method method;
+
+    private final Propagation propagation;
+
+    private final String confirmMethodName;
+
+    private final String cancelMethodName;
+
+    private final boolean asyncConfirm;
+
+    private final boolean asyncCancel;
+
+    private final boolean parallelTerminate;
+
+    private final Class<? extends TransactionContextEditor> transactionContextEditorClass;
+
+    private final TransactionContextEditor transactionContextEditor;
+
+    /**
+     * 参与者confirm/cancel调用的目标类型
+     */
+    private final Class declaringType;
+
+    private final Class<?>[] parameterTypes;
+
+    /**
+     * 事务上下文参数的位置，没有时为-1，只在事务上下文编辑器按参数传递时使用
+     */
+    private final int transactionContextParamPosition;
+
+    private final boolean parameterEditor;
+
+    private CompensableMethodDescriptor(Method signatureMethod, Method method, Class targetClass) {
+
+        Compensable compensable = method.getAnnotation(Compensable.class);
+
+        this.signatureMethod = signatureMethod;
+        this.method = method;
+        this.propagation = compensable.propagation();
+        this.confirmMethodName = compensable.confirmMethod();
+        this.cancelMethodName = compensable.cancelMethod();
+        this.asyncConfirm = compensable.asyncConfirm();
+        this.asyncCancel = compensable.asyncCancel();
+        this.parallelTerminate = compensable.parallelTerminate();
+        this.transactionContextEditorClass = compensable.transactionContextEditor();
+        this.transactionContextEditor = FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance();
+        this.parameterTypes = method.getParameterTypes();
+        this.declaringType = ReflectionUtils.getDeclaringType(targetClass, method.getName(), parameterTypes);
+        this.transactionContextParamPosition = CompensableMethodUtils.getTransactionContextParamPosition(parameterTypes);
+        this.parameterEditor = CompensableMethodUtils.isParameterTransactionContextEditor(transactionContextEditor);
+    }
+
+    /**
+     * 获取切点对应的补偿方法描述，方法上没有@Compensable注解时返回null.
+     */
+    public static CompensableMethodDescriptor of(ProceedingJoinPoint pjp) {
+
+        Method signatureMethod = ((MethodSignature) (pjp.getSignature())).getMethod();
+        Class targetClass = pjp.getTarget().getClass();
+
+        MethodKey key = new MethodKey(signatureMethod, targetClass);
+
+        CompensableMethodDescriptor descriptor = DESCRIPTORS.get(key);
+
+        if (descriptor == null) {
+
+            Method method = CompensableMethodUtils.getCompensableMethod(pjp);
+
+            if (method == null || method.getAnnotation(Compensable.class) == null) {
+                return null;
+            }
+
+            descriptor = new CompensableMethodDescriptor(signatureMethod, method, targetClass);
+
+            CompensableMethodDescriptor existing = DESCRIPTORS.putIfAbsent(key, descriptor);
+
+            if (existing != null) {
+                descriptor = existing;
+            }
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * 从方法参数中获取事务上下文.
+     */
+    public TransactionContext getTransactionContext(Object target, Object[] args) {
+
+        if (parameterEditor) {
+            return transactionContextParamPosition >= 0 ? (TransactionContext) args[transactionContextParamPosition] : null;
+        }
+
+        return transactionContextEditor.get(target, method, args);
+    }
+
+    /**
+     * 设置方法参数中的事务上下文.
+     */
+    public void setTransactionContext(TransactionContext transactionContext, Object target, Object[] args) {
+
+        if (parameterEditor) {
+            if (transactionContextParamPosition >= 0) {
+                args[transactionContextParamPosition] = transactionContext;
+            }
+            return;
+        }
+
+        transactionContextEditor.set(transactionContext, target, signatureMethod, args);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    public String getConfirmMethodName() {
+        return confirmMethodName;
+    }
+
+    public String getCancelMethodName() {
+        return cancelMethodName;
+    }
+
+    public boolean isAsyncConfirm() {
+        return asyncConfirm;
+    }
+
+    public boolean isAsyncCancel() {
+        return asyncCancel;
+    }
+
+    public boolean isParallelTerminate() {
+        return parallelTerminate;
+    }
+
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
+    }
+
+    public Class getDeclaringType() {
+        return declaringType;
+    }
+
+    /**
+     * 参数类型，由所有参与者的InvocationContext共享，不能修改
+     */
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    private static class MethodKey {
+
+        private final Method method;
+
+        private final Class targetClass;
+
+        MethodKey(Method method, Class targetClass) {
+            this.method = method;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            MethodKey that = (MethodKey) other;
+
+            return targetClass == that.targetClass && method.equals(that.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + targetClass.hashCode();
+        }
+    }
+}
@@ -10,12 +10,10 @@ import org.mengyun.tcctransaction.NoExistedTransactionException;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
-import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.MethodType;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
 import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
 import org.mengyun.tcctransaction.utils.ReflectionUtils;
 import org.mengyun.tcctransaction.utils.TransactionUtils;
@@ -50,21 +48,20 @@ public class CompensableTransactionInterceptor {
     public Object interceptCompensableMethod(ProceedingJoinPoint pjp) throws Throwable {
 
         log.debug("CompensableTransactionInterceptor interceptCompensableMethod");
-        //找到被Compensable注解注释的方法
-        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
+        //找到被Compensable注解注释的方法及注解属性（按方法缓存）
+        CompensableMethodDescriptor descriptor = CompensableMethodDescriptor.of(pjp);
+        Method method = descriptor.getMethod();
         log.debug("被拦截的方法名 method:{}", method.getName());
 
-        //从方法中获取到Compensable注解
-        Compensable compensable = method.getAnnotation(Compensable.class);
-        //获取传播事务的传播行为
-        Propagation propagation = compensable.propagation();
+        //获取事务的传播行为
+        Propagation propagation = descriptor.getPropagation();
         log.debug("传播行为 propagation:{}", propagation);
-        //从spring容器中获取指定transactionContextEditor类型的实例，调用实例的get方法，传入参数，获取事务上下文
-        TransactionContext transactionContext = FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs());
+        //通过注解指定的transactionContextEditor从方法参数中获取事务上下文
+        TransactionContext transactionContext = descriptor.getTransactionContext(pjp.getTarget(), pjp.getArgs());
         //是否是异步确认
-        boolean asyncConfirm = compensable.asyncConfirm();
+        boolean asyncConfirm = descriptor.isAsyncConfirm();
         //是否是异步取消
-        boolean asyncCancel = compensable.asyncCancel();
+        boolean asyncCancel = descriptor.isAsyncCancel();
         //是否事务激活
         boolean isTransactionActive = transactionManager.isTransactionActive();
         log.debug("asyncConfirm:{},asyncCancel:{},isTransactionActive:{}", new Object[]{asyncConfirm,asyncCancel,isTransactionActive});
@@ -77,9 +74,9 @@ public class CompensableTransactionInterceptor {
         log.debug("计算出的方法类型 methodType:{}", methodType);
         switch (methodType) {
             case ROOT:
-                return rootMethodProceed(pjp, asyncConfirm, asyncCancel);
+                return rootMethodProceed(pjp, asyncConfirm, asyncCancel, descriptor.isParallelTerminate());
             case PROVIDER:
-                return providerMethodProceed(pjp, transactionContext, asyncConfirm, asyncCancel);
+                return providerMethodProceed(pjp, transactionContext, asyncConfirm, asyncCancel, descriptor.isParallelTerminate());
             default:
                 return pjp.proceed();
         }
@@ -91,7 +88,7 @@ public class CompensableTransactionInterceptor {
      * @param pjp
      * @throws Throwable
      */
-    private Object rootMethodProceed(ProceedingJoinPoint pjp, boolean asyncConfirm, boolean asyncCancel) throws Throwable {
+    private Object rootMethodProceed(ProceedingJoinPoint pjp, boolean asyncConfirm, boolean asyncCancel, boolean parallelTerminate) throws Throwable {
 
         log.debug("==>rootMethodProceed");
         Object returnValue = null;
@@ -117,14 +114,14 @@ public class CompensableTransactionInterceptor {
                 } else {
                     log.warn(String.format("compensable transaction trying failed. transaction content:%s", JSON.toJSONString(transaction)), tryingException);
                     //不是指定的异常类型，就回滚
-                    transactionManager.rollback(asyncCancel);
+                    transactionManager.rollback(asyncCancel, parallelTerminate);
                 }
 
                 throw tryingException;
             }
 
             //如果没有异常那么久提交
-            transactionManager.commit(asyncConfirm);
+            transactionManager.commit(asyncConfirm, parallelTerminate);
 
         } finally {
             transactionManager.cleanAfterCompletion(transaction);
@@ -140,7 +137,7 @@ public class CompensableTransactionInterceptor {
      * @param transactionContext
      * @throws Throwable
      */
-    private Object providerMethodProceed(ProceedingJoinPoint pjp, TransactionContext transactionContext, boolean asyncConfirm, boolean asyncCancel) throws Throwable {
+    private Object providerMethodProceed(ProceedingJoinPoint pjp, TransactionContext transactionContext, boolean asyncConfirm, boolean asyncCancel, boolean parallelTerminate) throws Throwable {
 
         log.debug("==>providerMethodProceed transactionStatus:" + TransactionStatus.valueOf(transactionContext.getStatus()).toString());
 
@@ -154,14 +151,19 @@ public class CompensableTransactionInterceptor {
                     transaction = transactionManager.propagationNewBegin(transactionContext);
                     log.debug("==>providerMethodProceed try end");
                     // 开始执行被拦截的方法，或进入下一个拦截器处理逻辑
-                    return pjp.proceed();
+                    try {
+                        return pjp.proceed();
+                    } finally {
+                        // 延迟加入的参与者在返回调用方前持久化，调用方随后会confirm/cancel该分支事务
+                        transactionManager.checkpoint();
+                    }
                 case CONFIRMING:
                     try {
                         log.debug("==>providerMethodProceed confirm begin");
                         // 找出存在的事务并处理.
                         transaction = transactionManager.propagationExistBegin(transactionContext);
                         // 提交
-                        transactionManager.commit(asyncConfirm);
+                        transactionManager.commit(asyncConfirm, parallelTerminate);
                         log.debug("==>providerMethodProceed confirm end");
                     } catch (NoExistedTransactionException excepton) {
                         //the transaction has been commit,ignore it.
@@ -172,7 +174,7 @@ public class CompensableTransactionInterceptor {
                         log.debug("==>providerMethodProceed cancel begin");
                         transaction = transactionManager.propagationExistBegin(transactionContext);
                         // 回滚
-                        transactionManager.rollback(asyncCancel);
+                        transactionManager.rollback(asyncCancel, parallelTerminate);
                         log.debug("==>providerMethodProceed cancel end");
 
                     } catch (NoExistedTransactionException exception) {
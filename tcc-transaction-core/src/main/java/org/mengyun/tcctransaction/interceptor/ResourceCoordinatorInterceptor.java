@@ -3,20 +3,13 @@ package org.mengyun.tcctransaction.interceptor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.log4j.Logger;
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.reflect.MethodSignature;
 import org.mengyun.tcctransaction.InvocationContext;
 import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
-import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
-import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
-import org.mengyun.tcctransaction.utils.ReflectionUtils;
-
-import java.lang.reflect.Method;
 
 /**
  * Created by changmingxie on 11/8/15.
@@ -64,41 +57,39 @@ public class ResourceCoordinatorInterceptor {
     private void enlistParticipant(ProceedingJoinPoint pjp) throws IllegalAccessException, InstantiationException {
         log.debug("==> enlistParticipant(ProceedingJoinPoint pjp)");
 
-        //获取有Compensable注解的方法
-        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
-        log.debug("被拦截的方法名 method:{}", method.getName());
-        if (method == null) {
+        //获取有Compensable注解的方法及注解属性（按方法缓存）
+        CompensableMethodDescriptor descriptor = CompensableMethodDescriptor.of(pjp);
+        if (descriptor == null) {
             throw new RuntimeException(String.format("join point not found method, point is : %s", pjp.getSignature().getName()));
         }
-        //获取方法上的Compensable注解
-        Compensable compensable = method.getAnnotation(Compensable.class);
+        log.debug("被拦截的方法名 method:{}", descriptor.getMethod().getName());
 
         //从注解上分析得到confirmMethod与cancelMethod方法
-        String confirmMethodName = compensable.confirmMethod();
-        String cancelMethodName = compensable.cancelMethod();
+        String confirmMethodName = descriptor.getConfirmMethodName();
+        String cancelMethodName = descriptor.getCancelMethodName();
 
         //获取当前的事务
         Transaction transaction = transactionManager.getCurrentTransaction();
         //创建不同的TransactionXid使用相同的全局事务ID
         TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
 
-        //获取注解中设置的transactionContextEditor的类型的实例，然后调用get方法，如果为空，就往里面设置值
-        if (FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs()) == null) {
-            FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), ((MethodSignature) pjp.getSignature()).getMethod(), pjp.getArgs());
+        //通过注解中设置的transactionContextEditor获取事务上下文，如果为空，就往里面设置值
+        if (descriptor.getTransactionContext(pjp.getTarget(), pjp.getArgs()) == null) {
+            descriptor.setTransactionContext(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), pjp.getArgs());
         }
 
         //找到目标类，就是被AOP拦截的类
-        Class targetClass = ReflectionUtils.getDeclaringType(pjp.getTarget().getClass(), method.getName(), method.getParameterTypes());
+        Class targetClass = descriptor.getDeclaringType();
 
         //创建InvocationContext，目标类，确认的方法，方法的参数类型，方法的参数
         InvocationContext confirmInvocation = new InvocationContext(targetClass,
                 confirmMethodName,
-                method.getParameterTypes(), pjp.getArgs());
+                descriptor.getParameterTypes(), pjp.getArgs());
 
         //创建InvocationContext，目标类，确认的方法，方法的参数类型，方法的参数
         InvocationContext cancelInvocation = new InvocationContext(targetClass,
                 cancelMethodName,
-                method.getParameterTypes(), pjp.getArgs());
+                descriptor.getParameterTypes(), pjp.getArgs());
 
         //创建一个参数者
         Participant participant =
@@ -106,7 +97,7 @@ public class ResourceCoordinatorInterceptor {
                         xid,
                         confirmInvocation,
                         cancelInvocation,
-                        compensable.transactionContextEditor());
+                        descriptor.getTransactionContextEditorClass());
 
         // 加入参与者
         transactionManager.enlistParticipant(participant);
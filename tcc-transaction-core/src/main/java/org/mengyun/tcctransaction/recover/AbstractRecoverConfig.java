@@ -0,0 +1,220 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.mengyun.tcctransaction.common.DurabilityMode;
+
+import java.util.Set;
+
+/**
+ * 事务恢复配置的基类，包含RecoverConfig接口之外的可选配置及其默认值.
+ * <p>
+ * 只实现了RecoverConfig接口的配置不需要修改，通过{@link #from(RecoverConfig)}读取时这些配置使用默认值.
+ */
+public abstract class AbstractRecoverConfig implements RecoverConfig {
+
+    /**
+     * 异步confirm/cancel线程池队列长度，默认是1024
+     */
+    private int asyncTerminateQueueSize = 1024;
+
+    /**
+     * 恢复Job每次从事务库分页加载的事务日志条数，默认是200
+     */
+    private int recoverPageSize = 200;
+
+    /**
+     * 事务恢复线程池大小，默认是1（在调度线程中顺序恢复）
+     */
+    private int recoverThreadPoolSize = 1;
+
+    /**
+     * 事务恢复线程池队列长度，默认是1000
+     */
+    private int recoverQueueSize = 1000;
+
+    /**
+     * 恢复时对同一个参与者目标的最大并发数，默认是0（不限制）
+     */
+    private int maxRecoverConcurrencyPerTarget = 0;
+
+    /**
+     * 事务恢复分片数，默认是0（不分片，每个节点恢复全部事务）
+     */
+    private int recoverShardCount = 0;
+
+    /**
+     * 事务恢复分片租约时长，时间单位是秒，默认是300秒
+     */
+    private int recoverLeaseDuration = 300;
+
+    /**
+     * 事务结束阶段的持久化模式，默认是SYNC（同步写入CONFIRMING/CANCELLING和删除）
+     */
+    private DurabilityMode durabilityMode = DurabilityMode.SYNC;
+
+    /**
+     * 是否延迟持久化事务自身的参与者，默认是false（加入时立即持久化）
+     */
+    private boolean lazyEnlistEnabled = false;
+
+    /**
+     * 是否对所有事务并发confirm/cancel参与者，默认是false（可以通过@Compensable的parallelTerminate单独开启）
+     */
+    private boolean parallelTerminateEnabled = false;
+
+    /**
+     * 并发confirm/cancel参与者的线程池大小，默认是64
+     */
+    private int parallelTerminateThreadPoolSize = 64;
+
+    /**
+     * 是否使用虚拟线程，默认是false（平台线程）
+     */
+    private boolean virtualThreadEnabled = false;
+
+    public int getAsyncTerminateQueueSize() {
+        return asyncTerminateQueueSize;
+    }
+
+    public void setAsyncTerminateQueueSize(int asyncTerminateQueueSize) {
+        this.asyncTerminateQueueSize = asyncTerminateQueueSize;
+    }
+
+    public int getRecoverPageSize() {
+        return recoverPageSize;
+    }
+
+    public void setRecoverPageSize(int recoverPageSize) {
+        this.recoverPageSize = recoverPageSize;
+    }
+
+    public int getRecoverThreadPoolSize() {
+        return recoverThreadPoolSize;
+    }
+
+    public void setRecoverThreadPoolSize(int recoverThreadPoolSize) {
+        this.recoverThreadPoolSize = recoverThreadPoolSize;
+    }
+
+    public int getRecoverQueueSize() {
+        return recoverQueueSize;
+    }
+
+    public void setRecoverQueueSize(int recoverQueueSize) {
+        this.recoverQueueSize = recoverQueueSize;
+    }
+
+    public int getMaxRecoverConcurrencyPerTarget() {
+        return maxRecoverConcurrencyPerTarget;
+    }
+
+    public void setMaxRecoverConcurrencyPerTarget(int maxRecoverConcurrencyPerTarget) {
+        this.maxRecoverConcurrencyPerTarget = maxRecoverConcurrencyPerTarget;
+    }
+
+    public int getRecoverShardCount() {
+        return recoverShardCount;
+    }
+
+    public void setRecoverShardCount(int recoverShardCount) {
+        this.recoverShardCount = recoverShardCount;
+    }
+
+    public int getRecoverLeaseDuration() {
+        return recoverLeaseDuration;
+    }
+
+    public void setRecoverLeaseDuration(int recoverLeaseDuration) {
+        this.recoverLeaseDuration = recoverLeaseDuration;
+    }
+
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    public void setDurabilityMode(DurabilityMode durabilityMode) {
+        this.durabilityMode = durabilityMode;
+    }
+
+    public boolean isLazyEnlistEnabled() {
+        return lazyEnlistEnabled;
+    }
+
+    public void setLazyEnlistEnabled(boolean lazyEnlistEnabled) {
+        this.lazyEnlistEnabled = lazyEnlistEnabled;
+    }
+
+    public boolean isParallelTerminateEnabled() {
+        return parallelTerminateEnabled;
+    }
+
+    public void setParallelTerminateEnabled(boolean parallelTerminateEnabled) {
+        this.parallelTerminateEnabled = parallelTerminateEnabled;
+    }
+
+    public int getParallelTerminateThreadPoolSize() {
+        return parallelTerminateThreadPoolSize;
+    }
+
+    public void setParallelTerminateThreadPoolSize(int parallelTerminateThreadPoolSize) {
+        this.parallelTerminateThreadPoolSize = parallelTerminateThreadPoolSize;
+    }
+
+    public boolean isVirtualThreadEnabled() {
+        return virtualThreadEnabled;
+    }
+
+    public void setVirtualThreadEnabled(boolean virtualThreadEnabled) {
+        this.virtualThreadEnabled = virtualThreadEnabled;
+    }
+
+    /**
+     * 获取配置的可选部分，配置没有继承本类时可选配置使用默认值.
+     */
+    public static AbstractRecoverConfig from(RecoverConfig recoverConfig) {
+
+        if (recoverConfig instanceof AbstractRecoverConfig) {
+            return (AbstractRecoverConfig) recoverConfig;
+        }
+
+        return new DelegatingRecoverConfig(recoverConfig);
+    }
+
+    private static class DelegatingRecoverConfig extends AbstractRecoverConfig {
+
+        private final RecoverConfig delegate;
+
+        DelegatingRecoverConfig(RecoverConfig delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int getMaxRetryCount() {
+            return delegate.getMaxRetryCount();
+        }
+
+        @Override
+        public int getRecoverDuration() {
+            return delegate.getRecoverDuration();
+        }
+
+        @Override
+        public String getCronExpression() {
+            return delegate.getCronExpression();
+        }
+
+        @Override
+        public Set<Class<? extends Exception>> getDelayCancelExceptions() {
+            return delegate.getDelayCancelExceptions();
+        }
+
+        @Override
+        public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayRecoverExceptions) {
+            delegate.setDelayCancelExceptions(delayRecoverExceptions);
+        }
+
+        @Override
+        public int getAsyncTerminateThreadPoolSize() {
+            return delegate.getAsyncTerminateThreadPoolSize();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.Page;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 事务恢复租约库，由支持集群部署的事务库实现，用于多个节点分片恢复.
+ * 租约名称在同一个事务库（domain/keyPrefix/zkRootPath）内唯一.
+ * 分片恢复时按分桶区间查询事务，只读取当前节点持有分片内的事务.
+ */
+public interface RecoverLeaseRepository {
+
+    /**
+     * 获取租约，租约已被owner持有时续期.
+     *
+     * @param leaseName    租约名称
+     * @param owner        持有者
+     * @param leaseMillis  租约时长（毫秒）
+     * @return 是否持有该租约
+     */
+    boolean tryAcquireLease(String leaseName, String owner, long leaseMillis);
+
+    /**
+     * 释放owner持有的租约.
+     *
+     * @param leaseName
+     * @param owner
+     */
+    void releaseLease(String leaseName, String owner);
+
+    /**
+     * 找出所有未过期的指定前缀的租约名称.
+     *
+     * @param leaseNamePrefix
+     * @return
+     */
+    List<String> findActiveLeases(String leaseNamePrefix);
+
+    /**
+     * 分页找出恢复分桶在[fromBucket, toBucket)区间内的未处理事务日志（从某一时间点开始），查询结果不放入缓存.
+     *
+     * @param date       最后更新时间早于该时间点
+     * @param fromBucket 起始分桶（包含）
+     * @param toBucket   结束分桶（不包含）
+     * @param cursor     上一页返回的游标，查询第一页时为null
+     * @param pageSize   每页最大扫描记录数，分桶过滤后返回的记录数可能少于该值
+     * @return
+     * @see RecoverShardManager#getBucket(String)
+     */
+    Page<Transaction> findAllUnmodifiedSince(Date date, int fromBucket, int toBucket, String cursor, int pageSize);
+}
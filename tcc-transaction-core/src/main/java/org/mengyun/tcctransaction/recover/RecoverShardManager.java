@@ -0,0 +1,198 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.apache.log4j.Logger;
+
+import javax.transaction.xa.Xid;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * 事务恢复分片管理.
+ * <p/>
+ * 事务按全局事务ID的hash固定分到BUCKET_COUNT个恢复分桶，分桶按区间均分到shardCount个分片，
+ * 每个节点通过租约认领其中一部分分片，只从事务库中查询并恢复自己持有分片的分桶区间内的事务.
+ * 分桶与分片数无关，修改分片数不需要改写已有的事务记录.
+ * 每个节点同时持有一个成员租约，认领分片时按存活节点数均分，节点加入时多出的分片被释放，节点离开（租约过期）后其分片被其它节点认领.
+ * 租约只在rebalance时续期，租约时长需要大于恢复任务的调度间隔.
+ */
+public class RecoverShardManager {
+
+    static final Logger logger = Logger.getLogger(RecoverShardManager.class.getSimpleName());
+
+    /**
+     * 恢复分桶数，分片数不能大于分桶数
+     */
+    public static final int BUCKET_COUNT = 1024;
+
+    private static final String MEMBER_LEASE_PREFIX = "member:";
+
+    private static final String SHARD_LEASE_PREFIX = "shard:";
+
+    private final RecoverLeaseRepository leaseRepository;
+
+    private final int shardCount;
+
+    private final long leaseMillis;
+
+    private final String owner;
+
+    /**
+     * 当前节点持有的分片
+     */
+    private volatile Set<Integer> ownedShards = Collections.emptySet();
+
+    private volatile long lastRebalanceTime;
+
+    public RecoverShardManager(RecoverLeaseRepository leaseRepository, int shardCount, long leaseMillis) {
+        this(leaseRepository, shardCount, leaseMillis,
+                ManagementFactory.getRuntimeMXBean().getName() + ":" + UUID.randomUUID().toString().substring(0, 8));
+    }
+
+    public RecoverShardManager(RecoverLeaseRepository leaseRepository, int shardCount, long leaseMillis, String owner) {
+
+        if (shardCount <= 0 || shardCount > BUCKET_COUNT) {
+            throw new IllegalArgumentException("recover shard count should be between 1 and " + BUCKET_COUNT + ", but was " + shardCount);
+        }
+
+        this.leaseRepository = leaseRepository;
+        this.shardCount = shardCount;
+        this.leaseMillis = leaseMillis;
+        this.owner = owner;
+    }
+
+    /**
+     * 续期成员租约和已持有的分片租约，并按当前存活节点数重新均衡分片.
+     */
+    public synchronized void rebalance() {
+
+        leaseRepository.tryAcquireLease(MEMBER_LEASE_PREFIX + owner, owner, leaseMillis);
+
+        List<String> members = new ArrayList<String>(leaseRepository.findActiveLeases(MEMBER_LEASE_PREFIX));
+
+        if (!members.contains(MEMBER_LEASE_PREFIX + owner)) {
+            members.add(MEMBER_LEASE_PREFIX + owner);
+        }
+
+        Collections.sort(members);
+
+        int fairShare = (shardCount + members.size() - 1) / members.size();
+
+        TreeSet<Integer> shards = new TreeSet<Integer>();
+
+        for (Integer shard : ownedShards) {
+            if (leaseRepository.tryAcquireLease(SHARD_LEASE_PREFIX + shard, owner, leaseMillis)) {
+                shards.add(shard);
+            } else {
+                logger.warn(String.format("recover shard %d is lost, owner:%s", shard, owner));
+            }
+        }
+
+        while (shards.size() > fairShare) {
+            Integer shard = shards.pollLast();
+            leaseRepository.releaseLease(SHARD_LEASE_PREFIX + shard, owner);
+        }
+
+        // 各节点从不同的起点开始认领，减少冲突
+        int start = members.indexOf(MEMBER_LEASE_PREFIX + owner) * shardCount / members.size();
+
+        for (int i = 0; i < shardCount && shards.size() < fairShare; i++) {
+
+            int shard = (start + i) % shardCount;
+
+            if (!shards.contains(shard) && leaseRepository.tryAcquireLease(SHARD_LEASE_PREFIX + shard, owner, leaseMillis)) {
+                shards.add(shard);
+            }
+        }
+
+        if (!shards.equals(ownedShards)) {
+            logger.info(String.format("recover shards changed, owner:%s, members:%d, shards:%s", owner, members.size(), shards));
+        }
+
+        ownedShards = Collections.unmodifiableSet(shards);
+        lastRebalanceTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 距上次rebalance超过租约时长的1/3时重新rebalance，保证长时间的恢复过程中租约不过期.
+     */
+    public void rebalanceIfNecessary() {
+        if (System.currentTimeMillis() - lastRebalanceTime > leaseMillis / 3) {
+            rebalance();
+        }
+    }
+
+    /**
+     * 释放当前节点持有的全部租约，节点下线时调用.
+     */
+    public synchronized void releaseAll() {
+
+        for (Integer shard : ownedShards) {
+            leaseRepository.releaseLease(SHARD_LEASE_PREFIX + shard, owner);
+        }
+
+        leaseRepository.releaseLease(MEMBER_LEASE_PREFIX + owner, owner);
+
+        ownedShards = Collections.emptySet();
+    }
+
+    public boolean isOwned(Xid xid) {
+        return ownedShards.contains(getShard(xid));
+    }
+
+    public int getShard(Xid xid) {
+        return getBucket(xid) * shardCount / BUCKET_COUNT;
+    }
+
+    /**
+     * 分片的起始分桶（包含）.
+     */
+    public int getFromBucket(int shard) {
+        return (shard * BUCKET_COUNT + shardCount - 1) / shardCount;
+    }
+
+    /**
+     * 分片的结束分桶（不包含）.
+     */
+    public int getToBucket(int shard) {
+        return getFromBucket(shard + 1);
+    }
+
+    public static int getBucket(Xid xid) {
+        return getBucket(xid.toString());
+    }
+
+    /**
+     * 根据事务ID的字符串形式（Xid.toString()，即redis key去掉前缀的部分和zookeeper节点名）计算恢复分桶，
+     * 只取第一个':'之前的全局事务ID部分，同一全局事务的分支落在同一个分桶.
+     */
+    public static int getBucket(String xid) {
+
+        int hash = 0;
+
+        for (int i = 0; i < xid.length(); i++) {
+
+            char c = xid.charAt(i);
+
+            if (c == ':') {
+                break;
+            }
+
+            hash = 31 * hash + c;
+        }
+
+        return (hash & Integer.MAX_VALUE) % BUCKET_COUNT;
+    }
+
+    public Set<Integer> getOwnedShards() {
+        return ownedShards;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+}
@@ -4,15 +4,38 @@ import com.alibaba.fastjson.JSON;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.ParticipantStatusPersister;
+import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.support.NamedThreadFactory;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.support.VirtualThreadPerTaskExecutor;
 
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by changmingxie on 11/10/15.
@@ -26,82 +49,377 @@ public class TransactionRecovery {
      */
     private TransactionConfigurator transactionConfigurator;
 
+    private volatile ExecutorService recoverExecutor;
+
+    private volatile RecoverShardManager recoverShardManager;
+
+    /**
+     * 正在恢复的事务
+     */
+    private final ConcurrentMap<Xid, Boolean> inProgressTransactions = new ConcurrentHashMap<Xid, Boolean>();
+
+    /**
+     * 参与者目标类名 -> 并发许可
+     */
+    private final ConcurrentMap<String, Semaphore> targetPermits = new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicInteger backlogSize = new AtomicInteger();
+
+    private final AtomicLong recoveredCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private volatile double lastDrainRate;
+
     public void startRecover() {
 
-        // 找出所有执行错误的事务信息
-        List<Transaction> transactions = loadErrorTransactions();
+        long startTime = System.currentTimeMillis();
+        int submittedCount = 0;
+
+        Date unmodifiedSince = new Date(Calendar.getInstance().getTimeInMillis() - transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000);
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        RecoverShardManager shardManager = getRecoverShardManager();
+
+        try {
+            if (shardManager == null) {
+                submittedCount += recoverErrorTransactions(unmodifiedSince, null, null, futures);
+            } else {
+                shardManager.rebalance();
 
-        //恢复错误的事务.
-        recoverErrorTransactions(transactions);
+                // 分片恢复时按持有的分片逐个查询，只读取当前节点持有分片内的事务
+                for (Integer shard : shardManager.getOwnedShards()) {
+                    submittedCount += recoverErrorTransactions(unmodifiedSince, shardManager, shard, futures);
+                }
+            }
+        } finally {
+            // 等待本轮提交的事务全部恢复完成，保证下一轮调度不会与本轮重叠
+            waitForCompletion(futures);
+        }
+
+        long costTime = System.currentTimeMillis() - startTime;
+
+        lastDrainRate = submittedCount * 1000d / Math.max(costTime, 1);
+
+        if (submittedCount > 0) {
+            logger.info(String.format("recover finished, transactions:%d, cost time:%dms, drain rate:%.2f/s, recovered total:%d, failed total:%d",
+                    submittedCount, costTime, lastDrainRate, recoveredCount.get(), failedCount.get()));
+        }
     }
 
     /**
-     * 找出所有执行错误的事务信息
-     * @return
+     * 分页找出并恢复执行错误的事务，避免一次加载全部事务日志.
+     * @param shard 分片恢复时为要恢复的分片，否则为null
+     * @return 提交恢复的事务数
      */
-    private List<Transaction> loadErrorTransactions() {
+    private int recoverErrorTransactions(Date unmodifiedSince, RecoverShardManager shardManager, Integer shard, List<Future<?>> futures) {
+
+        int submittedCount = 0;
+
+        String cursor = null;
+
+        do {
+            if (shardManager != null) {
+                shardManager.rebalanceIfNecessary();
+
+                // 分片在恢复过程中被其它节点认领时停止查询
+                if (!shardManager.getOwnedShards().contains(shard)) {
+                    break;
+                }
+            }
+
+            Page<Transaction> page = loadErrorTransactions(unmodifiedSince, shardManager, shard, cursor);
+
+            //恢复错误的事务.
+            submittedCount += recoverErrorTransactions(page.getData(), futures);
 
+            cursor = page.getNextCursor();
 
-        long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
+        } while (cursor != null);
+
+        return submittedCount;
+    }
+
+    /**
+     * 分页找出执行错误的事务信息，分片恢复时按分片的分桶区间查询
+     * @return
+     */
+    private Page<Transaction> loadErrorTransactions(Date unmodifiedSince, RecoverShardManager shardManager, Integer shard, String cursor) {
 
         TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
-        RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
+        AbstractRecoverConfig recoverConfig = AbstractRecoverConfig.from(transactionConfigurator.getRecoverConfig());
+
+        if (shardManager == null) {
+            return transactionRepository.findAllUnmodifiedSince(unmodifiedSince, cursor, recoverConfig.getRecoverPageSize());
+        }
 
-        return transactionRepository.findAllUnmodifiedSince(new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000));
+        return ((RecoverLeaseRepository) transactionRepository).findAllUnmodifiedSince(unmodifiedSince,
+                shardManager.getFromBucket(shard), shardManager.getToBucket(shard), cursor, recoverConfig.getRecoverPageSize());
     }
 
     /**
-     * 恢复错误的事务.
+     * 恢复错误的事务，恢复线程池大于1时提交到线程池并行恢复.
      * @param transactions
+     * @return 提交恢复的事务数
      */
-    private void recoverErrorTransactions(List<Transaction> transactions) {
+    private int recoverErrorTransactions(List<Transaction> transactions, List<Future<?>> futures) {
 
+        ExecutorService executorService = getRecoverExecutor();
 
-        for (Transaction transaction : transactions) {
+        int submittedCount = 0;
 
-            if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+        for (final Transaction transaction : transactions) {
 
-                logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
+            // 同一个事务在一次扫描中可能出现多次（如redis SCAN），正在恢复的事务不能被另一个线程重复处理
+            if (inProgressTransactions.putIfAbsent(transaction.getXid(), Boolean.TRUE) != null) {
                 continue;
             }
 
-            if (transaction.getTransactionType().equals(TransactionType.BRANCH)
-                    && (transaction.getCreateTime().getTime() +
-                    transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
-                            transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
-                    > System.currentTimeMillis())) {
-                continue;
+            backlogSize.incrementAndGet();
+            submittedCount++;
+
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        recoverErrorTransaction(transaction);
+                    } finally {
+                        backlogSize.decrementAndGet();
+                        inProgressTransactions.remove(transaction.getXid());
+                    }
+                }
+            };
+
+            if (executorService == null) {
+                task.run();
+            } else {
+                futures.add(executorService.submit(task));
+            }
+        }
+
+        // 清理已完成的任务，避免积压大量已完成的Future
+        Iterator<Future<?>> iterator = futures.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+
+        return submittedCount;
+    }
+
+    private void recoverErrorTransaction(Transaction transaction) {
+
+        if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+
+            logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
+            return;
+        }
+
+        if (transaction.getTransactionType().equals(TransactionType.BRANCH)
+                && (transaction.getCreateTime().getTime() +
+                transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
+                        transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
+                > System.currentTimeMillis())) {
+            return;
+        }
+
+        List<Semaphore> permits = Collections.emptyList();
+
+        try {
+            permits = acquireTargetPermits(transaction);
+
+            transaction.addRetriedCount();
+
+            if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+
+                transaction.changeStatus(TransactionStatus.CONFIRMING);
+                transactionConfigurator.getTransactionRepository().update(transaction);
+                transaction.commit(null, new ParticipantStatusPersister(transactionConfigurator.getTransactionRepository()));
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+
+            } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
+                    || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+
+                transaction.changeStatus(TransactionStatus.CANCELLING);
+                transactionConfigurator.getTransactionRepository().update(transaction);
+                transaction.rollback(null, new ParticipantStatusPersister(transactionConfigurator.getTransactionRepository()));
+                transactionConfigurator.getTransactionRepository().delete(transaction);
             }
-            
+
+            recoveredCount.incrementAndGet();
+
+        } catch (Throwable throwable) {
+
+            failedCount.incrementAndGet();
+
+            if (throwable instanceof OptimisticLockException
+                    || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
+                logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            } else {
+                logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            }
+        } finally {
+            releaseTargetPermits(permits);
+        }
+    }
+
+    /**
+     * 按顺序获取事务所有参与者目标的并发许可，避免对同一个下游服务发起过多并发的confirm/cancel调用.
+     */
+    private List<Semaphore> acquireTargetPermits(Transaction transaction) {
+
+        int maxConcurrencyPerTarget = AbstractRecoverConfig.from(transactionConfigurator.getRecoverConfig()).getMaxRecoverConcurrencyPerTarget();
+
+        if (maxConcurrencyPerTarget <= 0) {
+            return Collections.emptyList();
+        }
+
+        // 排序后依次获取，避免多个恢复线程之间互相等待
+        SortedSet<String> targets = new TreeSet<String>();
+
+        for (Participant participant : transaction.getParticipants()) {
+            if (participant.getConfirmInvocationContext() != null && participant.getConfirmInvocationContext().getTargetClass() != null) {
+                targets.add(participant.getConfirmInvocationContext().getTargetClass().getName());
+            }
+        }
+
+        List<Semaphore> permits = new ArrayList<Semaphore>(targets.size());
+
+        try {
+            for (String target : targets) {
+
+                Semaphore semaphore = targetPermits.get(target);
+
+                if (semaphore == null) {
+                    semaphore = new Semaphore(maxConcurrencyPerTarget);
+                    Semaphore existing = targetPermits.putIfAbsent(target, semaphore);
+                    semaphore = existing != null ? existing : semaphore;
+                }
+
+                semaphore.acquire();
+                permits.add(semaphore);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseTargetPermits(permits);
+            throw new SystemException(e);
+        }
+
+        return permits;
+    }
+
+    private void releaseTargetPermits(List<Semaphore> permits) {
+        for (Semaphore semaphore : permits) {
+            semaphore.release();
+        }
+    }
+
+    private void waitForCompletion(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
             try {
-                transaction.addRetriedCount();
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("recover task failed", e.getCause());
+            }
+        }
+        futures.clear();
+    }
+
+    private ExecutorService getRecoverExecutor() {
+
+        AbstractRecoverConfig recoverConfig = AbstractRecoverConfig.from(transactionConfigurator.getRecoverConfig());
 
-                if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+        int poolSize = recoverConfig.getRecoverThreadPoolSize();
 
-                    transaction.changeStatus(TransactionStatus.CONFIRMING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.commit();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
+        if (poolSize <= 1) {
+            return null;
+        }
 
-                } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
-                        || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+        if (recoverExecutor == null) {
+            synchronized (this) {
+                if (recoverExecutor == null) {
+                    NamedThreadFactory threadFactory = new NamedThreadFactory("tcc-recovery-", recoverConfig.isVirtualThreadEnabled());
+                    int queueSize = Math.max(recoverConfig.getRecoverQueueSize(), 1);
 
-                    transaction.changeStatus(TransactionStatus.CANCELLING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.rollback();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
+                    // 队列满时由调度线程自己执行，从而限制扫描速度
+                    if (threadFactory.isVirtualThread()) {
+                        recoverExecutor = new VirtualThreadPerTaskExecutor(threadFactory, poolSize, queueSize, true);
+                    } else {
+                        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                                60L, TimeUnit.SECONDS,
+                                new ArrayBlockingQueue<Runnable>(queueSize),
+                                threadFactory,
+                                new ThreadPoolExecutor.CallerRunsPolicy());
+                        executor.allowCoreThreadTimeOut(true);
+                        recoverExecutor = executor;
+                    }
                 }
+            }
+        }
+
+        return recoverExecutor;
+    }
+
+    private RecoverShardManager getRecoverShardManager() {
+
+        if (recoverShardManager == null) {
+
+            AbstractRecoverConfig recoverConfig = AbstractRecoverConfig.from(transactionConfigurator.getRecoverConfig());
+            TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
 
-            } catch (Throwable throwable) {
+            if (recoverConfig.getRecoverShardCount() <= 0) {
+                return null;
+            }
+
+            if (!(transactionRepository instanceof RecoverLeaseRepository)) {
+                logger.warn("recover shard is ignored, the transaction repository does not support lease:" + transactionRepository.getClass().getName());
+                return null;
+            }
 
-                if (throwable instanceof OptimisticLockException
-                        || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
-                    logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
-                } else {
-                    logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            synchronized (this) {
+                if (recoverShardManager == null) {
+                    recoverShardManager = new RecoverShardManager((RecoverLeaseRepository) transactionRepository,
+                            recoverConfig.getRecoverShardCount(), recoverConfig.getRecoverLeaseDuration() * 1000L);
                 }
             }
         }
+
+        return recoverShardManager;
+    }
+
+    /**
+     * 当前待恢复（排队及正在恢复）的事务数.
+     */
+    public int getBacklogSize() {
+        return backlogSize.get();
+    }
+
+    /**
+     * 最近一轮恢复的速率（事务数/秒）.
+     */
+    public double getLastDrainRate() {
+        return lastDrainRate;
+    }
+
+    public long getRecoveredCount() {
+        return recoveredCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 设置事务恢复分片管理，未设置时根据RecoverConfig创建，事务库需要实现RecoverLeaseRepository.
+     * @param recoverShardManager
+     */
+    public void setRecoverShardManager(RecoverShardManager recoverShardManager) {
+        this.recoverShardManager = recoverShardManager;
     }
 
     /**
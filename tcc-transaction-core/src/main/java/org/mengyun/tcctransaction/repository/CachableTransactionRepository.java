@@ -19,8 +19,12 @@ import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionXid;
 
 import javax.transaction.xa.Xid;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -41,6 +45,18 @@ public abstract class CachableTransactionRepository implements TransactionReposi
      */
     private Cache<Xid, Transaction> transactionXidCompensableTransactionCache;
 
+    /**
+     * write-behind每批最多执行的删除数
+     */
+    private int writeBehindBatchSize = 64;
+
+    /**
+     * write-behind在凑满一批前最多等待的时间（毫秒）
+     */
+    private long writeBehindLingerMillis = 5;
+
+    private volatile WriteBehindFlusher writeBehindFlusher;
+
     /**
      * 创建事务日志记录
      */
@@ -49,6 +65,8 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         LOG.debug("==>create(Transaction transaction)");
         int result = doCreate(transaction);
         if (result > 0) {
+            transaction.setPersistedParticipantCount(transaction.getParticipants().size());
+            transaction.setParticipantStatusChanged(false);
             putToCache(transaction);
         }
         return result;
@@ -59,6 +77,8 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         LOG.debug("==>update(Transaction transaction)");
         int result = doUpdate(transaction);
         if (result > 0) {
+            transaction.setPersistedParticipantCount(transaction.getParticipants().size());
+            transaction.setParticipantStatusChanged(false);
             putToCache(transaction);
         } else {
             throw new OptimisticLockException();
@@ -112,6 +132,11 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return transactions;
     }
 
+    @Override
+    public Page<Transaction> findAllUnmodifiedSince(Date date, String cursor, int pageSize) {
+        return doFindAllUnmodifiedSince(date, cursor, pageSize);
+    }
+
     public CachableTransactionRepository() {
         transactionXidCompensableTransactionCache = CacheBuilder.newBuilder().expireAfterAccess(expireDuration, TimeUnit.SECONDS).maximumSize(1000).build();
     }
@@ -145,6 +170,76 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         this.expireDuration = durationInSeconds;
     }
 
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    public void setWriteBehindLingerMillis(long writeBehindLingerMillis) {
+        this.writeBehindLingerMillis = writeBehindLingerMillis;
+    }
+
+    /**
+     * 异步删除事务，由后台线程批量执行.
+     * 提交时复制删除需要的字段，调用方之后对事务的修改不影响删除.
+     * 调用返回时没有持久化，宕机或删除失败时事务记录保留，由恢复任务重新confirm/cancel.
+     */
+    public void deleteLater(Transaction transaction) {
+
+        Transaction snapshot = new Transaction((TransactionXid) transaction.getXid(), transaction.getStatus(),
+                transaction.getTransactionType(), transaction.getCreateTime());
+        snapshot.setVersion(transaction.getVersion());
+        snapshot.setLastUpdateTime(transaction.getLastUpdateTime());
+
+        getWriteBehindFlusher().submit(snapshot);
+    }
+
+    /**
+     * 在调用线程中执行所有等待中的异步写操作，用于停止前或测试.
+     */
+    public void flush() {
+        if (writeBehindFlusher != null) {
+            writeBehindFlusher.flush();
+        }
+    }
+
+    /**
+     * 停止write-behind后台线程，并在调用线程中执行所有等待中的异步写操作，之后的deleteLater在调用线程中直接执行.
+     */
+    public void shutdown() {
+        if (writeBehindFlusher != null) {
+            writeBehindFlusher.shutdown();
+        }
+    }
+
+    /**
+     * 批量删除事务，返回每个事务的删除结果，默认逐条删除，支持批量写的事务库可以覆盖.
+     */
+    protected int[] doDelete(List<Transaction> transactions) {
+
+        int[] results = new int[transactions.size()];
+
+        for (int i = 0; i < transactions.size(); i++) {
+            results[i] = doDelete(transactions.get(i));
+        }
+
+        return results;
+    }
+
+    private WriteBehindFlusher getWriteBehindFlusher() {
+
+        if (writeBehindFlusher == null) {
+            synchronized (this) {
+                if (writeBehindFlusher == null) {
+                    WriteBehindFlusher flusher = new WriteBehindFlusher();
+                    flusher.start();
+                    writeBehindFlusher = flusher;
+                }
+            }
+        }
+
+        return writeBehindFlusher;
+    }
+
     /**
      * 创建事务日志记录
      * @param transaction
@@ -159,4 +254,145 @@ public abstract class CachableTransactionRepository implements TransactionReposi
     protected abstract Transaction doFindOne(Xid xid);
 
     protected abstract List<Transaction> doFindAllUnmodifiedSince(Date date);
+
+    /**
+     * 分页查询，默认一次返回全部记录，支持游标的事务库应覆盖该方法.
+     */
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String cursor, int pageSize) {
+
+        if (cursor != null) {
+            return new Page<Transaction>(new ArrayList<Transaction>(), null);
+        }
+
+        return new Page<Transaction>(doFindAllUnmodifiedSince(date), null);
+    }
+
+    /**
+     * write-behind后台线程：按提交顺序保存等待中的删除，同一事务只保留一个.
+     */
+    private class WriteBehindFlusher implements Runnable {
+
+        private final Map<Xid, Transaction> pendingDeletes = new LinkedHashMap<Xid, Transaction>();
+
+        private volatile boolean stopped = false;
+
+        void start() {
+            Thread thread = new Thread(this, "tcc-write-behind-flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Transaction transaction) {
+
+            synchronized (pendingDeletes) {
+                pendingDeletes.put(transaction.getXid(), transaction);
+                pendingDeletes.notifyAll();
+            }
+
+            // 停止后没有后台线程执行，在调用线程中执行
+            if (stopped) {
+                flush();
+            }
+        }
+
+        /**
+         * 通知后台线程退出，并执行所有等待中的删除
+         */
+        void shutdown() {
+
+            stopped = true;
+
+            synchronized (pendingDeletes) {
+                pendingDeletes.notifyAll();
+            }
+
+            flush();
+        }
+
+        /**
+         * 与后台线程互斥执行，返回时之前提交的删除都已经执行完成
+         */
+        synchronized void flush() {
+
+            List<Transaction> batch;
+
+            while (!(batch = drainBatch()).isEmpty()) {
+                execute(batch);
+            }
+        }
+
+        @Override
+        public void run() {
+
+            while (!stopped) {
+                try {
+                    awaitBatch();
+
+                    synchronized (this) {
+                        execute(drainBatch());
+                    }
+                } catch (InterruptedException e) {
+                    // 等待中的删除由flush/shutdown执行，未执行的由恢复任务处理
+                    LOG.warn("write-behind flusher interrupted, exit");
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable e) {
+                    LOG.error("write-behind flush failed, recovery job will terminate the transactions later", e);
+                }
+            }
+        }
+
+        /**
+         * 等待直到有删除，再最多等待writeBehindLingerMillis凑满一批
+         */
+        private void awaitBatch() throws InterruptedException {
+
+            synchronized (pendingDeletes) {
+
+                while (pendingDeletes.isEmpty() && !stopped) {
+                    pendingDeletes.wait();
+                }
+
+                long deadline = System.currentTimeMillis() + writeBehindLingerMillis;
+                long remaining = writeBehindLingerMillis;
+
+                while (pendingDeletes.size() < writeBehindBatchSize && remaining > 0 && !stopped) {
+                    pendingDeletes.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        }
+
+        private List<Transaction> drainBatch() {
+
+            List<Transaction> batch = new ArrayList<Transaction>();
+
+            synchronized (pendingDeletes) {
+
+                Iterator<Transaction> iterator = pendingDeletes.values().iterator();
+
+                while (iterator.hasNext() && batch.size() < writeBehindBatchSize) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+            }
+
+            return batch;
+        }
+
+        private void execute(List<Transaction> batch) {
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            int[] results = doDelete(batch);
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i] > 0) {
+                    removeFromCache(batch.get(i));
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,936 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.SerializeBuffer;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented log repository.
+ * <p/>
+ * All create/update/delete records are appended to the active segment by a single writer thread. Records
+ * submitted concurrently by many threads are written together and made durable with one fsync (group commit),
+ * the callers block until the batch containing their record is forced to disk.
+ * <p/>
+ * An in-memory xid -> position index is kept for all live records, it is rebuilt by replaying the segments at
+ * startup, so recovery only reads the records it actually needs. Segments are compacted oldest first in the
+ * background: live records of the oldest segment are relocated to the head of the log and the segment is removed.
+ * <p/>
+ * like FileSystemTransactionRepository, this repository is suitable for single node, not for cluster nodes
+ */
+public class FileSystemLogTransactionRepository extends CachableTransactionRepository {
+
+    static final Logger logger = Logger.getLogger(FileSystemLogTransactionRepository.class.getSimpleName());
+
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+    private static final byte OP_PUT = 1;
+
+    private static final byte OP_DELETE = 2;
+
+    /**
+     * length(4) + crc(4)
+     */
+    private static final int RECORD_PREFIX_SIZE = 8;
+
+    private static final Comparator<Map.Entry<TransactionXid, LogPosition>> POSITION_ORDER = new Comparator<Map.Entry<TransactionXid, LogPosition>>() {
+        @Override
+        public int compare(Map.Entry<TransactionXid, LogPosition> o1, Map.Entry<TransactionXid, LogPosition> o2) {
+            return LogPosition.compare(o1.getValue(), o2.getValue());
+        }
+    };
+
+    private String rootPath = "/tcc_log";
+
+    private long segmentSize = 64 * 1024 * 1024;
+
+    private int maxBatchSize = 512;
+
+    private int compactIntervalSeconds = 60;
+
+    /**
+     * the oldest segment is compacted while its live bytes ratio is below this threshold
+     */
+    private double compactThreshold = 0.5d;
+
+    private ObjectSerializer serializer = new JdkSerializationSerializer();
+
+    private volatile boolean initialized;
+
+    private volatile boolean closed;
+
+    /**
+     * guards closed and the enqueue of pending records, no record is enqueued after the writer is told to stop
+     */
+    private final Object submitLock = new Object();
+
+    private final Map<TransactionXid, LogPosition> index = new ConcurrentHashMap<TransactionXid, LogPosition>();
+
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<Long, LogSegment>();
+
+    private final BlockingQueue<PendingRecord> pendingRecords = new LinkedBlockingQueue<PendingRecord>();
+
+    private volatile LogSegment activeSegment;
+
+    private Thread writerThread;
+
+    private ScheduledExecutorService compactExecutor;
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setCompactIntervalSeconds(int compactIntervalSeconds) {
+        this.compactIntervalSeconds = compactIntervalSeconds;
+    }
+
+    public void setCompactThreshold(double compactThreshold) {
+        this.compactThreshold = compactThreshold;
+    }
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+        append(OP_PUT, transaction);
+        return 1;
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+
+        transaction.updateVersion();
+        transaction.updateTime();
+
+        append(OP_PUT, transaction);
+        return 1;
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+
+        initializeIfNecessary();
+
+        if (index.containsKey(toKey(transaction.getXid()))) {
+            append(OP_DELETE, transaction);
+        }
+        return 1;
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+
+        initializeIfNecessary();
+
+        TransactionXid key = toKey(xid);
+
+        //the segment may be removed by compaction between index lookup and read, retry with the relocated position
+        for (int i = 0; i < 3; i++) {
+
+            LogPosition position = index.get(key);
+
+            if (position == null) {
+                return null;
+            }
+
+            try {
+                return readTransaction(position);
+            } catch (ClosedChannelException e) {
+                logger.debug("segment closed while reading, retry. xid:" + key);
+            } catch (IOException e) {
+                throw new TransactionIOException(e);
+            }
+        }
+
+        throw new TransactionIOException("cannot read transaction, xid:" + key);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+
+        initializeIfNecessary();
+
+        List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : index.entrySet()) {
+
+            LogPosition position = entry.getValue();
+
+            if (position.transactionType == TransactionType.ROOT.getId()
+                    && position.lastUpdateTime < date.getTime()) {
+
+                Transaction transaction = doFindOne(entry.getKey());
+
+                if (transaction != null) {
+                    allUnmodifiedSince.add(transaction);
+                }
+            }
+        }
+
+        return allUnmodifiedSince;
+    }
+
+    /**
+     * keyset pagination by (lastUpdateTime, segment id, offset), the cursor format is "lastUpdateTime:segmentId:offset".
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String cursor, int pageSize) {
+
+        initializeIfNecessary();
+
+        LogPosition after = null;
+
+        if (cursor != null) {
+            String[] parts = cursor.split(":");
+            after = new LogPosition(new LogSegment(Long.parseLong(parts[1])), Long.parseLong(parts[2]), 0, 0, Long.parseLong(parts[0]));
+        }
+
+        //keep the smallest pageSize positions, the head of the queue is the largest one
+        PriorityQueue<Map.Entry<TransactionXid, LogPosition>> candidates = new PriorityQueue<Map.Entry<TransactionXid, LogPosition>>(
+                pageSize + 1, Collections.reverseOrder(POSITION_ORDER));
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : index.entrySet()) {
+
+            LogPosition position = entry.getValue();
+
+            if (position.transactionType == TransactionType.ROOT.getId()
+                    && position.lastUpdateTime < date.getTime()
+                    && (after == null || LogPosition.compare(position, after) > 0)) {
+
+                candidates.add(new AbstractMap.SimpleImmutableEntry<TransactionXid, LogPosition>(entry.getKey(), position));
+
+                if (candidates.size() > pageSize) {
+                    candidates.poll();
+                }
+            }
+        }
+
+        List<Map.Entry<TransactionXid, LogPosition>> entries = new ArrayList<Map.Entry<TransactionXid, LogPosition>>(candidates);
+        Collections.sort(entries, POSITION_ORDER);
+
+        List<Transaction> transactions = new ArrayList<Transaction>(entries.size());
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : entries) {
+
+            Transaction transaction = doFindOne(entry.getKey());
+
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+
+        if (entries.size() < pageSize) {
+            return new Page<Transaction>(transactions, null);
+        }
+
+        LogPosition last = entries.get(entries.size() - 1).getValue();
+
+        return new Page<Transaction>(transactions, last.lastUpdateTime + ":" + last.segment.id + ":" + last.offset);
+    }
+
+    /**
+     * stop the writer and compaction threads and close all segments, pending records are flushed before return.
+     */
+    public void close() {
+
+        synchronized (submitLock) {
+
+            if (!initialized || closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        compactExecutor.shutdownNow();
+
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    private void append(byte op, Transaction transaction) {
+
+        initializeIfNecessary();
+
+        // 调用线程在记录写入之前一直等待，可以直接使用线程缓冲区
+        SerializeBuffer buffer = SerializeBuffer.local();
+
+        encode(op, transaction, buffer);
+
+        PendingRecord record = new PendingRecord(toKey(transaction.getXid()), op,
+                transaction.getTransactionType().getId(), transaction.getLastUpdateTime().getTime(),
+                buffer.array(), buffer.size(), null);
+
+        submit(record);
+    }
+
+    private void submit(PendingRecord record) {
+
+        enqueue(record);
+
+        // 记录引用调用线程的缓冲区，写入完成之前不能返回，写线程会处理完所有已提交的记录
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                record.latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (record.error != null) {
+            throw new TransactionIOException(record.error);
+        }
+    }
+
+    /**
+     * enqueue the record for the writer thread, the record is failed if the repository is closed.
+     *
+     * @return false if the repository is closed
+     */
+    private boolean enqueue(PendingRecord record) {
+
+        synchronized (submitLock) {
+
+            if (closed) {
+                record.complete(new TransactionIOException("repository is closed"));
+                return false;
+            }
+
+            pendingRecords.add(record);
+            return true;
+        }
+    }
+
+    private void writeLoop() {
+
+        List<PendingRecord> batch = new ArrayList<PendingRecord>(maxBatchSize);
+
+        while (!closed || !pendingRecords.isEmpty()) {
+
+            PendingRecord first;
+
+            try {
+                first = pendingRecords.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            if (first == null) {
+                continue;
+            }
+
+            batch.add(first);
+            pendingRecords.drainTo(batch, maxBatchSize - 1);
+
+            try {
+                flush(batch);
+            } catch (Throwable e) {
+                logger.error("write transaction log failed", e);
+                for (PendingRecord record : batch) {
+                    record.complete(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * write the batch to the active segment, force it once and then apply the records to the index.
+     * records forced to a segment before rolling to the next one are completed before the roll, so a later failure
+     * of the batch does not report them as failed.
+     */
+    private void flush(List<PendingRecord> batch) throws IOException {
+
+        long segmentStartSize = activeSegment.size;
+
+        List<PendingRecord> written = new ArrayList<PendingRecord>(batch.size());
+        Set<TransactionXid> touched = new HashSet<TransactionXid>();
+
+        try {
+            for (PendingRecord record : batch) {
+
+                if (record.expected != null
+                        && (touched.contains(record.xid) || index.get(record.xid) != record.expected)) {
+                    //relocated record has been updated or deleted since it is read, skip it.
+                    record.complete(null);
+                    continue;
+                }
+
+                if (activeSegment.size > 0 && activeSegment.size + record.length > segmentSize) {
+                    activeSegment.force();
+                    complete(written);
+                    written.clear();
+                    segmentStartSize = activeSegment.size;
+
+                    rollSegment();
+                    segmentStartSize = activeSegment.size;
+                }
+
+                record.position = activeSegment.append(record);
+                touched.add(record.xid);
+                written.add(record);
+            }
+
+            activeSegment.force();
+
+        } catch (IOException e) {
+            try {
+                activeSegment.truncate(segmentStartSize);
+            } catch (IOException truncateException) {
+                logger.error("truncate segment failed", truncateException);
+            }
+            throw e;
+        }
+
+        complete(written);
+    }
+
+    private void complete(List<PendingRecord> written) {
+        for (PendingRecord record : written) {
+            apply(record.xid, record.op, record.position, record.expected);
+            record.complete(null);
+        }
+    }
+
+    private void apply(TransactionXid xid, byte op, LogPosition position, LogPosition expected) {
+
+        LogPosition previous;
+
+        if (op == OP_PUT) {
+            previous = index.put(xid, position);
+            position.segment.liveBytes.addAndGet(position.length);
+        } else {
+            previous = index.remove(xid);
+        }
+
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.length);
+        }
+    }
+
+    private void compact() {
+
+        while (!closed) {
+
+            Map.Entry<Long, LogSegment> oldestEntry = segments.firstEntry();
+
+            if (oldestEntry == null) {
+                return;
+            }
+
+            LogSegment oldest = oldestEntry.getValue();
+
+            if (oldest == activeSegment) {
+                return;
+            }
+
+            long liveBytes = oldest.liveBytes.get();
+
+            if (liveBytes > 0 && liveBytes >= oldest.size * compactThreshold) {
+                return;
+            }
+
+            // a segment without live records, an empty one included, has nothing to relocate and is removed right away
+            if (liveBytes > 0 && !relocate(oldest)) {
+                return;
+            }
+
+            if (oldest.liveBytes.get() != 0) {
+                logger.warn("segment still has live records after compaction, segment:" + oldest.file);
+                return;
+            }
+
+            segments.remove(oldestEntry.getKey());
+            oldest.close();
+
+            if (!oldest.file.delete()) {
+                logger.warn("cannot delete compacted segment:" + oldest.file);
+            }
+        }
+    }
+
+    /**
+     * appends the live records of the segment to the head of the log.
+     *
+     * @return true when all of them are relocated
+     */
+    private boolean relocate(LogSegment segment) {
+
+        List<PendingRecord> relocations = new ArrayList<PendingRecord>();
+
+        try {
+            for (Map.Entry<TransactionXid, LogPosition> entry : index.entrySet()) {
+
+                LogPosition position = entry.getValue();
+
+                if (position.segment == segment) {
+                    PendingRecord relocation = new PendingRecord(entry.getKey(), OP_PUT,
+                            position.transactionType, position.lastUpdateTime,
+                            segment.read(position.offset, position.length), position.length, position);
+                    if (!enqueue(relocation)) {
+                        return false;
+                    }
+                    relocations.add(relocation);
+                }
+            }
+
+            for (PendingRecord relocation : relocations) {
+                relocation.latch.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            logger.error("compact segment failed, segment:" + segment.file, e);
+            return false;
+        }
+
+        return true;
+    }
+
+    private Transaction readTransaction(LogPosition position) throws IOException {
+
+        ByteBuffer record = ByteBuffer.wrap(position.segment.read(position.offset, position.length));
+
+        record.position(RECORD_PREFIX_SIZE + 10);
+        short globalTransactionIdLength = record.getShort();
+        record.position(record.position() + globalTransactionIdLength);
+        short branchQualifierLength = record.getShort();
+        record.position(record.position() + branchQualifierLength);
+
+        return TransactionSerializer.deserialize(serializer, record);
+    }
+
+    private void initializeIfNecessary() {
+
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+
+                    File rootPathFile = new File(rootPath);
+
+                    if (!rootPathFile.exists() && !rootPathFile.mkdirs()) {
+                        throw new TransactionIOException("cannot create root path, the path to create is:" + rootPath);
+                    } else if (!rootPathFile.isDirectory()) {
+                        throw new TransactionIOException("rootPath is not directory");
+                    }
+
+                    try {
+                        replay(rootPathFile);
+                    } catch (IOException e) {
+                        throw new TransactionIOException(e);
+                    }
+
+                    writerThread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            writeLoop();
+                        }
+                    }, "tcc-log-writer");
+                    writerThread.setDaemon(true);
+                    writerThread.start();
+
+                    compactExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "tcc-log-compactor");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+                    compactExecutor.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                compact();
+                            } catch (Throwable e) {
+                                logger.error("compact transaction log failed", e);
+                            }
+                        }
+                    }, compactIntervalSeconds, compactIntervalSeconds, TimeUnit.SECONDS);
+
+                    initialized = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * rebuild the index from the segments, a torn record at the tail of a segment is truncated.
+     */
+    private void replay(File rootPathFile) throws IOException {
+
+        File[] files = rootPathFile.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+
+        Arrays.sort(files);
+
+        for (File file : files) {
+
+            Long id = parseSegmentId(file.getName());
+
+            if (id == null) {
+                logger.warn("skip file which is not a segment:" + file);
+                continue;
+            }
+
+            LogSegment segment = new LogSegment(id, file);
+            segments.put(id, segment);
+
+            long offset = 0;
+            ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_SIZE);
+
+            while (offset + RECORD_PREFIX_SIZE <= segment.size) {
+
+                prefix.clear();
+                segment.readFully(prefix, offset);
+                prefix.flip();
+
+                int bodyLength = prefix.getInt();
+                int crc = prefix.getInt();
+
+                if (bodyLength <= 0 || offset + RECORD_PREFIX_SIZE + bodyLength > segment.size) {
+                    break;
+                }
+
+                ByteBuffer record = ByteBuffer.wrap(segment.read(offset, RECORD_PREFIX_SIZE + bodyLength));
+
+                if (crc(record.array(), RECORD_PREFIX_SIZE, bodyLength) != crc) {
+                    break;
+                }
+
+                record.position(RECORD_PREFIX_SIZE);
+                byte op = record.get();
+                byte transactionType = record.get();
+                long lastUpdateTime = record.getLong();
+                byte[] globalTransactionId = new byte[record.getShort()];
+                record.get(globalTransactionId);
+                byte[] branchQualifier = new byte[record.getShort()];
+                record.get(branchQualifier);
+
+                apply(new TransactionXid(globalTransactionId, branchQualifier), op,
+                        new LogPosition(segment, offset, RECORD_PREFIX_SIZE + bodyLength, transactionType, lastUpdateTime), null);
+
+                offset += RECORD_PREFIX_SIZE + bodyLength;
+            }
+
+            if (offset < segment.size) {
+                logger.warn(String.format("truncate torn records of segment %s from %d to %d", file, segment.size, offset));
+                segment.truncate(offset);
+            }
+        }
+
+        if (segments.isEmpty() || segments.lastEntry().getValue().size >= segmentSize) {
+            rollSegment();
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * @return the segment id in the file name, null for a file which is not a segment
+     */
+    private static Long parseSegmentId(String fileName) {
+
+        String id = fileName.substring(0, fileName.length() - SEGMENT_FILE_SUFFIX.length());
+
+        if (id.isEmpty()) {
+            return null;
+        }
+
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return null;
+            }
+        }
+
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+
+        long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+
+        LogSegment segment = new LogSegment(id, new File(rootPath, String.format("%020d%s", id, SEGMENT_FILE_SUFFIX)));
+        segments.put(id, segment);
+        activeSegment = segment;
+    }
+
+    /**
+     * record layout: length(4) crc(4) | op(1) transactionType(1) lastUpdateTime(8)
+     * globalTransactionIdLength(2) globalTransactionId branchQualifierLength(2) branchQualifier content
+     */
+    private void encode(byte op, Transaction transaction, SerializeBuffer buffer) {
+
+        byte[] globalTransactionId = transaction.getXid().getGlobalTransactionId();
+        byte[] branchQualifier = transaction.getXid().getBranchQualifier();
+
+        buffer.setSize(RECORD_PREFIX_SIZE);
+        buffer.write(op);
+        buffer.write((byte) transaction.getTransactionType().getId());
+        buffer.putLong(transaction.getLastUpdateTime().getTime());
+        buffer.putShort((short) globalTransactionId.length);
+        buffer.write(globalTransactionId, 0, globalTransactionId.length);
+        buffer.putShort((short) branchQualifier.length);
+        buffer.write(branchQualifier, 0, branchQualifier.length);
+
+        if (op == OP_PUT) {
+            TransactionSerializer.serialize(serializer, transaction, buffer);
+        }
+
+        int bodyLength = buffer.size() - RECORD_PREFIX_SIZE;
+
+        buffer.putInt(0, bodyLength);
+        buffer.putInt(4, crc(buffer.array(), RECORD_PREFIX_SIZE, bodyLength));
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    private static TransactionXid toKey(Xid xid) {
+        if (xid instanceof TransactionXid) {
+            return (TransactionXid) xid;
+        }
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier());
+    }
+
+    private static class LogSegment {
+
+        private final long id;
+
+        private final File file;
+
+        private final RandomAccessFile raf;
+
+        private final FileChannel channel;
+
+        /**
+         * only modified by the writer thread (and replay at startup)
+         */
+        private volatile long size;
+
+        private final AtomicLong liveBytes = new AtomicLong();
+
+        /**
+         * only used as the segment id holder of a pagination cursor
+         */
+        LogSegment(long id) {
+            this.id = id;
+            this.file = null;
+            this.raf = null;
+            this.channel = null;
+        }
+
+        LogSegment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.size = channel.size();
+        }
+
+        LogPosition append(PendingRecord record) throws IOException {
+
+            long offset = size;
+
+            ByteBuffer buffer = ByteBuffer.wrap(record.bytes, 0, record.length);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            size = offset + record.length;
+
+            return new LogPosition(this, offset, record.length, record.transactionType, record.lastUpdateTime);
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            readFully(buffer, offset);
+            return buffer.array();
+        }
+
+        void readFully(ByteBuffer buffer, long offset) throws IOException {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("unexpected end of segment " + file);
+                }
+                position += read;
+            }
+        }
+
+        void force() throws IOException {
+            channel.force(false);
+        }
+
+        void truncate(long newSize) throws IOException {
+            channel.truncate(newSize);
+            size = newSize;
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("close segment failed, segment:" + file, e);
+            }
+        }
+    }
+
+    private static class LogPosition {
+
+        private final LogSegment segment;
+
+        private final long offset;
+
+        private final int length;
+
+        private final int transactionType;
+
+        private final long lastUpdateTime;
+
+        LogPosition(LogSegment segment, long offset, int length, int transactionType, long lastUpdateTime) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.transactionType = transactionType;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
+        static int compare(LogPosition p1, LogPosition p2) {
+
+            if (p1.lastUpdateTime != p2.lastUpdateTime) {
+                return p1.lastUpdateTime < p2.lastUpdateTime ? -1 : 1;
+            }
+
+            if (p1.segment.id != p2.segment.id) {
+                return p1.segment.id < p2.segment.id ? -1 : 1;
+            }
+
+            return p1.offset < p2.offset ? -1 : (p1.offset == p2.offset ? 0 : 1);
+        }
+    }
+
+    private static class PendingRecord {
+
+        private final TransactionXid xid;
+
+        private final byte op;
+
+        private final int transactionType;
+
+        private final long lastUpdateTime;
+
+        private final byte[] bytes;
+
+        private final int length;
+
+        /**
+         * not null for records relocated by compaction, the record is only written if the index still points to it.
+         */
+        private final LogPosition expected;
+
+        private LogPosition position;
+
+        private volatile Throwable error;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        PendingRecord(TransactionXid xid, byte op, int transactionType, long lastUpdateTime, byte[] bytes, int length, LogPosition expected) {
+            this.xid = xid;
+            this.op = op;
+            this.transactionType = transactionType;
+            this.lastUpdateTime = lastUpdateTime;
+            this.bytes = bytes;
+            this.length = length;
+            this.expected = expected;
+        }
+
+        /**
+         * only the first completion counts, a record completed before a later failure of its batch stays successful.
+         */
+        void complete(Throwable error) {
+
+            if (latch.getCount() == 0) {
+                return;
+            }
+
+            this.error = error;
+            latch.countDown();
+        }
+    }
+}
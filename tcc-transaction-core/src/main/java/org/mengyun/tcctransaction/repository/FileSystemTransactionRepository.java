@@ -22,6 +22,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -104,6 +105,51 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     }
 
 
+    /**
+     * 按文件名排序分页，游标为上一页最后一个文件名.
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String cursor, int pageSize) {
+
+        String[] fileNames = new File(rootPath).list();
+
+        if (fileNames == null) {
+            return new Page<Transaction>(new ArrayList<Transaction>(), null);
+        }
+
+        Arrays.sort(fileNames);
+
+        int fromIndex = 0;
+
+        if (cursor != null) {
+            int index = Arrays.binarySearch(fileNames, cursor);
+            fromIndex = index >= 0 ? index + 1 : -index - 1;
+        }
+
+        int toIndex = Math.min(fromIndex + pageSize, fileNames.length);
+
+        List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
+
+        for (int i = fromIndex; i < toIndex; i++) {
+
+            File file = new File(rootPath, fileNames[i]);
+
+            if (!file.exists()) {
+                continue;
+            }
+
+            Transaction transaction = readTransaction(file);
+
+            if (transaction != null
+                    && transaction.getTransactionType().equals(TransactionType.ROOT)
+                    && transaction.getLastUpdateTime().compareTo(date) < 0) {
+                allUnmodifiedSince.add(transaction);
+            }
+        }
+
+        return new Page<Transaction>(allUnmodifiedSince, toIndex < fileNames.length ? fileNames[toIndex - 1] : null);
+    }
+
     protected List<Transaction> doFindAll() {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -11,8 +11,14 @@ package org.mengyun.tcctransaction.repository;
 
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.recover.RecoverLeaseRepository;
+import org.mengyun.tcctransaction.recover.RecoverShardManager;
+import org.mengyun.tcctransaction.repository.helper.ParticipantDeltaHelper;
+import org.mengyun.tcctransaction.serializer.BufferedObjectSerializer;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.SerializeBuffer;
 import org.mengyun.tcctransaction.utils.CollectionUtils;
 import org.mengyun.tcctransaction.utils.StringUtils;
 
@@ -22,15 +28,27 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JDBC事务库（在应用服务中实例化并注入数据源）.
  * Created by changmingxie on 10/30/15.
  */
-public class JdbcTransactionRepository extends CachableTransactionRepository {
+public class JdbcTransactionRepository extends CachableTransactionRepository implements RecoverLeaseRepository {
 
     static final Logger LOG = Logger.getLogger(JdbcTransactionRepository.class.getSimpleName());
 
+    /**
+     * doFind按xid数量选择的SQL模板规格，不足的部分用最后一个xid补齐，使相同规格的查询复用同一条SQL.
+     */
+    private static final int[] FIND_BUCKETS = {1, 2, 4, 8, 16, 32};
+
+    private static final String SELECT_COLUMNS = "SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION";
+
     private String domain;
 
     private String tbSuffix;
@@ -39,12 +57,44 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     private ObjectSerializer serializer = new JdkSerializationSerializer();
 
+    /**
+     * 是否开启批量写模式（默认关闭）.
+     * 开启后并发的create/update/delete由分发线程合并为JDBC批量执行，使用分发线程自己的连接，不参与调用方的本地事务.
+     */
+    private boolean batchEnabled = false;
+
+    private int maxBatchSize = 64;
+
+    private long maxLingerMillis = 2;
+
+    private volatile BatchDispatcher batchDispatcher;
+
+    /**
+     * 是否开启增量持久化（默认关闭）.
+     * 开启后更新只写STATUS、RETRIED_COUNT、LAST_UPDATE_TIME和VERSION列，新加入的参与者追加到TCC_TRANSACTION_PARTICIPANT表，不再重写CONTENT.
+     * CONTENT保持创建时的内容，创建后对attachments的修改不会持久化.
+     */
+    private boolean deltaEnabled = false;
+
+    /**
+     * 是否写入恢复分桶列RECOVER_BUCKET（默认关闭），需要先在事务表上加RECOVER_BUCKET列.
+     * 开启后分片恢复按分桶区间在数据库中过滤，只读取当前节点持有分片内的事务；
+     * 未开启或开启前写入的记录（RECOVER_BUCKET为空）在读取后按GLOBAL_TX_ID计算分桶过滤.
+     */
+    private boolean recoverBucketEnabled = false;
+
+    /**
+     * 根据domain和tbSuffix预先生成的SQL，配置变化时重新生成.
+     */
+    private volatile SqlTemplates sqlTemplates;
+
     public String getDomain() {
         return domain;
     }
 
     public void setDomain(String domain) {
         this.domain = domain;
+        this.sqlTemplates = null;
     }
 
     public String getTbSuffix() {
@@ -53,6 +103,7 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     public void setTbSuffix(String tbSuffix) {
         this.tbSuffix = tbSuffix;
+        this.sqlTemplates = null;
     }
 
     public void setSerializer(ObjectSerializer serializer) {
@@ -63,6 +114,35 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         this.dataSource = dataSource;
     }
 
+    public void setBatchEnabled(boolean batchEnabled) {
+        this.batchEnabled = batchEnabled;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setMaxLingerMillis(long maxLingerMillis) {
+        this.maxLingerMillis = maxLingerMillis;
+    }
+
+    public boolean isDeltaEnabled() {
+        return deltaEnabled;
+    }
+
+    public void setDeltaEnabled(boolean deltaEnabled) {
+        this.deltaEnabled = deltaEnabled;
+    }
+
+    public boolean isRecoverBucketEnabled() {
+        return recoverBucketEnabled;
+    }
+
+    public void setRecoverBucketEnabled(boolean recoverBucketEnabled) {
+        this.recoverBucketEnabled = recoverBucketEnabled;
+        this.sqlTemplates = null;
+    }
+
     public DataSource getDataSource() {
         return dataSource;
     }
@@ -74,125 +154,204 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
         LOG.debug("==>JdbcTransactionRepository.doCreate(Transaction transaction)");
 
-        Connection connection = null;
-        PreparedStatement stmt = null;
-
-        try {
-            connection = this.getConnection();
-
-            StringBuilder builder = new StringBuilder();
-            builder.append("INSERT INTO " + getTableName() +
-                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
-
-            stmt = connection.prepareStatement(builder.toString());
+        List<Object> params = new ArrayList<Object>(10);
 
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId()); // GLOBAL_TX_ID（全局事务ID）
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier()); // BRANCH_QUALIFIER（分支限定符）
-            stmt.setInt(3, transaction.getTransactionType().getId()); // TRANSACTION_TYPE（事务类型，主事务:1，分支事务:2）
-            stmt.setBytes(4, serializer.serialize(transaction)); // CONTENT（事务内容） 
-            stmt.setInt(5, transaction.getStatus().getId()); // STATUS（事务状态，TRYING(1)，CONFIRMING(2)，CANCELLING(3)）
-            stmt.setInt(6, transaction.getRetriedCount()); // RETRIED_COUNT（事务恢复重试次数）
-            stmt.setTimestamp(7, new java.sql.Timestamp(transaction.getCreateTime().getTime())); // CREATE_TIME(创建时间)
-            stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTime().getTime())); // LAST_UPDATE_TIME(最后更新时间)
-            stmt.setLong(9, transaction.getVersion()); // VERSION（版本号）
+        params.add(transaction.getXid().getGlobalTransactionId()); // GLOBAL_TX_ID（全局事务ID）
+        params.add(transaction.getXid().getBranchQualifier()); // BRANCH_QUALIFIER（分支限定符）
+        params.add(transaction.getTransactionType().getId()); // TRANSACTION_TYPE（事务类型，主事务:1，分支事务:2）
+        params.add(serializeContent(transaction)); // CONTENT（事务内容）
+        params.add(transaction.getStatus().getId()); // STATUS（事务状态，TRYING(1)，CONFIRMING(2)，CANCELLING(3)）
+        params.add(transaction.getRetriedCount()); // RETRIED_COUNT（事务恢复重试次数）
+        params.add(new Timestamp(transaction.getCreateTime().getTime())); // CREATE_TIME(创建时间)
+        params.add(new Timestamp(transaction.getLastUpdateTime().getTime())); // LAST_UPDATE_TIME(最后更新时间)
+        params.add(transaction.getVersion()); // VERSION（版本号）
 
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(10, domain);
-            }
-
-            return stmt.executeUpdate();
+        if (recoverBucketEnabled) {
+            params.add(RecoverShardManager.getBucket(transaction.getXid())); // RECOVER_BUCKET（恢复分桶）
+        }
 
-        } catch (SQLException e) {
-            throw new TransactionIOException(e);
-        } finally {
-            closeStatement(stmt);
-            this.releaseConnection(connection);
+        if (StringUtils.isNotEmpty(domain)) {
+            params.add(domain);
         }
+
+        return executeUpdate(getSqlTemplates().insertSql, params.toArray());
     }
 
     protected int doUpdate(Transaction transaction) {
 
         LOG.debug("==>JdbcTransactionRepository.doUpdate(Transaction transaction)");
 
-        Connection connection = null;
-        PreparedStatement stmt = null;
-
+        // 参与者状态保存在事务内容中，有参与者完成时整体更新，已有的参与者记录在加载时跳过
+        if (deltaEnabled && !transaction.isParticipantStatusChanged()) {
+            return doDeltaUpdate(transaction);
+        }
 
         transaction.updateTime(); // 更新时间 （这是要随transaction序列化到content中的）
         transaction.updateVersion(); // 版本+1 （这是要随transaction序列化到content中的）
 
-        try {
-            connection = this.getConnection();
+        List<Object> params = new ArrayList<Object>(8);
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("UPDATE "+getTableName()+" SET " +
-                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+        params.add(serializeContent(transaction));
+        params.add(transaction.getStatus().getId());
+        params.add(new Timestamp(transaction.getLastUpdateTime().getTime()));
+        params.add(transaction.getRetriedCount());
+        params.add(transaction.getXid().getGlobalTransactionId());
+        params.add(transaction.getXid().getBranchQualifier());
+        params.add(transaction.getVersion() - 1);
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+        if (StringUtils.isNotEmpty(domain)) {
+            params.add(domain);
+        }
 
-            stmt = connection.prepareStatement(builder.toString());
+        return executeUpdate(getSqlTemplates().updateSql, params.toArray());
+    }
 
-            stmt.setBytes(1, serializer.serialize(transaction));
-            stmt.setInt(2, transaction.getStatus().getId());
-            stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTime().getTime()));
+    /**
+     * 增量更新：只更新事务表的状态、重试次数、时间和版本列，有新加入的参与者时在同一个本地事务中追加一行参与者记录.
+     */
+    private int doDeltaUpdate(Transaction transaction) {
 
-            stmt.setInt(4, transaction.getRetriedCount());
-            stmt.setBytes(5, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(6, transaction.getXid().getBranchQualifier());
-            stmt.setLong(7, transaction.getVersion() - 1);
+        transaction.updateTime();
+        transaction.updateVersion();
 
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(8, domain);
-            }
+        List<Object> params = new ArrayList<Object>(7);
 
-            int result = stmt.executeUpdate();
+        params.add(transaction.getStatus().getId());
+        params.add(new Timestamp(transaction.getLastUpdateTime().getTime()));
+        params.add(transaction.getRetriedCount());
+        params.add(transaction.getXid().getGlobalTransactionId());
+        params.add(transaction.getXid().getBranchQualifier());
+        params.add(transaction.getVersion() - 1);
 
-            return result;
+        if (StringUtils.isNotEmpty(domain)) {
+            params.add(domain);
+        }
 
-        } catch (Throwable e) {
-            throw new TransactionIOException(e);
-        } finally {
-            closeStatement(stmt);
-            this.releaseConnection(connection);
+        if (ParticipantDeltaHelper.hasAppendedParticipants(transaction)) {
+
+            List<Object> participantParams = new ArrayList<Object>(5);
+
+            participantParams.add(transaction.getXid().getGlobalTransactionId());
+            participantParams.add(transaction.getXid().getBranchQualifier());
+            participantParams.add(transaction.getPersistedParticipantCount());
+            participantParams.add(ParticipantDeltaHelper.serializeAppendedParticipants(serializer, transaction));
+
+            if (StringUtils.isNotEmpty(domain)) {
+                participantParams.add(domain);
+            }
+
+            return executeInLocalTransaction(getSqlTemplates().deltaUpdateSql, params.toArray(),
+                    getSqlTemplates().insertParticipantSql, participantParams.toArray());
         }
+
+        return executeUpdate(getSqlTemplates().deltaUpdateSql, params.toArray());
     }
 
     protected int doDelete(Transaction transaction) {
 
         LOG.debug("==>JdbcTransactionRepository.doDelete(Transaction transaction)");
 
+        List<Object> params = new ArrayList<Object>(3);
+
+        params.add(transaction.getXid().getGlobalTransactionId());
+        params.add(transaction.getXid().getBranchQualifier());
+
+        if (StringUtils.isNotEmpty(domain)) {
+            params.add(domain);
+        }
+
+        if (deltaEnabled) {
+            // 先删除事务记录，参与者记录的删除失败时只会残留无用的数据
+            return executeInLocalTransaction(getSqlTemplates().deleteSql, params.toArray(),
+                    getSqlTemplates().deleteParticipantsSql, params.toArray());
+        }
+
+        return executeUpdate(getSqlTemplates().deleteSql, params.toArray());
+    }
+
+    /**
+     * write-behind的批量删除，在一个本地事务中用JDBC批量执行，增量持久化模式下同时删除追加的参与者记录.
+     */
+    @Override
+    protected int[] doDelete(List<Transaction> transactions) {
+
+        if (transactions.size() == 1) {
+            return new int[]{doDelete(transactions.get(0))};
+        }
+
         Connection connection = null;
         PreparedStatement stmt = null;
+        boolean autoCommit = false;
 
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("DELETE FROM "+getTableName()+
-                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+            autoCommit = connection.getAutoCommit();
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
 
-            stmt = connection.prepareStatement(builder.toString());
+            try {
+                stmt = connection.prepareStatement(getSqlTemplates().deleteSql);
+                addDeleteBatch(stmt, transactions);
 
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+                int[] results = stmt.executeBatch();
 
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(3, domain);
-            }
+                if (deltaEnabled) {
+                    closeStatement(stmt);
+                    stmt = connection.prepareStatement(getSqlTemplates().deleteParticipantsSql);
+                    addDeleteBatch(stmt, transactions);
+                    stmt.executeBatch();
+                }
 
-            return stmt.executeUpdate();
+                if (autoCommit) {
+                    connection.commit();
+                }
+
+                for (int i = 0; i < results.length; i++) {
+                    if (results[i] == Statement.SUCCESS_NO_INFO) {
+                        results[i] = 1;
+                    }
+                }
+
+                return results;
 
+            } catch (SQLException e) {
+                if (autoCommit) {
+                    connection.rollback();
+                }
+                throw e;
+            }
         } catch (SQLException e) {
             throw new TransactionIOException(e);
         } finally {
             closeStatement(stmt);
+
+            if (autoCommit) {
+                resetAutoCommit(connection);
+            }
+
             this.releaseConnection(connection);
         }
     }
 
+    private void addDeleteBatch(PreparedStatement stmt, List<Transaction> transactions) throws SQLException {
+
+        for (Transaction transaction : transactions) {
+
+            int i = 0;
+            stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+            stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            stmt.addBatch();
+        }
+    }
+
     protected Transaction doFindOne(Xid xid) {
 
         LOG.debug("==>doFindOne xid:" + xid.getGlobalTransactionId());
@@ -216,14 +375,7 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-
-            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
-            builder.append("  FROM "+getTableName()+" WHERE LAST_UPDATE_TIME < ? AND TRANSACTION_TYPE = 1"); // TRANSACTION_TYPE=1（主事务:1）
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
-
-            stmt = connection.prepareStatement(builder.toString());
+            stmt = connection.prepareStatement(getSqlTemplates().findAllUnmodifiedSinceSql);
 
             stmt.setTimestamp(1, new Timestamp(date.getTime()));
 
@@ -236,11 +388,14 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             while (resultSet.next()) {
                 byte[] transactionBytes = resultSet.getBytes(3);
                 Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+                transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
                 transaction.setLastUpdateTime(resultSet.getDate(7));
                 transaction.setVersion(resultSet.getLong(9));
                 transaction.resetRetriedCount(resultSet.getInt(8));
                 transactions.add(transaction);
             }
+
+            mergeAppendedParticipants(connection, transactions);
         } catch (Throwable e) {
             throw new TransactionIOException(e);
         } finally {
@@ -251,42 +406,156 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
-    protected List<Transaction> doFind(List<Xid> xids) {
+    /**
+     * 按(LAST_UPDATE_TIME, TRANSACTION_ID)键集分页，游标格式为"最后更新时间毫秒数:纳秒部分:TRANSACTION_ID".
+     * <p>
+     * 游标保留纳秒部分，DATETIME(6)/TIMESTAMP(6)列上同一毫秒内的记录不会在下一页重复返回.
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(java.util.Date date, String cursor, int pageSize) {
+        return doFindPage(date, 0, RecoverShardManager.BUCKET_COUNT, cursor, pageSize);
+    }
 
-        LOG.debug("==>doFind");
+    /**
+     * 按分桶区间分页，游标格式与不分桶的分页相同.
+     * 开启recoverBucketEnabled时分桶条件在数据库中执行，RECOVER_BUCKET为空的记录按GLOBAL_TX_ID计算分桶，不在区间内的不反序列化.
+     */
+    @Override
+    public Page<Transaction> findAllUnmodifiedSince(java.util.Date date, int fromBucket, int toBucket, String cursor, int pageSize) {
+        return doFindPage(date, fromBucket, toBucket, cursor, pageSize);
+    }
+
+    private Page<Transaction> doFindPage(java.util.Date date, int fromBucket, int toBucket, String cursor, int pageSize) {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
 
-        if (CollectionUtils.isEmpty(xids)) {
-            return transactions;
-        }
+        boolean allBuckets = fromBucket <= 0 && toBucket >= RecoverShardManager.BUCKET_COUNT;
+        boolean bucketQuery = !allBuckets && recoverBucketEnabled;
 
         Connection connection = null;
         PreparedStatement stmt = null;
 
+        Timestamp lastUpdateTime = null;
+        long transactionId = 0;
+        int scannedCount = 0;
+
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
-            builder.append("  FROM "+getTableName()+" WHERE");
+            int i = 0;
+
+            if (cursor == null) {
+                stmt = connection.prepareStatement(bucketQuery ? getSqlTemplates().findBucketPageSql : getSqlTemplates().findPageSql);
+                stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+            } else {
+                String[] cursorParts = cursor.split(":");
+                Timestamp cursorTime = new Timestamp(Long.parseLong(cursorParts[0]));
+                cursorTime.setNanos(Integer.parseInt(cursorParts[1]));
+
+                stmt = connection.prepareStatement(bucketQuery ? getSqlTemplates().findBucketNextPageSql : getSqlTemplates().findNextPageSql);
+                stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+                stmt.setTimestamp(++i, cursorTime);
+                stmt.setTimestamp(++i, cursorTime);
+                stmt.setLong(++i, Long.parseLong(cursorParts[2]));
+            }
+
+            if (bucketQuery) {
+                stmt.setInt(++i, fromBucket);
+                stmt.setInt(++i, toBucket);
+            }
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            // 用setMaxRows限制页大小，不依赖各数据库不同的LIMIT/ROWNUM/FETCH FIRST语法
+            stmt.setMaxRows(pageSize);
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            while (resultSet.next()) {
+
+                scannedCount++;
+                lastUpdateTime = resultSet.getTimestamp(7);
+                transactionId = resultSet.getLong(10);
+
+                if (!allBuckets) {
+
+                    int bucket = bucketQuery ? resultSet.getInt(11) : 0;
 
-            if (!CollectionUtils.isEmpty(xids)) {
-                for (Xid xid : xids) {
-                    builder.append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? ) OR");
+                    if (!bucketQuery || resultSet.wasNull()) {
+                        bucket = RecoverShardManager.getBucket(UUID.nameUUIDFromBytes(resultSet.getBytes(1)).toString());
+                    }
+
+                    if (bucket < fromBucket || bucket >= toBucket) {
+                        continue;
+                    }
                 }
 
-                builder.delete(builder.length() - 2, builder.length());
+                byte[] transactionBytes = resultSet.getBytes(3);
+                Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+
+                transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(resultSet.getLong(9));
+                transaction.resetRetriedCount(resultSet.getInt(8));
+                transactions.add(transaction);
             }
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            mergeAppendedParticipants(connection, transactions);
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+
+        String nextCursor = scannedCount < pageSize ? null : lastUpdateTime.getTime() + ":" + lastUpdateTime.getNanos() + ":" + transactionId;
+
+        return new Page<Transaction>(transactions, nextCursor);
+    }
+
+    protected List<Transaction> doFind(List<Xid> xids) {
+
+        LOG.debug("==>doFind");
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        if (CollectionUtils.isEmpty(xids)) {
+            return transactions;
+        }
+
+        int maxBucket = FIND_BUCKETS[FIND_BUCKETS.length - 1];
+
+        for (int from = 0; from < xids.size(); from += maxBucket) {
+            transactions.addAll(doFindBucket(xids.subList(from, Math.min(from + maxBucket, xids.size()))));
+        }
+
+        return transactions;
+    }
+
+    private List<Transaction> doFindBucket(List<Xid> xids) {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        int bucketIndex = 0;
+
+        while (FIND_BUCKETS[bucketIndex] < xids.size()) {
+            bucketIndex++;
+        }
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
 
-            stmt = connection.prepareStatement(builder.toString());
+            stmt = connection.prepareStatement(getSqlTemplates().findSqls[bucketIndex]);
 
             int i = 0;
 
-            for (Xid xid : xids) {
+            for (int j = 0; j < FIND_BUCKETS[bucketIndex]; j++) {
+                Xid xid = xids.get(Math.min(j, xids.size() - 1));
                 stmt.setBytes(++i, xid.getGlobalTransactionId());
                 stmt.setBytes(++i, xid.getBranchQualifier());
             }
@@ -301,12 +570,15 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
                 byte[] transactionBytes = resultSet.getBytes(3);
                 Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+                transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
                 transaction.setLastUpdateTime(resultSet.getDate(7));
                 transaction.setVersion(resultSet.getLong(9));
                 transaction.resetRetriedCount(resultSet.getInt(8));
 
                 transactions.add(transaction);
             }
+
+            mergeAppendedParticipants(connection, transactions);
         } catch (Throwable e) {
             throw new TransactionIOException(e);
         } finally {
@@ -317,6 +589,297 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
+    /**
+     * 增量持久化模式下合并参与者表中追加的参与者，按序号从小到大合并.
+     * STATUS等列已经在查询事务时以列值为准，CONTENT中的对应属性可能是创建时的值.
+     */
+    private void mergeAppendedParticipants(Connection connection, List<Transaction> transactions) throws SQLException {
+
+        if (!deltaEnabled) {
+            return;
+        }
+
+        PreparedStatement stmt = null;
+
+        try {
+            stmt = connection.prepareStatement(getSqlTemplates().findParticipantsSql);
+
+            for (Transaction transaction : transactions) {
+
+                int i = 0;
+                stmt.setBytes(++i, transaction.getXid().getGlobalTransactionId());
+                stmt.setBytes(++i, transaction.getXid().getBranchQualifier());
+
+                if (StringUtils.isNotEmpty(domain)) {
+                    stmt.setString(++i, domain);
+                }
+
+                ResultSet resultSet = stmt.executeQuery();
+
+                try {
+                    while (resultSet.next()) {
+                        ParticipantDeltaHelper.mergeAppendedParticipants(serializer, transaction, resultSet.getInt(1), resultSet.getBytes(2));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+
+                transaction.setPersistedParticipantCount(transaction.getParticipants().size());
+            }
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
+    /**
+     * 租约记录在TCC_RECOVER_LEASE表，过期或者已被owner持有时更新，不存在时插入，插入时主键冲突表示已被其它节点持有.
+     * 过期时间使用各节点本地时钟，节点间需要时钟同步.
+     */
+    @Override
+    public boolean tryAcquireLease(String leaseName, String owner, long leaseMillis) {
+
+        long now = System.currentTimeMillis();
+
+        try {
+            if (executeLeaseUpdate(getSqlTemplates().renewLeaseSql, owner, now + leaseMillis, getLeaseDomain(), leaseName, owner, now) > 0) {
+                return true;
+            }
+
+            return executeLeaseUpdate(getSqlTemplates().insertLeaseSql, getLeaseDomain(), leaseName, owner, now + leaseMillis) > 0;
+
+        } catch (SQLException e) {
+
+            // 23xxx: integrity constraint violation，租约已被其它节点插入
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false;
+            }
+
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public void releaseLease(String leaseName, String owner) {
+        try {
+            executeLeaseUpdate(getSqlTemplates().releaseLeaseSql, getLeaseDomain(), leaseName, owner);
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public List<String> findActiveLeases(String leaseNamePrefix) {
+
+        List<String> leaseNames = new ArrayList<String>();
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            stmt = connection.prepareStatement(getSqlTemplates().findActiveLeasesSql);
+            stmt.setString(1, getLeaseDomain());
+            stmt.setString(2, leaseNamePrefix + "%");
+            stmt.setLong(3, System.currentTimeMillis());
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            while (resultSet.next()) {
+                leaseNames.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+
+        return leaseNames;
+    }
+
+    private int executeLeaseUpdate(String sql, Object... params) throws SQLException {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            stmt = connection.prepareStatement(sql);
+
+            bindParameters(stmt, params);
+
+            return stmt.executeUpdate();
+
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    private String getLeaseDomain() {
+        return StringUtils.isNotEmpty(domain) ? domain : "";
+    }
+
+    private SqlTemplates getSqlTemplates() {
+
+        SqlTemplates templates = sqlTemplates;
+
+        if (templates == null) {
+            templates = new SqlTemplates(getTableName(), getParticipantTableName(), getLeaseTableName(), StringUtils.isNotEmpty(domain), recoverBucketEnabled);
+            sqlTemplates = templates;
+        }
+
+        return templates;
+    }
+
+    /**
+     * 执行单行写操作，开启批量模式时交给批量分发线程合并执行.
+     */
+    private int executeUpdate(String sql, Object[] params) {
+
+        if (batchEnabled) {
+            return getBatchDispatcher().submit(sql, params);
+        }
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            stmt = connection.prepareStatement(sql);
+
+            bindParameters(stmt, params);
+
+            return stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * 在同一个本地事务中执行两条写操作，第一条没有影响任何行时不执行第二条，返回第一条的结果.
+     * 连接已经处于调用方的事务中（非自动提交）时直接执行，由调用方提交.
+     */
+    private int executeInLocalTransaction(String sql, Object[] params, String nextSql, Object[] nextParams) {
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        boolean autoCommit = false;
+
+        try {
+            connection = this.getConnection();
+
+            autoCommit = connection.getAutoCommit();
+
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            try {
+                stmt = connection.prepareStatement(sql);
+                bindParameters(stmt, params);
+
+                int result = stmt.executeUpdate();
+
+                if (result > 0) {
+                    closeStatement(stmt);
+                    stmt = connection.prepareStatement(nextSql);
+                    bindParameters(stmt, nextParams);
+                    stmt.executeUpdate();
+                }
+
+                if (autoCommit) {
+                    connection.commit();
+                }
+
+                return result;
+
+            } catch (SQLException e) {
+                if (autoCommit) {
+                    connection.rollback();
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+
+            if (autoCommit) {
+                resetAutoCommit(connection);
+            }
+
+            this.releaseConnection(connection);
+        }
+    }
+
+    private void resetAutoCommit(Connection connection) {
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            LOG.warn("reset auto commit failed", e);
+        }
+    }
+
+    private BatchDispatcher getBatchDispatcher() {
+
+        if (batchDispatcher == null) {
+            synchronized (this) {
+                if (batchDispatcher == null) {
+                    BatchDispatcher dispatcher = new BatchDispatcher();
+                    dispatcher.start();
+                    batchDispatcher = dispatcher;
+                }
+            }
+        }
+
+        return batchDispatcher;
+    }
+
+    /**
+     * 逐条写入时直接序列化到线程缓冲区并以流的方式绑定，省去中间的byte[].
+     * 批量写入时参数由分发线程执行，调用线程可能提前返回，仍然使用独立的byte[].
+     */
+    private Object serializeContent(Transaction transaction) {
+
+        if (!batchEnabled && serializer instanceof BufferedObjectSerializer) {
+            SerializeBuffer buffer = SerializeBuffer.local();
+            ((BufferedObjectSerializer) serializer).serialize(transaction, buffer);
+            return buffer;
+        }
+
+        return serializer.serialize(transaction);
+    }
+
+    private static void bindParameters(PreparedStatement stmt, Object[] params) throws SQLException {
+
+        for (int i = 0; i < params.length; i++) {
+
+            Object param = params[i];
+
+            if (param instanceof byte[]) {
+                stmt.setBytes(i + 1, (byte[]) param);
+            } else if (param instanceof SerializeBuffer) {
+                SerializeBuffer buffer = (SerializeBuffer) param;
+                stmt.setBinaryStream(i + 1, buffer.toInputStream(), buffer.size());
+            } else if (param instanceof Integer) {
+                stmt.setInt(i + 1, (Integer) param);
+            } else if (param instanceof Long) {
+                stmt.setLong(i + 1, (Long) param);
+            } else if (param instanceof Timestamp) {
+                stmt.setTimestamp(i + 1, (Timestamp) param);
+            } else {
+                stmt.setString(i + 1, (String) param);
+            }
+        }
+    }
 
     protected Connection getConnection() {
         try {
@@ -349,5 +912,347 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
     private String getTableName() {
         return StringUtils.isNotEmpty(tbSuffix) ? "TCC_TRANSACTION" + tbSuffix : "TCC_TRANSACTION";
     }
-}
 
+    private String getParticipantTableName() {
+        return StringUtils.isNotEmpty(tbSuffix) ? "TCC_TRANSACTION_PARTICIPANT" + tbSuffix : "TCC_TRANSACTION_PARTICIPANT";
+    }
+
+    private String getLeaseTableName() {
+        return StringUtils.isNotEmpty(tbSuffix) ? "TCC_RECOVER_LEASE" + tbSuffix : "TCC_RECOVER_LEASE";
+    }
+
+    /**
+     * 批量分发线程：收集并发提交的写操作，最多等待maxLingerMillis或凑满maxBatchSize后，
+     * 将相同SQL的连续操作合并为一次executeBatch，并把每行的执行结果回写给各自的调用方.
+     */
+    private class BatchDispatcher implements Runnable {
+
+        private final BlockingQueue<BatchStatement> queue = new LinkedBlockingQueue<BatchStatement>();
+
+        void start() {
+            Thread thread = new Thread(this, "tcc-jdbc-batch-dispatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int submit(String sql, Object[] params) {
+
+            BatchStatement statement = new BatchStatement(sql, params);
+            queue.add(statement);
+
+            try {
+                statement.latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionIOException(e);
+            }
+
+            if (statement.error != null) {
+                throw new TransactionIOException(statement.error);
+            }
+
+            return statement.result;
+        }
+
+        @Override
+        public void run() {
+
+            List<BatchStatement> batch = new ArrayList<BatchStatement>(maxBatchSize);
+
+            while (true) {
+                try {
+                    batch.add(queue.take());
+
+                    long deadline = System.currentTimeMillis() + maxLingerMillis;
+
+                    while (batch.size() < maxBatchSize) {
+
+                        if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                            continue;
+                        }
+
+                        long remaining = deadline - System.currentTimeMillis();
+
+                        if (remaining <= 0) {
+                            break;
+                        }
+
+                        BatchStatement next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+
+                        if (next == null) {
+                            break;
+                        }
+
+                        batch.add(next);
+                    }
+
+                    execute(batch);
+
+                } catch (InterruptedException e) {
+                    LOG.warn("jdbc batch dispatcher interrupted");
+                } catch (Throwable e) {
+                    LOG.error("jdbc batch dispatcher failed", e);
+                    for (BatchStatement statement : batch) {
+                        if (!statement.isDone()) {
+                            statement.complete(0, e);
+                        }
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void execute(List<BatchStatement> batch) {
+
+            Connection connection = getConnection();
+
+            try {
+                int from = 0;
+
+                while (from < batch.size()) {
+
+                    int to = from + 1;
+
+                    while (to < batch.size() && batch.get(to).sql.equals(batch.get(from).sql)) {
+                        to++;
+                    }
+
+                    executeBatch(connection, batch.subList(from, to));
+
+                    from = to;
+                }
+            } finally {
+                releaseConnection(connection);
+            }
+        }
+
+        private void executeBatch(Connection connection, List<BatchStatement> statements) {
+
+            PreparedStatement stmt = null;
+
+            try {
+                stmt = connection.prepareStatement(statements.get(0).sql);
+
+                if (statements.size() == 1) {
+                    bindParameters(stmt, statements.get(0).params);
+                    statements.get(0).complete(stmt.executeUpdate(), null);
+                    return;
+                }
+
+                for (BatchStatement statement : statements) {
+                    bindParameters(stmt, statement.params);
+                    stmt.addBatch();
+                }
+
+                int[] results = stmt.executeBatch();
+
+                for (int i = 0; i < statements.size(); i++) {
+                    // some drivers only report SUCCESS_NO_INFO for batched rows
+                    statements.get(i).complete(results[i] == Statement.SUCCESS_NO_INFO ? 1 : results[i], null);
+                }
+
+            } catch (BatchUpdateException e) {
+
+                LOG.warn("jdbc batch failed, retry the failed and unexecuted rows one by one", e);
+
+                // 自动提交下执行成功的行已经生效，不能重新执行：重新执行的INSERT会主键冲突，带版本号的UPDATE会匹配0行
+                int[] results = e.getUpdateCounts();
+
+                for (int i = 0; i < statements.size(); i++) {
+
+                    BatchStatement statement = statements.get(i);
+
+                    if (statement.isDone()) {
+                        continue;
+                    }
+
+                    if (results != null && i < results.length && results[i] != Statement.EXECUTE_FAILED) {
+                        statement.complete(results[i] == Statement.SUCCESS_NO_INFO ? 1 : results[i], null);
+                    } else {
+                        // 失败的行(如主键冲突)和驱动在失败后没有执行的行逐条执行，失败只影响各自的调用方
+                        executeSingle(connection, statement);
+                    }
+                }
+            } catch (SQLException e) {
+
+                // 无法确定哪些行已经执行，不重试，所有调用方按失败处理
+                LOG.error("jdbc batch failed", e);
+
+                for (BatchStatement statement : statements) {
+                    if (!statement.isDone()) {
+                        statement.complete(0, e);
+                    }
+                }
+            } finally {
+                closeStatement(stmt);
+            }
+        }
+
+        private void executeSingle(Connection connection, BatchStatement statement) {
+
+            PreparedStatement stmt = null;
+
+            try {
+                stmt = connection.prepareStatement(statement.sql);
+                bindParameters(stmt, statement.params);
+                statement.complete(stmt.executeUpdate(), null);
+            } catch (Throwable e) {
+                statement.complete(0, e);
+            } finally {
+                closeStatement(stmt);
+            }
+        }
+    }
+
+    /**
+     * 预先生成的SQL模板，相同配置下每次调用使用同一个SQL字符串，便于驱动和连接池命中语句缓存.
+     */
+    private static class SqlTemplates {
+
+        private final String insertSql;
+
+        private final String updateSql;
+
+        private final String deleteSql;
+
+        private final String deltaUpdateSql;
+
+        private final String insertParticipantSql;
+
+        private final String deleteParticipantsSql;
+
+        private final String findParticipantsSql;
+
+        private final String findAllUnmodifiedSinceSql;
+
+        private final String findPageSql;
+
+        private final String findNextPageSql;
+
+        private final String findBucketPageSql;
+
+        private final String findBucketNextPageSql;
+
+        private final String renewLeaseSql;
+
+        private final String insertLeaseSql;
+
+        private final String releaseLeaseSql;
+
+        private final String findActiveLeasesSql;
+
+        /**
+         * 与FIND_BUCKETS一一对应
+         */
+        private final String[] findSqls;
+
+        SqlTemplates(String tableName, String participantTableName, String leaseTableName, boolean hasDomain, boolean hasRecoverBucket) {
+
+            insertSql = "INSERT INTO " + tableName +
+                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION" +
+                    (hasRecoverBucket ? ",RECOVER_BUCKET" : "") +
+                    (hasDomain ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?" : ") VALUES (?,?,?,?,?,?,?,?,?") +
+                    (hasRecoverBucket ? ",?)" : ")");
+
+            updateSql = "UPDATE " + tableName + " SET " +
+                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?" +
+                    (hasDomain ? " AND DOMAIN = ?" : "");
+
+            deleteSql = "DELETE FROM " + tableName + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?" +
+                    (hasDomain ? " AND DOMAIN = ?" : "");
+
+            deltaUpdateSql = "UPDATE " + tableName + " SET " +
+                    "STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?" +
+                    (hasDomain ? " AND DOMAIN = ?" : "");
+
+            insertParticipantSql = "INSERT INTO " + participantTableName +
+                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,PARTICIPANT_INDEX,CONTENT" +
+                    (hasDomain ? ",DOMAIN ) VALUES (?,?,?,?,?)" : ") VALUES (?,?,?,?)");
+
+            deleteParticipantsSql = "DELETE FROM " + participantTableName + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?" +
+                    (hasDomain ? " AND DOMAIN = ?" : "");
+
+            findParticipantsSql = "SELECT PARTICIPANT_INDEX, CONTENT FROM " + participantTableName + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?" +
+                    (hasDomain ? " AND DOMAIN = ?" : "") + " ORDER BY PARTICIPANT_INDEX";
+
+            findAllUnmodifiedSinceSql = SELECT_COLUMNS + (hasDomain ? ",DOMAIN" : "") +
+                    "  FROM " + tableName + " WHERE LAST_UPDATE_TIME < ? AND TRANSACTION_TYPE = 1" + // TRANSACTION_TYPE=1（主事务:1）
+                    (hasDomain ? " AND DOMAIN = ?" : "");
+
+            String pageSelect = SELECT_COLUMNS + ",TRANSACTION_ID" + (hasDomain ? ",DOMAIN" : "") +
+                    "  FROM " + tableName + " WHERE LAST_UPDATE_TIME < ? AND TRANSACTION_TYPE = 1";
+            String pageOrder = (hasDomain ? " AND DOMAIN = ?" : "") + " ORDER BY LAST_UPDATE_TIME, TRANSACTION_ID";
+
+            findPageSql = pageSelect + pageOrder;
+
+            findNextPageSql = pageSelect +
+                    " AND (LAST_UPDATE_TIME > ? OR (LAST_UPDATE_TIME = ? AND TRANSACTION_ID > ?))" + pageOrder;
+
+            String bucketPageSelect = SELECT_COLUMNS + ",TRANSACTION_ID,RECOVER_BUCKET" + (hasDomain ? ",DOMAIN" : "") +
+                    "  FROM " + tableName + " WHERE LAST_UPDATE_TIME < ? AND TRANSACTION_TYPE = 1";
+            String bucketCondition = " AND (RECOVER_BUCKET >= ? AND RECOVER_BUCKET < ? OR RECOVER_BUCKET IS NULL)";
+
+            findBucketPageSql = bucketPageSelect + bucketCondition + pageOrder;
+
+            findBucketNextPageSql = bucketPageSelect +
+                    " AND (LAST_UPDATE_TIME > ? OR (LAST_UPDATE_TIME = ? AND TRANSACTION_ID > ?))" + bucketCondition + pageOrder;
+
+            renewLeaseSql = "UPDATE " + leaseTableName + " SET OWNER = ?, EXPIRE_TIME = ? WHERE DOMAIN = ? AND LEASE_NAME = ? AND (OWNER = ? OR EXPIRE_TIME < ?)";
+
+            insertLeaseSql = "INSERT INTO " + leaseTableName + "(DOMAIN,LEASE_NAME,OWNER,EXPIRE_TIME) VALUES (?,?,?,?)";
+
+            releaseLeaseSql = "DELETE FROM " + leaseTableName + " WHERE DOMAIN = ? AND LEASE_NAME = ? AND OWNER = ?";
+
+            findActiveLeasesSql = "SELECT LEASE_NAME FROM " + leaseTableName + " WHERE DOMAIN = ? AND LEASE_NAME LIKE ? AND EXPIRE_TIME >= ?";
+
+            findSqls = new String[FIND_BUCKETS.length];
+
+            for (int i = 0; i < FIND_BUCKETS.length; i++) {
+
+                StringBuilder builder = new StringBuilder();
+                builder.append(SELECT_COLUMNS);
+                builder.append(hasDomain ? ",DOMAIN" : "");
+                builder.append("  FROM " + tableName + " WHERE (");
+
+                for (int j = 0; j < FIND_BUCKETS[i]; j++) {
+                    builder.append(j == 0 ? "" : " OR");
+                    builder.append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? )");
+                }
+
+                builder.append(" )");
+                builder.append(hasDomain ? " AND DOMAIN = ?" : "");
+
+                findSqls[i] = builder.toString();
+            }
+        }
+    }
+
+    private static class BatchStatement {
+
+        private final String sql;
+
+        private final Object[] params;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private volatile int result;
+
+        private volatile Throwable error;
+
+        BatchStatement(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        void complete(int result, Throwable error) {
+            this.result = result;
+            this.error = error;
+            latch.countDown();
+        }
+
+        boolean isDone() {
+            return latch.getCount() == 0;
+        }
+    }
+}
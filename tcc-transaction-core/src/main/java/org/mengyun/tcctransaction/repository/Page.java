@@ -0,0 +1,31 @@
+package org.mengyun.tcctransaction.repository;
+
+import java.util.List;
+
+/**
+ * 分页查询结果.
+ * nextCursor为继续查询下一页的游标（由各事务库自行定义格式），为null时表示已经没有更多数据.
+ */
+public class Page<T> {
+
+    private final List<T> data;
+
+    private final String nextCursor;
+
+    public Page(List<T> data, String nextCursor) {
+        this.data = data;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getData() {
+        return data;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
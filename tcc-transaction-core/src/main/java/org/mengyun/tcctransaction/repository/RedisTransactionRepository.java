@@ -2,14 +2,22 @@ package org.mengyun.tcctransaction.repository;
 
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.RecoverLeaseRepository;
+import org.mengyun.tcctransaction.recover.RecoverShardManager;
 import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.repository.helper.RedisScript;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.utils.ByteUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
 
 import javax.transaction.xa.Xid;
 import java.util.*;
@@ -22,14 +30,71 @@ import java.util.*;
  * appendonly yes
  * appendfsync always
  */
-public class RedisTransactionRepository extends CachableTransactionRepository {
+public class RedisTransactionRepository extends CachableTransactionRepository implements RecoverLeaseRepository {
 
     static final Logger logger = Logger.getLogger(RedisTransactionRepository.class.getSimpleName());
 
     private JedisPool jedisPool;
 
+    private static final int FIND_BATCH_SIZE = 1000;
+
+    /**
+     * ARGV[1]为索引score，非主事务为空串，其余为hmset的字段
+     */
+    private static final RedisScript CREATE_SCRIPT = new RedisScript(
+            "if redis.call('exists', KEYS[1]) == 0 then redis.call('hmset', KEYS[1], unpack(ARGV, 2)); " +
+                    "if ARGV[1] ~= '' then redis.call('zadd', KEYS[2], ARGV[1], KEYS[1]); end; return 1; end; return 0;");
+
+    /**
+     * ARGV[1]为期望的原版本号，ARGV[2]为索引score，其余为hmset的字段
+     */
+    private static final RedisScript UPDATE_SCRIPT = new RedisScript(
+            "if redis.call('hget', KEYS[1], 'VERSION') == ARGV[1] then redis.call('hmset', KEYS[1], unpack(ARGV, 3)); " +
+                    "if ARGV[2] ~= '' then redis.call('zadd', KEYS[2], ARGV[2], KEYS[1]); end; return 1; end; return 0;");
+
+    private static final RedisScript DELETE_SCRIPT = new RedisScript(
+            "redis.call('zrem', KEYS[2], KEYS[1]); return redis.call('del', KEYS[1]);");
+
+    private static final RedisScript ACQUIRE_LEASE_SCRIPT = new RedisScript(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then redis.call('pexpire', KEYS[1], ARGV[2]); return 1; end; " +
+                    "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1; end; return 0;");
+
+    private static final RedisScript RELEASE_LEASE_SCRIPT = new RedisScript(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]); end; return 0;");
+
     private String keyPrefix = "TCC:";
 
+    private volatile boolean indexMigrated = false;
+
+    /**
+     * 写入CONTENT_VIEW的事务百分比，0为不写入，由tcc-transaction-server在查看时从CONTENT生成，100为全部写入.
+     * 按全局事务id采样，同一事务的每次写入结果一致，不会残留过期的CONTENT_VIEW.
+     */
+    private int contentViewSampleRate = 0;
+
+    public int getContentViewSampleRate() {
+        return contentViewSampleRate;
+    }
+
+    public void setContentViewSampleRate(int contentViewSampleRate) {
+        this.contentViewSampleRate = contentViewSampleRate;
+    }
+
+    /**
+     * 是否开启增量持久化（默认关闭）.
+     * 开启后更新只写状态、重试次数、时间和版本字段，新加入的参与者追加为PARTICIPANT:序号字段，不再重写CONTENT.
+     * CONTENT和CONTENT_VIEW保持创建时的内容，创建后对attachments的修改不会持久化.
+     */
+    private boolean deltaEnabled = false;
+
+    public boolean isDeltaEnabled() {
+        return deltaEnabled;
+    }
+
+    public void setDeltaEnabled(boolean deltaEnabled) {
+        this.deltaEnabled = deltaEnabled;
+    }
+
     public void setKeyPrefix(String keyPrefix) {
         this.keyPrefix = keyPrefix;
     }
@@ -61,17 +126,20 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
                     List<byte[]> params = new ArrayList<byte[]>();
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
+                    params.add(getIndexScore(transaction));
+
+                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction, isContentViewSampled(transaction)).entrySet()) {
                         params.add(entry.getKey());
                         params.add(entry.getValue());
                     }
 
-                    Object result = jedis.eval("if redis.call('exists', KEYS[1]) == 0 then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;".getBytes(),
-                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+                    Object result = CREATE_SCRIPT.eval(jedis,
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getIndexKey(keyPrefix)), params);
 
                     return (Long) result;
                 }
             });
+
             return statusCode.intValue();
         } catch (Exception e) {
             throw new TransactionIOException(e);
@@ -92,14 +160,21 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
                     List<byte[]> params = new ArrayList<byte[]>();
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
+                    params.add(ByteUtils.longToBytes(transaction.getVersion() - 1));
+                    params.add(getIndexScore(transaction));
+
+                    // 有参与者完成时整体更新，参与者状态保存在事务内容中
+                    Map<byte[], byte[]> fields = deltaEnabled && !transaction.isParticipantStatusChanged()
+                            ? ExpandTransactionSerializer.serializeDelta(serializer, transaction)
+                            : ExpandTransactionSerializer.serialize(serializer, transaction, isContentViewSampled(transaction));
+
+                    for (Map.Entry<byte[], byte[]> entry : fields.entrySet()) {
                         params.add(entry.getKey());
                         params.add(entry.getValue());
                     }
 
-                    Object result = jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
-                                    transaction.getVersion() - 1).getBytes(),
-                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+                    Object result = UPDATE_SCRIPT.eval(jedis,
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getIndexKey(keyPrefix)), params);
 
                     return (Long) result;
                 }
@@ -119,7 +194,11 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
                 @Override
                 public Long doInJedis(Jedis jedis) {
 
-                    return jedis.del(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()));
+                    Object result = DELETE_SCRIPT.eval(jedis,
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getIndexKey(keyPrefix)),
+                            new ArrayList<byte[]>());
+
+                    return (Long) result;
                 }
             });
 
@@ -154,52 +233,362 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
     @Override
     protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
 
-        List<Transaction> allTransactions = doFindAll();
-
         List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
 
-        for (Transaction transaction : allTransactions) {
-            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
-                allUnmodifiedSince.add(transaction);
+        String cursor = null;
+
+        do {
+            Page<Transaction> page = doFindAllUnmodifiedSince(date, cursor, FIND_BATCH_SIZE);
+            allUnmodifiedSince.addAll(page.getData());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        return allUnmodifiedSince;
+    }
+
+    /**
+     * 通过LAST_UPDATE_TIME有序集合索引分页查询主事务，游标格式为"score:member".
+     * 同一score的成员按字节序排列，下一页从上一页最后的score开始，跳过该score下已经返回过的成员.
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(final Date date, final String cursor, final int pageSize) {
+        return doFindPage(date, 0, RecoverShardManager.BUCKET_COUNT, cursor, pageSize);
+    }
+
+    /**
+     * 按分桶区间分页，游标格式与不分桶的分页相同.
+     * 恢复分桶由索引成员（即事务的key）计算，不在区间内的事务不读取.
+     */
+    @Override
+    public Page<Transaction> findAllUnmodifiedSince(Date date, int fromBucket, int toBucket, String cursor, int pageSize) {
+        return doFindPage(date, fromBucket, toBucket, cursor, pageSize);
+    }
+
+    private Page<Transaction> doFindPage(final Date date, final int fromBucket, final int toBucket, final String cursor, final int pageSize) {
+
+        migrateIndexIfNecessary();
+
+        try {
+            return RedisHelper.execute(jedisPool, new JedisCallback<Page<Transaction>>() {
+                @Override
+                public Page<Transaction> doInJedis(Jedis jedis) {
+
+                    byte[] indexKey = RedisHelper.getIndexKey(keyPrefix);
+                    byte[] max = ("(" + date.getTime()).getBytes();
+
+                    double lastScore = 0;
+                    String lastMember = null;
+                    byte[] min = "-inf".getBytes();
+
+                    if (cursor != null) {
+                        int separatorIndex = cursor.indexOf(':');
+                        lastScore = Double.parseDouble(cursor.substring(0, separatorIndex));
+                        lastMember = cursor.substring(separatorIndex + 1);
+                        min = cursor.substring(0, separatorIndex).getBytes();
+                    }
+
+                    List<Tuple> tuples = new ArrayList<Tuple>();
+                    boolean full = false;
+
+                    for (int offset = 0; ; ) {
+
+                        Set<Tuple> batch = jedis.zrangeByScoreWithScores(indexKey, min, max, offset, pageSize);
+
+                        for (Tuple tuple : batch) {
+                            if (lastMember == null || tuple.getScore() > lastScore || tuple.getElement().compareTo(lastMember) > 0) {
+                                tuples.add(tuple);
+                            }
+                        }
+
+                        full = batch.size() == pageSize;
+
+                        // 整批都是上一页已经返回过的同score成员时继续往后取
+                        if (!tuples.isEmpty() || !full) {
+                            break;
+                        }
+
+                        offset += batch.size();
+                    }
+
+                    List<Tuple> ownedTuples = tuples;
+
+                    if (fromBucket > 0 || toBucket < RecoverShardManager.BUCKET_COUNT) {
+
+                        ownedTuples = new ArrayList<Tuple>(tuples.size());
+
+                        for (Tuple tuple : tuples) {
+                            int bucket = RecoverShardManager.getBucket(tuple.getElement().substring(keyPrefix.length()));
+
+                            if (bucket >= fromBucket && bucket < toBucket) {
+                                ownedTuples.add(tuple);
+                            }
+                        }
+                    }
+
+                    Pipeline pipeline = jedis.pipelined();
+
+                    for (Tuple tuple : ownedTuples) {
+                        pipeline.hgetAll(tuple.getBinaryElement());
+                    }
+
+                    List<Object> result = pipeline.syncAndReturnAll();
+
+                    List<Transaction> list = new ArrayList<Transaction>();
+
+                    for (int i = 0; i < result.size(); i++) {
+
+                        Map<byte[], byte[]> data = (Map<byte[], byte[]>) result.get(i);
+
+                        if (data != null && data.size() > 0) {
+
+                            Transaction transaction = ExpandTransactionSerializer.deserialize(serializer, data);
+
+                            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
+                                list.add(transaction);
+                            }
+                        } else {
+                            // 事务已经删除，清理残留的索引
+                            jedis.zrem(indexKey, ownedTuples.get(i).getBinaryElement());
+                        }
+                    }
+
+                    String nextCursor = null;
+
+                    if (full && !tuples.isEmpty()) {
+                        Tuple last = tuples.get(tuples.size() - 1);
+                        nextCursor = (long) last.getScore() + ":" + last.getElement();
+                    }
+
+                    return new Page<Transaction>(list, nextCursor);
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    /**
+     * 为已有的事务数据建立LAST_UPDATE_TIME索引，使用SCAN遍历避免阻塞redis，完成后写入标记，只需要执行一次.
+     */
+    public void migrateIndex() {
+
+        try {
+            RedisHelper.execute(jedisPool, new JedisCallback<Object>() {
+                @Override
+                public Object doInJedis(Jedis jedis) {
+
+                    byte[] indexKey = RedisHelper.getIndexKey(keyPrefix);
+
+                    ScanParams scanParams = new ScanParams().match((keyPrefix + "*").getBytes()).count(FIND_BATCH_SIZE);
+                    String scanCursor = ScanParams.SCAN_POINTER_START;
+
+                    int indexedCount = 0;
+
+                    do {
+                        ScanResult<byte[]> scanResult = jedis.scan(scanCursor.getBytes(), scanParams);
+
+                        List<byte[]> keys = scanResult.getResult();
+
+                        Pipeline pipeline = jedis.pipelined();
+
+                        for (byte[] key : keys) {
+                            pipeline.hmget(key, ExpandTransactionSerializer.TRANSACTION_TYPE, ExpandTransactionSerializer.LAST_UPDATE_TIME);
+                        }
+
+                        List<Object> result = pipeline.syncAndReturnAll();
+
+                        for (int i = 0; i < keys.size(); i++) {
+
+                            List<byte[]> fields = (List<byte[]>) result.get(i);
+
+                            if (fields == null || fields.get(0) == null || fields.get(1) == null
+                                    || ByteUtils.bytesToInt(fields.get(0)) != TransactionType.ROOT.getId()) {
+                                continue;
+                            }
+
+                            jedis.zadd(indexKey, ExpandTransactionSerializer.parseTime(fields.get(1)).getTime(), keys.get(i));
+                            indexedCount++;
+                        }
+
+                        scanCursor = scanResult.getStringCursor();
+
+                    } while (!ScanParams.SCAN_POINTER_START.equals(scanCursor));
+
+                    jedis.set(RedisHelper.getIndexMigratedKey(keyPrefix), String.valueOf(System.currentTimeMillis()).getBytes());
+
+                    logger.info(String.format("redis transaction index migrated, indexed root transactions:%d", indexedCount));
+
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    private void migrateIndexIfNecessary() {
+
+        if (indexMigrated) {
+            return;
+        }
+
+        synchronized (this) {
+
+            if (indexMigrated) {
+                return;
             }
+
+            Boolean migrated = RedisHelper.execute(jedisPool, new JedisCallback<Boolean>() {
+                @Override
+                public Boolean doInJedis(Jedis jedis) {
+                    return jedis.exists(RedisHelper.getIndexMigratedKey(keyPrefix));
+                }
+            });
+
+            if (!migrated) {
+                migrateIndex();
+            }
+
+            indexMigrated = true;
         }
+    }
 
-        return allUnmodifiedSince;
+    private boolean isContentViewSampled(Transaction transaction) {
+
+        if (contentViewSampleRate <= 0) {
+            return false;
+        }
+
+        if (contentViewSampleRate >= 100) {
+            return true;
+        }
+
+        return (Arrays.hashCode(transaction.getXid().getGlobalTransactionId()) & Integer.MAX_VALUE) % 100 < contentViewSampleRate;
     }
 
-    //    @Override
-    protected List<Transaction> doFindAll() {
+    /**
+     * 只有主事务需要被恢复，只为主事务建立索引
+     */
+    private byte[] getIndexScore(Transaction transaction) {
+
+        if (transaction.getTransactionType().equals(TransactionType.ROOT)) {
+            return String.valueOf(transaction.getLastUpdateTime().getTime()).getBytes();
+        }
+
+        return new byte[0];
+    }
+
+    /**
+     * 租约为带过期时间的字符串key，值为持有者，使用SET NX PX获取，已持有时PEXPIRE续期.
+     */
+    @Override
+    public boolean tryAcquireLease(final String leaseName, final String owner, final long leaseMillis) {
+
+        try {
+            Long result = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+                @Override
+                public Long doInJedis(Jedis jedis) {
+
+                    Object result = ACQUIRE_LEASE_SCRIPT.eval(jedis,
+                            Arrays.asList(RedisHelper.getLeaseKey(keyPrefix, leaseName)),
+                            Arrays.asList(owner.getBytes(), String.valueOf(leaseMillis).getBytes()));
+
+                    return (Long) result;
+                }
+            });
+
+            return result.intValue() == 1;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public void releaseLease(final String leaseName, final String owner) {
 
         try {
+            RedisHelper.execute(jedisPool, new JedisCallback<Object>() {
+                @Override
+                public Object doInJedis(Jedis jedis) {
+                    return RELEASE_LEASE_SCRIPT.eval(jedis,
+                            Arrays.asList(RedisHelper.getLeaseKey(keyPrefix, leaseName)),
+                            Arrays.asList(owner.getBytes()));
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public List<String> findActiveLeases(final String leaseNamePrefix) {
 
-            final Set<byte[]> keys = RedisHelper.execute(jedisPool, new JedisCallback<Set<byte[]>>() {
+        try {
+            return RedisHelper.execute(jedisPool, new JedisCallback<List<String>>() {
                 @Override
-                public Set<byte[]> doInJedis(Jedis jedis) {
-                    return jedis.keys((keyPrefix + "*").getBytes());
+                public List<String> doInJedis(Jedis jedis) {
+
+                    String keyPattern = new String(RedisHelper.getLeaseKey(keyPrefix, leaseNamePrefix));
+
+                    List<String> leaseNames = new ArrayList<String>();
+
+                    ScanParams scanParams = new ScanParams().match((keyPattern + "*").getBytes()).count(1000);
+                    String cursor = ScanParams.SCAN_POINTER_START;
+
+                    do {
+                        ScanResult<byte[]> scanResult = jedis.scan(cursor.getBytes(), scanParams);
+
+                        for (byte[] key : scanResult.getResult()) {
+                            leaseNames.add(leaseNamePrefix + new String(key).substring(keyPattern.length()));
+                        }
+
+                        cursor = scanResult.getStringCursor();
+
+                    } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+
+                    return leaseNames;
                 }
             });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
 
+    //    @Override
+    protected List<Transaction> doFindAll() {
 
+        try {
             return RedisHelper.execute(jedisPool, new JedisCallback<List<Transaction>>() {
                 @Override
                 public List<Transaction> doInJedis(Jedis jedis) {
 
-                    Pipeline pipeline = jedis.pipelined();
+                    List<Transaction> list = new ArrayList<Transaction>();
 
-                    for (final byte[] key : keys) {
-                        pipeline.hgetAll(key);
-                    }
-                    List<Object> result = pipeline.syncAndReturnAll();
+                    ScanParams scanParams = new ScanParams().match((keyPrefix + "*").getBytes()).count(FIND_BATCH_SIZE);
+                    String scanCursor = ScanParams.SCAN_POINTER_START;
 
-                    List<Transaction> list = new ArrayList<Transaction>();
-                    for (Object data : result) {
+                    do {
+                        ScanResult<byte[]> scanResult = jedis.scan(scanCursor.getBytes(), scanParams);
 
-                        if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
+                        Pipeline pipeline = jedis.pipelined();
 
-                            list.add(ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data));
+                        for (final byte[] key : scanResult.getResult()) {
+                            pipeline.hgetAll(key);
                         }
 
-                    }
+                        List<Object> result = pipeline.syncAndReturnAll();
+
+                        for (Object data : result) {
+
+                            if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
+
+                                list.add(ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data));
+                            }
+                        }
+
+                        scanCursor = scanResult.getStringCursor();
+
+                    } while (!ScanParams.SCAN_POINTER_START.equals(scanCursor));
 
                     return list;
                 }
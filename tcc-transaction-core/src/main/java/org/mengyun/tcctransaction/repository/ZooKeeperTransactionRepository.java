@@ -12,12 +12,15 @@ import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.RecoverLeaseRepository;
+import org.mengyun.tcctransaction.recover.RecoverShardManager;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 
 import javax.transaction.xa.Xid;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -25,7 +28,9 @@ import java.util.List;
  * ZooKeeper事务库.
  * Created by changming.xie on 2/18/16.
  */
-public class ZooKeeperTransactionRepository extends CachableTransactionRepository {
+public class ZooKeeperTransactionRepository extends CachableTransactionRepository implements RecoverLeaseRepository {
+
+    private static final char LEASE_DATA_SEPARATOR = ':';
 
     private String zkServers;
 
@@ -127,6 +132,78 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         return allUnmodifiedSince;
     }
 
+    /**
+     * 按子节点名称排序分页，游标为上一页最后一个子节点名称.
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String cursor, int pageSize) {
+        return doFindPage(date, 0, RecoverShardManager.BUCKET_COUNT, cursor, pageSize);
+    }
+
+    /**
+     * 按分桶区间分页，恢复分桶由子节点名称计算，不在区间内的子节点不读取.
+     */
+    @Override
+    public Page<Transaction> findAllUnmodifiedSince(Date date, int fromBucket, int toBucket, String cursor, int pageSize) {
+        return doFindPage(date, fromBucket, toBucket, cursor, pageSize);
+    }
+
+    private Page<Transaction> doFindPage(Date date, int fromBucket, int toBucket, String cursor, int pageSize) {
+
+        List<String> znodePaths = null;
+        try {
+            znodePaths = getZk().getChildren(zkRootPath, false);
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+
+        if (fromBucket > 0 || toBucket < RecoverShardManager.BUCKET_COUNT) {
+
+            List<String> ownedZnodePaths = new ArrayList<String>(znodePaths.size());
+
+            for (String znodePath : znodePaths) {
+                int bucket = RecoverShardManager.getBucket(znodePath);
+
+                if (bucket >= fromBucket && bucket < toBucket) {
+                    ownedZnodePaths.add(znodePath);
+                }
+            }
+
+            znodePaths = ownedZnodePaths;
+        }
+
+        Collections.sort(znodePaths);
+
+        int fromIndex = 0;
+
+        if (cursor != null) {
+            int index = Collections.binarySearch(znodePaths, cursor);
+            fromIndex = index >= 0 ? index + 1 : -index - 1;
+        }
+
+        int toIndex = Math.min(fromIndex + pageSize, znodePaths.size());
+
+        List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
+
+        for (String znodePath : znodePaths.subList(fromIndex, toIndex)) {
+
+            try {
+                Transaction transaction = TransactionSerializer.deserialize(serializer, getZk().getData(getTxidPath(znodePath), false, new Stat()));
+
+                if (transaction.getTransactionType().equals(TransactionType.ROOT)
+                        && transaction.getLastUpdateTime().compareTo(date) < 0) {
+                    allUnmodifiedSince.add(transaction);
+                }
+            } catch (KeeperException.NoNodeException e) {
+                //deleted after getChildren
+            } catch (Exception e) {
+                throw new TransactionIOException(e);
+            }
+        }
+
+        return new Page<Transaction>(allUnmodifiedSince, toIndex < znodePaths.size() ? znodePaths.get(toIndex - 1) : null);
+    }
+
     protected List<Transaction> doFindAll() {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -154,6 +231,109 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         return transactions;
     }
 
+    /**
+     * 租约为zkRootPath同级目录下的临时节点，数据为"过期时间毫秒数:持有者".
+     * 续期时更新过期时间；持有者会话失效时节点随之删除，会话仍在但未按时续期的租约过期后可被其他持有者抢占.
+     */
+    @Override
+    public boolean tryAcquireLease(String leaseName, String owner, long leaseMillis) {
+
+        String leasePath = getLeasePath(leaseName);
+        long now = System.currentTimeMillis();
+        byte[] leaseData = (String.valueOf(now + leaseMillis) + LEASE_DATA_SEPARATOR + owner).getBytes();
+
+        try {
+            if (createLease(leasePath, leaseData)) {
+                return true;
+            }
+
+            Stat stat = new Stat();
+            String data = new String(getZk().getData(leasePath, false, stat));
+
+            if (owner.equals(getLeaseOwner(data))) {
+                getZk().setData(leasePath, leaseData, stat.getVersion());
+                return true;
+            }
+
+            if (getLeaseExpireTime(data) < now) {
+                // 按版本删除，避免删掉其他持有者刚续期或抢占到的租约
+                getZk().delete(leasePath, stat.getVersion());
+                return createLease(leasePath, leaseData);
+            }
+
+            return false;
+        } catch (KeeperException.NoNodeException e) {
+            return false;
+        } catch (KeeperException.BadVersionException e) {
+            return false;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public void releaseLease(String leaseName, String owner) {
+
+        String leasePath = getLeasePath(leaseName);
+
+        try {
+            Stat stat = new Stat();
+
+            if (owner.equals(getLeaseOwner(new String(getZk().getData(leasePath, false, stat))))) {
+                getZk().delete(leasePath, stat.getVersion());
+            }
+        } catch (KeeperException.NoNodeException e) {
+            //already released
+        } catch (KeeperException.BadVersionException e) {
+            //acquired by another owner
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    @Override
+    public List<String> findActiveLeases(String leaseNamePrefix) {
+
+        List<String> leaseNames = new ArrayList<String>();
+        long now = System.currentTimeMillis();
+
+        try {
+            for (String child : getZk().getChildren(getLeaseRootPath(), false)) {
+                if (child.startsWith(leaseNamePrefix)) {
+                    try {
+                        if (getLeaseExpireTime(new String(getZk().getData(getLeasePath(child), false, null))) >= now) {
+                            leaseNames.add(child);
+                        }
+                    } catch (KeeperException.NoNodeException e) {
+                        //released
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+
+        return leaseNames;
+    }
+
+    private boolean createLease(String leasePath, byte[] leaseData) throws KeeperException, InterruptedException {
+
+        try {
+            getZk().create(leasePath, leaseData, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            return true;
+        } catch (KeeperException.NodeExistsException e) {
+            return false;
+        }
+    }
+
+    private static long getLeaseExpireTime(String data) {
+        return Long.parseLong(data.substring(0, data.indexOf(LEASE_DATA_SEPARATOR)));
+    }
+
+    private static String getLeaseOwner(String data) {
+        return data.substring(data.indexOf(LEASE_DATA_SEPARATOR) + 1);
+    }
+
     private ZooKeeper getZk() {
 
         if (zk == null) {
@@ -172,6 +352,10 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
                         if (stat == null) {
                             zk.create(zkRootPath, zkRootPath.getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
                         }
+
+                        if (zk.exists(getLeaseRootPath(), false) == null) {
+                            zk.create(getLeaseRootPath(), getLeaseRootPath().getBytes(), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                        }
                     } catch (Exception e) {
                         throw new TransactionIOException(e);
                     }
@@ -189,5 +373,16 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         return String.format("%s/%s", zkRootPath, znodePath);
     }
 
+    /**
+     * 不能放在zkRootPath下，避免被当作事务节点扫描
+     */
+    private String getLeaseRootPath() {
+        return zkRootPath + "-lease";
+    }
+
+    private String getLeasePath(String leaseName) {
+        return String.format("%s/%s", getLeaseRootPath(), leaseName);
+    }
+
 
 }
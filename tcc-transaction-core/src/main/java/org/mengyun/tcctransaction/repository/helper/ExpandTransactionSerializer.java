@@ -1,7 +1,6 @@
 package org.mengyun.tcctransaction.repository.helper;
 
 import com.alibaba.fastjson.JSON;
-import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
@@ -10,28 +9,87 @@ import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.ByteUtils;
 
 import java.text.ParseException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Created by changming.xie on 9/15/16.
  */
 public class ExpandTransactionSerializer {
 
+    public static final byte[] GLOBAL_TX_ID = "GLOBAL_TX_ID".getBytes();
+
+    public static final byte[] BRANCH_QUALIFIER = "BRANCH_QUALIFIER".getBytes();
+
+    public static final byte[] STATUS = "STATUS".getBytes();
+
+    public static final byte[] TRANSACTION_TYPE = "TRANSACTION_TYPE".getBytes();
+
+    public static final byte[] RETRIED_COUNT = "RETRIED_COUNT".getBytes();
+
+    public static final byte[] CREATE_TIME = "CREATE_TIME".getBytes();
+
+    public static final byte[] LAST_UPDATE_TIME = "LAST_UPDATE_TIME".getBytes();
+
+    public static final byte[] VERSION = "VERSION".getBytes();
+
+    public static final byte[] CONTENT = "CONTENT".getBytes();
+
+    public static final byte[] CONTENT_VIEW = "CONTENT_VIEW".getBytes();
+
+    /**
+     * 增量持久化时追加的参与者字段前缀，后接第一个参与者在参与者列表中的位置
+     */
+    public static final String PARTICIPANT_PREFIX = "PARTICIPANT:";
+
     public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction) {
+        return serialize(serializer, transaction, true);
+    }
+
+    /**
+     * CONTENT_VIEW是整个事务（包括参与者参数）的json，只用于控制台查看，不写入时可以省去约一半的序列化开销和存储空间.
+     */
+    public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction, boolean withContentView) {
 
         Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
 
-        map.put("GLOBAL_TX_ID".getBytes(), transaction.getXid().getGlobalTransactionId());
-        map.put("BRANCH_QUALIFIER".getBytes(), transaction.getXid().getBranchQualifier());
-        map.put("STATUS".getBytes(), ByteUtils.intToBytes(transaction.getStatus().getId()));
-        map.put("TRANSACTION_TYPE".getBytes(), ByteUtils.intToBytes(transaction.getTransactionType().getId()));
-        map.put("RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(transaction.getRetriedCount()));
-        map.put("CREATE_TIME".getBytes(), DateFormatUtils.format(transaction.getCreateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
-        map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
-        map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
-        map.put("CONTENT".getBytes(), serializer.serialize(transaction));
-        map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
+        map.put(GLOBAL_TX_ID, transaction.getXid().getGlobalTransactionId());
+        map.put(BRANCH_QUALIFIER, transaction.getXid().getBranchQualifier());
+        map.put(STATUS, ByteUtils.intToBytes(transaction.getStatus().getId()));
+        map.put(TRANSACTION_TYPE, ByteUtils.intToBytes(transaction.getTransactionType().getId()));
+        map.put(RETRIED_COUNT, ByteUtils.intToBytes(transaction.getRetriedCount()));
+        map.put(CREATE_TIME, ByteUtils.longToBytes(transaction.getCreateTime().getTime()));
+        map.put(LAST_UPDATE_TIME, ByteUtils.longToBytes(transaction.getLastUpdateTime().getTime()));
+        map.put(VERSION, ByteUtils.longToBytes(transaction.getVersion()));
+        map.put(CONTENT, serializer.serialize(transaction));
+
+        if (withContentView) {
+            map.put(CONTENT_VIEW, JSON.toJSONString(transaction).getBytes());
+        }
+
+        return map;
+    }
+
+    /**
+     * 增量持久化时的更新字段：只有状态、重试次数、时间和版本，有新加入的参与者时追加一个参与者字段，CONTENT保持创建时的内容.
+     */
+    public static Map<byte[], byte[]> serializeDelta(ObjectSerializer serializer, Transaction transaction) {
+
+        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+
+        map.put(STATUS, ByteUtils.intToBytes(transaction.getStatus().getId()));
+        map.put(RETRIED_COUNT, ByteUtils.intToBytes(transaction.getRetriedCount()));
+        map.put(LAST_UPDATE_TIME, ByteUtils.longToBytes(transaction.getLastUpdateTime().getTime()));
+        map.put(VERSION, ByteUtils.longToBytes(transaction.getVersion()));
+
+        byte[] participants = ParticipantDeltaHelper.serializeAppendedParticipants(serializer, transaction);
+
+        if (participants != null) {
+            map.put((PARTICIPANT_PREFIX + transaction.getPersistedParticipantCount()).getBytes(), participants);
+        }
+
         return map;
     }
 
@@ -48,13 +106,45 @@ public class ExpandTransactionSerializer {
         transaction.changeStatus(TransactionStatus.valueOf(ByteUtils.bytesToInt(propertyMap.get("STATUS"))));
         transaction.resetRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
 
+        transaction.setLastUpdateTime(parseTime(propertyMap.get("LAST_UPDATE_TIME")));
+
+        transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
+
+        mergeAppendedParticipants(serializer, transaction, propertyMap);
+
+        return transaction;
+    }
+
+    private static void mergeAppendedParticipants(ObjectSerializer serializer, Transaction transaction, Map<String, byte[]> propertyMap) {
+
+        TreeMap<Integer, byte[]> appended = new TreeMap<Integer, byte[]>();
+
+        for (Map.Entry<String, byte[]> entry : propertyMap.entrySet()) {
+            if (entry.getKey().startsWith(PARTICIPANT_PREFIX)) {
+                appended.put(Integer.valueOf(entry.getKey().substring(PARTICIPANT_PREFIX.length())), entry.getValue());
+            }
+        }
+
+        for (Map.Entry<Integer, byte[]> entry : appended.entrySet()) {
+            ParticipantDeltaHelper.mergeAppendedParticipants(serializer, transaction, entry.getKey(), entry.getValue());
+        }
+
+        transaction.setPersistedParticipantCount(transaction.getParticipants().size());
+    }
+
+    /**
+     * 时间以毫秒时间戳保存，旧的数据为"yyyy-MM-dd HH:mm:ss"格式.
+     */
+    public static Date parseTime(byte[] bytes) {
+
+        if (bytes.length != 19 || bytes[4] != '-') {
+            return new Date(ByteUtils.bytesToLong(bytes));
+        }
+
         try {
-            transaction.setLastUpdateTime(DateUtils.parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
+            return DateUtils.parseDate(new String(bytes), "yyyy-MM-dd HH:mm:ss");
         } catch (ParseException e) {
             throw new SystemException(e);
         }
-
-        transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
-        return transaction;
     }
 }
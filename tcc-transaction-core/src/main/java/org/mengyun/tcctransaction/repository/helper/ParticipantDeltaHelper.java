@@ -0,0 +1,65 @@
+package org.mengyun.tcctransaction.repository.helper;
+
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import java.util.List;
+
+/**
+ * 增量持久化时追加参与者记录的辅助方法.
+ * <p>
+ * 追加的参与者包装在一个只有参与者列表的Transaction中，用事务库配置的序列化器序列化，
+ * 这样只能序列化Transaction的序列化器（如ProtostuffSerializer）也可以使用.
+ * 记录以追加的第一个参与者在参与者列表中的位置作为序号，加载时只合并事务内容中还没有的参与者.
+ */
+public class ParticipantDeltaHelper {
+
+    private ParticipantDeltaHelper() {
+    }
+
+    /**
+     * 是否有未持久化的参与者
+     */
+    public static boolean hasAppendedParticipants(Transaction transaction) {
+        return transaction.getParticipants().size() > transaction.getPersistedParticipantCount();
+    }
+
+    /**
+     * 序列化未持久化的参与者，没有时返回null
+     */
+    public static byte[] serializeAppendedParticipants(ObjectSerializer serializer, Transaction transaction) {
+
+        List<Participant> participants = transaction.getParticipants();
+
+        if (participants.size() <= transaction.getPersistedParticipantCount()) {
+            return null;
+        }
+
+        Transaction carrier = new Transaction((TransactionXid) transaction.getXid(), transaction.getStatus(),
+                transaction.getTransactionType(), transaction.getCreateTime());
+
+        for (int i = transaction.getPersistedParticipantCount(); i < participants.size(); i++) {
+            carrier.enlistParticipant(participants.get(i));
+        }
+
+        return serializer.serialize(carrier);
+    }
+
+    /**
+     * 合并一条追加的参与者记录，index为记录中第一个参与者的位置，需要按index从小到大依次合并
+     */
+    public static void mergeAppendedParticipants(ObjectSerializer serializer, Transaction transaction, int index, byte[] content) {
+
+        Transaction carrier = (Transaction) serializer.deserialize(content);
+
+        List<Participant> appended = carrier.getParticipants();
+
+        for (int i = 0; i < appended.size(); i++) {
+            if (index + i >= transaction.getParticipants().size()) {
+                transaction.enlistParticipant(appended.get(i));
+            }
+        }
+    }
+}
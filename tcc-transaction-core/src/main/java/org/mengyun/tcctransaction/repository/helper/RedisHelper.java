@@ -27,6 +27,24 @@ public class RedisHelper {
         return new StringBuilder().append("VER:").append(keyPrefix).append(globalTransactionId).append(":").append(branchQualifier).toString().getBytes();
     }
 
+    /**
+     * 主事务LAST_UPDATE_TIME有序集合索引，不能以keyPrefix开头，避免被当作事务key扫描.
+     */
+    public static byte[] getIndexKey(String keyPrefix) {
+        return new StringBuilder().append("IDX:").append(keyPrefix).append("LAST_UPDATE_TIME").toString().getBytes();
+    }
+
+    public static byte[] getIndexMigratedKey(String keyPrefix) {
+        return new StringBuilder().append("IDX:").append(keyPrefix).append("LAST_UPDATE_TIME:MIGRATED").toString().getBytes();
+    }
+
+    /**
+     * 租约key不能以keyPrefix开头，避免被当作事务key扫描.
+     */
+    public static byte[] getLeaseKey(String keyPrefix, String leaseName) {
+        return new StringBuilder().append("LEASE:").append(keyPrefix).append(leaseName).toString().getBytes();
+    }
+
     public static <T> T execute(JedisPool jedisPool, JedisCallback<T> callback) {
         Jedis jedis = null;
         try {
@@ -0,0 +1,47 @@
+package org.mengyun.tcctransaction.repository.helper;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.List;
+
+/**
+ * 只加载一次的lua脚本，之后通过EVALSHA调用，避免每次传输和解析脚本.
+ * redis重启或者执行了SCRIPT FLUSH后返回NOSCRIPT，此时重新加载脚本再调用一次.
+ */
+public class RedisScript {
+
+    private final byte[] script;
+
+    private volatile byte[] sha;
+
+    public RedisScript(String script) {
+        this.script = script.getBytes();
+    }
+
+    public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+
+        byte[] currentSha = sha;
+
+        if (currentSha == null) {
+            currentSha = load(jedis);
+        }
+
+        try {
+            return jedis.evalsha(currentSha, keys, args);
+        } catch (JedisDataException e) {
+
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+
+            return jedis.evalsha(load(jedis), keys, args);
+        }
+    }
+
+    private byte[] load(Jedis jedis) {
+        byte[] loadedSha = jedis.scriptLoad(script);
+        sha = loadedSha;
+        return loadedSha;
+    }
+}
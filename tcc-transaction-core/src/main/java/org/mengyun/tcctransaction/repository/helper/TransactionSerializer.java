@@ -1,34 +1,140 @@
 package org.mengyun.tcctransaction.repository.helper;
 
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.serializer.BufferedObjectSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.SerializeBuffer;
 
+import java.nio.ByteBuffer;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Created by changming.xie on 9/15/16.
+ * <p>
+ * 记录格式(大端):
+ * <pre>
+ * magic(2) formatVersion(1)
+ * globalTxIdLength(2) globalTxId branchQualifierLength(2) branchQualifier
+ * status(4) transactionType(4) retriedCount(4) createTime(8) lastUpdateTime(8) version(8)
+ * contentLength(4) content
+ * </pre>
+ * 时间为毫秒时间戳，content为serializer序列化的事务.
+ * 不以magic开头的记录是旧的格式，即serializer序列化的属性map，仍然可以读取.
  */
 public class TransactionSerializer {
 
+    private static final byte MAGIC_HIGH = (byte) 0xCC;
+
+    private static final byte MAGIC_LOW = (byte) 0x7C;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int FIXED_HEADER_LENGTH = 3 + 2 + 2 + 4 + 4 + 4 + 8 + 8 + 8 + 4;
+
     public static byte[] serialize(ObjectSerializer serializer, Transaction transaction) {
-        Map<String, Object> map = new HashMap<String, Object>();
-
-        map.put("GLOBAL_TX_ID", transaction.getXid().getGlobalTransactionId());
-        map.put("BRANCH_QUALIFIER", transaction.getXid().getBranchQualifier());
-        map.put("STATUS", transaction.getStatus().getId());
-        map.put("TRANSACTION_TYPE", transaction.getTransactionType().getId());
-        map.put("RETRIED_COUNT", transaction.getRetriedCount());
-        map.put("CREATE_TIME", transaction.getCreateTime());
-        map.put("LAST_UPDATE_TIME", transaction.getLastUpdateTime());
-        map.put("VERSION", transaction.getVersion());
-        map.put("CONTENT", serializer.serialize(transaction));
-
-        return serializer.serialize(map);
+        SerializeBuffer buffer = SerializeBuffer.local();
+        serialize(serializer, transaction, buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 从buffer当前的size开始追加记录，serializer支持时content直接写入buffer，再回填长度.
+     */
+    public static void serialize(ObjectSerializer serializer, Transaction transaction, SerializeBuffer buffer) {
+
+        byte[] globalTransactionId = transaction.getXid().getGlobalTransactionId();
+        byte[] branchQualifier = transaction.getXid().getBranchQualifier();
+
+        buffer.write(MAGIC_HIGH);
+        buffer.write(MAGIC_LOW);
+        buffer.write(FORMAT_VERSION);
+        buffer.putShort((short) globalTransactionId.length);
+        buffer.write(globalTransactionId, 0, globalTransactionId.length);
+        buffer.putShort((short) branchQualifier.length);
+        buffer.write(branchQualifier, 0, branchQualifier.length);
+        buffer.putInt(transaction.getStatus().getId());
+        buffer.putInt(transaction.getTransactionType().getId());
+        buffer.putInt(transaction.getRetriedCount());
+        buffer.putLong(transaction.getCreateTime().getTime());
+        buffer.putLong(transaction.getLastUpdateTime().getTime());
+        buffer.putLong(transaction.getVersion());
+
+        int contentLengthIndex = buffer.size();
+        buffer.setSize(contentLengthIndex + 4);
+
+        if (serializer instanceof BufferedObjectSerializer) {
+            ((BufferedObjectSerializer) serializer).serialize(transaction, buffer);
+        } else {
+            byte[] content = serializer.serialize(transaction);
+            buffer.write(content, 0, content.length);
+        }
+
+        buffer.putInt(contentLengthIndex, buffer.size() - contentLengthIndex - 4);
     }
 
     public static Transaction deserialize(ObjectSerializer serializer, byte[] value) {
+        return deserialize(serializer, ByteBuffer.wrap(value));
+    }
+
+    /**
+     * 读取buffer剩余的字节，serializer支持时直接从buffer读取content.
+     */
+    public static Transaction deserialize(ObjectSerializer serializer, ByteBuffer buffer) {
+
+        if (!isBinaryFormat(buffer)) {
+            byte[] value = new byte[buffer.remaining()];
+            buffer.get(value);
+            return deserializeMap(serializer, value);
+        }
+
+        buffer.position(buffer.position() + 3);
+
+        // xid, create time和transaction type在content中已经包含
+        skip(buffer, buffer.getShort());
+        skip(buffer, buffer.getShort());
+
+        int status = buffer.getInt();
+        buffer.getInt();
+        int retriedCount = buffer.getInt();
+        buffer.getLong();
+        long lastUpdateTime = buffer.getLong();
+        long version = buffer.getLong();
+
+        int contentLength = buffer.getInt();
+
+        Transaction transaction;
+
+        if (serializer instanceof BufferedObjectSerializer) {
+            ByteBuffer content = buffer.slice();
+            content.limit(contentLength);
+            transaction = (Transaction) ((BufferedObjectSerializer) serializer).deserialize(content);
+            skip(buffer, contentLength);
+        } else {
+            byte[] content = new byte[contentLength];
+            buffer.get(content);
+            transaction = (Transaction) serializer.deserialize(content);
+        }
+
+        transaction.changeStatus(TransactionStatus.valueOf(status));
+        transaction.resetRetriedCount(retriedCount);
+        transaction.setLastUpdateTime(new Date(lastUpdateTime));
+        transaction.setVersion(version);
+        return transaction;
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    private static boolean isBinaryFormat(ByteBuffer buffer) {
+        int position = buffer.position();
+        return buffer.remaining() >= FIXED_HEADER_LENGTH
+                && buffer.get(position) == MAGIC_HIGH && buffer.get(position + 1) == MAGIC_LOW && buffer.get(position + 2) == FORMAT_VERSION;
+    }
+
+    private static Transaction deserializeMap(ObjectSerializer serializer, byte[] value) {
 
         Map<String, Object> map = (Map<String, Object>) serializer.deserialize(value);
 
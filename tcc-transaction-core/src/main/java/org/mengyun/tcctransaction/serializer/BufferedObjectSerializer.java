@@ -0,0 +1,25 @@
+package org.mengyun.tcctransaction.serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 支持直接写入可复用缓冲区和从ByteBuffer读取的序列化，避免中间byte[]的分配和复制.
+ */
+public interface BufferedObjectSerializer<T> extends ObjectSerializer<T> {
+
+    /**
+     * Serialize the given object, appending the binary data to the buffer from its current size.
+     *
+     * @param t      object to serialize
+     * @param buffer buffer to append to
+     */
+    void serialize(T t, SerializeBuffer buffer);
+
+    /**
+     * Deserialize an object from the remaining bytes of the given buffer, the position of the buffer is moved to its limit.
+     *
+     * @param buffer object binary representation
+     * @return the equivalent object instance
+     */
+    T deserialize(ByteBuffer buffer);
+}
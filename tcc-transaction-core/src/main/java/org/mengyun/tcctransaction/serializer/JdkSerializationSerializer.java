@@ -2,16 +2,21 @@ package org.mengyun.tcctransaction.serializer;
 
 import org.apache.commons.lang3.SerializationUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Created by changming.xie on 7/22/16.
  */
-public class JdkSerializationSerializer<T extends Serializable> implements ObjectSerializer<T> {
+public class JdkSerializationSerializer<T extends Serializable> implements BufferedObjectSerializer<T> {
 
     @Override
     public byte[] serialize(T object) {
-        return SerializationUtils.serialize(object);
+        SerializeBuffer buffer = SerializeBuffer.scratch();
+        SerializationUtils.serialize(object, buffer);
+        return buffer.toByteArray();
     }
 
     @Override
@@ -23,6 +28,29 @@ public class JdkSerializationSerializer<T extends Serializable> implements Objec
         }
     }
 
+    @Override
+    public void serialize(T object, SerializeBuffer buffer) {
+        SerializationUtils.serialize(object, buffer);
+    }
+
+    @Override
+    public T deserialize(ByteBuffer buffer) {
+
+        InputStream inputStream;
+
+        if (buffer.hasArray()) {
+            inputStream = new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            inputStream = new ByteArrayInputStream(bytes);
+        }
+
+        buffer.position(buffer.limit());
+
+        return (T) SerializationUtils.deserialize(inputStream);
+    }
+
     @Override
     public T clone(T object) {
         return SerializationUtils.clone(object);
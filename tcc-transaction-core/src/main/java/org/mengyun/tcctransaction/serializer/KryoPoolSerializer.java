@@ -1,20 +1,17 @@
 package org.mengyun.tcctransaction.serializer;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoCallback;
 import com.esotericsoftware.kryo.pool.KryoFactory;
 import com.esotericsoftware.kryo.pool.KryoPool;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by changming.xie on 9/18/17.
  */
-public class KryoPoolSerializer<T> implements ObjectSerializer<T> {
+public class KryoPoolSerializer<T> implements BufferedObjectSerializer<T> {
 
 
     static KryoFactory factory = new KryoFactory() {
@@ -22,6 +19,7 @@ public class KryoPoolSerializer<T> implements ObjectSerializer<T> {
             Kryo kryo = new Kryo();
             kryo.setReferences(true);
             kryo.setRegistrationRequired(false);
+            KryoSupport.registerParticipantSerializer(kryo);
             //Fix the NPE bug when deserializing Collections.
             ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
                     .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
@@ -57,13 +55,18 @@ public class KryoPoolSerializer<T> implements ObjectSerializer<T> {
 
         return pool.run(new KryoCallback<byte[]>() {
             public byte[] execute(Kryo kryo) {
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                Output output = new Output(byteArrayOutputStream);
+                return KryoSupport.writeToByteArray(kryo, object);
+            }
+        });
+    }
 
-                kryo.writeClassAndObject(output, object);
-                output.flush();
+    @Override
+    public void serialize(final T object, final SerializeBuffer buffer) {
 
-                return byteArrayOutputStream.toByteArray();
+        pool.run(new KryoCallback<Object>() {
+            public Object execute(Kryo kryo) {
+                KryoSupport.write(kryo, object, buffer);
+                return null;
             }
         });
     }
@@ -73,10 +76,17 @@ public class KryoPoolSerializer<T> implements ObjectSerializer<T> {
 
         return pool.run(new KryoCallback<T>() {
             public T execute(Kryo kryo) {
-                ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-                Input input = new Input(byteArrayInputStream);
+                return (T) KryoSupport.read(kryo, bytes);
+            }
+        });
+    }
+
+    @Override
+    public T deserialize(final ByteBuffer buffer) {
 
-                return (T) kryo.readClassAndObject(input);
+        return pool.run(new KryoCallback<T>() {
+            public T execute(Kryo kryo) {
+                return (T) KryoSupport.read(kryo, buffer);
             }
         });
     }
@@ -0,0 +1,379 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoCallback;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 要求注册类型的kryo序列化，记录中只保存类型的注册id，不保存类名，并关闭引用跟踪.
+ * <p>
+ * Transaction, Participant, TransactionXid和InvocationContext使用固定id和按字段写入的序列化器，
+ * InvocationContext中的目标类和参数类型以类名保存，因此不需要注册.
+ * 参与者参数和事务附加属性的类型需要通过{@link #register(Class, int)}或者{@link #setRegisteredClasses(List)}注册，
+ * 应用的注册id从{@link #APPLICATION_REGISTRATION_ID_START}开始，各节点必须使用相同的注册，并在第一次序列化之前完成注册.
+ */
+public class KryoRegisteredSerializer<T> implements BufferedObjectSerializer<T> {
+
+    public static final int APPLICATION_REGISTRATION_ID_START = 1000;
+
+    private static final int CORE_REGISTRATION_ID_START = 100;
+
+    /**
+     * 顺序即注册id，只能在末尾追加
+     */
+    private static final Class<?>[] COMMON_CLASSES = new Class<?>[]{
+            byte[].class, int[].class, long[].class, String[].class, Object[].class,
+            ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class,
+            HashSet.class, LinkedHashSet.class, ConcurrentHashMap.class,
+            Date.class, java.sql.Date.class, java.sql.Timestamp.class, BigDecimal.class, BigInteger.class
+    };
+
+    private static final Map<String, Class<?>> PRIMITIVE_CLASSES = new HashMap<String, Class<?>>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVE_CLASSES.put(type.getName(), type);
+        }
+    }
+
+    private static final ConcurrentMap<String, Class<?>> LOADED_CLASSES = new ConcurrentHashMap<String, Class<?>>();
+
+    private final Map<Integer, Class<?>> applicationClasses = new LinkedHashMap<Integer, Class<?>>();
+
+    private final KryoPool pool = new KryoPool.Builder(new KryoFactory() {
+        public Kryo create() {
+            return createKryo();
+        }
+    }).softReferences().build();
+
+    public synchronized void register(Class<?> type, int id) {
+
+        if (id < APPLICATION_REGISTRATION_ID_START) {
+            throw new IllegalArgumentException("registration id of application class must not be less than " + APPLICATION_REGISTRATION_ID_START);
+        }
+
+        Class<?> registered = applicationClasses.get(id);
+
+        if (registered != null && !registered.equals(type)) {
+            throw new IllegalArgumentException(String.format("registration id %d is already used by %s", id, registered.getName()));
+        }
+
+        applicationClasses.put(id, type);
+    }
+
+    /**
+     * 按列表顺序从{@link #APPLICATION_REGISTRATION_ID_START}开始分配注册id，方便在spring中配置
+     */
+    public void setRegisteredClasses(List<Class<?>> registeredClasses) {
+        for (int i = 0; i < registeredClasses.size(); i++) {
+            register(registeredClasses.get(i), APPLICATION_REGISTRATION_ID_START + i);
+        }
+    }
+
+    private synchronized Kryo createKryo() {
+
+        Kryo kryo = new Kryo();
+        kryo.setReferences(false);
+        kryo.setRegistrationRequired(true);
+        //Fix the NPE bug when deserializing Collections.
+        ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
+                .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+
+        kryo.register(Transaction.class, new TransactionKryoSerializer(), CORE_REGISTRATION_ID_START);
+        kryo.register(Participant.class, new ParticipantSerializer(), CORE_REGISTRATION_ID_START + 1);
+        kryo.register(TransactionXid.class, new TransactionXidSerializer(), CORE_REGISTRATION_ID_START + 2);
+        kryo.register(InvocationContext.class, new InvocationContextSerializer(), CORE_REGISTRATION_ID_START + 3);
+
+        for (int i = 0; i < COMMON_CLASSES.length; i++) {
+            kryo.register(COMMON_CLASSES[i], CORE_REGISTRATION_ID_START + 10 + i);
+        }
+
+        for (Map.Entry<Integer, Class<?>> entry : applicationClasses.entrySet()) {
+            kryo.register(entry.getValue(), entry.getKey());
+        }
+
+        return kryo;
+    }
+
+    @Override
+    public byte[] serialize(final T object) {
+
+        return pool.run(new KryoCallback<byte[]>() {
+            public byte[] execute(Kryo kryo) {
+                return KryoSupport.writeToByteArray(kryo, object);
+            }
+        });
+    }
+
+    @Override
+    public void serialize(final T object, final SerializeBuffer buffer) {
+
+        pool.run(new KryoCallback<Object>() {
+            public Object execute(Kryo kryo) {
+                KryoSupport.write(kryo, object, buffer);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public T deserialize(final byte[] bytes) {
+
+        return pool.run(new KryoCallback<T>() {
+            public T execute(Kryo kryo) {
+                return (T) KryoSupport.read(kryo, bytes);
+            }
+        });
+    }
+
+    @Override
+    public T deserialize(final ByteBuffer buffer) {
+
+        return pool.run(new KryoCallback<T>() {
+            public T execute(Kryo kryo) {
+                return (T) KryoSupport.read(kryo, buffer);
+            }
+        });
+    }
+
+    @Override
+    public T clone(final T object) {
+        return deserialize(serialize(object));
+    }
+
+    private static void writeClassName(Output output, Class<?> type) {
+        output.writeString(type == null ? null : type.getName());
+    }
+
+    private static Class<?> readClassName(Input input) {
+
+        String className = input.readString();
+
+        if (className == null) {
+            return null;
+        }
+
+        Class<?> type = PRIMITIVE_CLASSES.get(className);
+
+        if (type == null) {
+            type = LOADED_CLASSES.get(className);
+        }
+
+        if (type == null) {
+
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+            try {
+                type = Class.forName(className, false, classLoader != null ? classLoader : KryoRegisteredSerializer.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new SystemException(e);
+            }
+
+            LOADED_CLASSES.putIfAbsent(className, type);
+        }
+
+        return type;
+    }
+
+    /**
+     * 长度加1写入，0表示null
+     */
+    private static void writeBytes(Output output, byte[] bytes) {
+
+        if (bytes == null) {
+            output.writeVarInt(0, true);
+            return;
+        }
+
+        output.writeVarInt(bytes.length + 1, true);
+        output.writeBytes(bytes);
+    }
+
+    private static byte[] readBytes(Input input) {
+
+        int length = input.readVarInt(true);
+
+        return length == 0 ? null : input.readBytes(length - 1);
+    }
+
+    static class TransactionXidSerializer extends Serializer<TransactionXid> {
+
+        @Override
+        public void write(Kryo kryo, Output output, TransactionXid xid) {
+            writeBytes(output, xid.getGlobalTransactionId());
+            writeBytes(output, xid.getBranchQualifier());
+        }
+
+        @Override
+        public TransactionXid read(Kryo kryo, Input input, Class<TransactionXid> type) {
+            byte[] globalTransactionId = readBytes(input);
+            return new TransactionXid(globalTransactionId, readBytes(input));
+        }
+    }
+
+    static class InvocationContextSerializer extends Serializer<InvocationContext> {
+
+        @Override
+        public void write(Kryo kryo, Output output, InvocationContext invocationContext) {
+
+            writeClassName(output, invocationContext.getTargetClass());
+            output.writeString(invocationContext.getMethodName());
+
+            Class[] parameterTypes = invocationContext.getParameterTypes();
+            output.writeVarInt(parameterTypes == null ? 0 : parameterTypes.length + 1, true);
+
+            if (parameterTypes != null) {
+                for (Class parameterType : parameterTypes) {
+                    writeClassName(output, parameterType);
+                }
+            }
+
+            Object[] args = invocationContext.getArgs();
+            output.writeVarInt(args == null ? 0 : args.length + 1, true);
+
+            if (args != null) {
+                for (Object arg : args) {
+                    kryo.writeClassAndObject(output, arg);
+                }
+            }
+        }
+
+        @Override
+        public InvocationContext read(Kryo kryo, Input input, Class<InvocationContext> type) {
+
+            Class targetClass = readClassName(input);
+            String methodName = input.readString();
+
+            Class[] parameterTypes = null;
+            int length = input.readVarInt(true);
+
+            if (length > 0) {
+                parameterTypes = new Class[length - 1];
+                for (int i = 0; i < parameterTypes.length; i++) {
+                    parameterTypes[i] = readClassName(input);
+                }
+            }
+
+            Object[] args = null;
+            length = input.readVarInt(true);
+
+            if (length > 0) {
+                args = new Object[length - 1];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = kryo.readClassAndObject(input);
+                }
+            }
+
+            return new InvocationContext(targetClass, methodName, parameterTypes, args);
+        }
+    }
+
+    static class ParticipantSerializer extends Serializer<Participant> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Participant participant) {
+            kryo.writeObjectOrNull(output, participant.getXid(), TransactionXid.class);
+            kryo.writeObjectOrNull(output, participant.getConfirmInvocationContext(), InvocationContext.class);
+            kryo.writeObjectOrNull(output, participant.getCancelInvocationContext(), InvocationContext.class);
+            writeClassName(output, participant.getTransactionContextEditorClass());
+            output.writeVarInt(participant.getStatus().getId(), true);
+        }
+
+        @Override
+        public Participant read(Kryo kryo, Input input, Class<Participant> type) {
+
+            TransactionXid xid = kryo.readObjectOrNull(input, TransactionXid.class);
+            InvocationContext confirmInvocationContext = kryo.readObjectOrNull(input, InvocationContext.class);
+            InvocationContext cancelInvocationContext = kryo.readObjectOrNull(input, InvocationContext.class);
+            Class<? extends TransactionContextEditor> transactionContextEditorClass = (Class<? extends TransactionContextEditor>) readClassName(input);
+
+            Participant participant = new Participant(xid, confirmInvocationContext, cancelInvocationContext, transactionContextEditorClass);
+            participant.setStatus(ParticipantStatus.valueOf(input.readVarInt(true)));
+            return participant;
+        }
+    }
+
+    static class TransactionKryoSerializer extends Serializer<Transaction> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Transaction transaction) {
+
+            kryo.writeObject(output, transaction.getXid());
+            output.writeVarInt(transaction.getStatus().getId(), true);
+            output.writeVarInt(transaction.getTransactionType().getId(), true);
+            output.writeVarInt(transaction.getRetriedCount(), true);
+            output.writeLong(transaction.getCreateTime().getTime());
+            output.writeLong(transaction.getLastUpdateTime().getTime());
+            output.writeLong(transaction.getVersion(), true);
+
+            List<Participant> participants = transaction.getParticipants();
+            output.writeVarInt(participants.size(), true);
+
+            for (Participant participant : participants) {
+                kryo.writeObject(output, participant);
+            }
+
+            Map<String, Object> attachments = transaction.getAttachments();
+            output.writeVarInt(attachments.size(), true);
+
+            for (Map.Entry<String, Object> entry : attachments.entrySet()) {
+                output.writeString(entry.getKey());
+                kryo.writeClassAndObject(output, entry.getValue());
+            }
+        }
+
+        @Override
+        public Transaction read(Kryo kryo, Input input, Class<Transaction> type) {
+
+            TransactionXid xid = kryo.readObject(input, TransactionXid.class);
+            TransactionStatus status = TransactionStatus.valueOf(input.readVarInt(true));
+            TransactionType transactionType = TransactionType.valueOf(input.readVarInt(true));
+
+            int retriedCount = input.readVarInt(true);
+            Date createTime = new Date(input.readLong());
+            Date lastUpdateTime = new Date(input.readLong());
+            long version = input.readLong(true);
+
+            Transaction transaction = new Transaction(xid, status, transactionType, createTime);
+            transaction.resetRetriedCount(retriedCount);
+            transaction.setLastUpdateTime(lastUpdateTime);
+            transaction.setVersion(version);
+
+            int participantCount = input.readVarInt(true);
+
+            for (int i = 0; i < participantCount; i++) {
+                transaction.enlistParticipant(kryo.readObject(input, Participant.class));
+            }
+
+            int attachmentCount = input.readVarInt(true);
+
+            for (int i = 0; i < attachmentCount; i++) {
+                String key = input.readString();
+                transaction.getAttachments().put(key, kryo.readClassAndObject(input));
+            }
+
+            return transaction;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * kryo序列化器共用的读写，Output直接使用SerializeBuffer的数组，扩容后的数组再交还给SerializeBuffer.
+ */
+class KryoSupport {
+
+    /**
+     * 参与者状态前的标记字节，按字段写入时Participant第一个字段的class id不会以0xFF开头.
+     */
+    static final byte PARTICIPANT_STATUS_MARKER = (byte) 0xFF;
+
+    private KryoSupport() {
+    }
+
+    static void registerParticipantSerializer(Kryo kryo) {
+        kryo.addDefaultSerializer(Participant.class, new ParticipantFieldSerializer(kryo));
+    }
+
+    static byte[] writeToByteArray(Kryo kryo, Object object) {
+        SerializeBuffer buffer = SerializeBuffer.scratch();
+        write(kryo, object, buffer);
+        return buffer.toByteArray();
+    }
+
+    static void write(Kryo kryo, Object object, SerializeBuffer buffer) {
+
+        Output output = new Output(buffer.array(), -1);
+        output.setPosition(buffer.size());
+
+        kryo.writeClassAndObject(output, object);
+
+        buffer.set(output.getBuffer(), output.position());
+    }
+
+    static Object read(Kryo kryo, byte[] bytes) {
+        return kryo.readClassAndObject(new Input(bytes));
+    }
+
+    static Object read(Kryo kryo, ByteBuffer buffer) {
+
+        Object object;
+
+        if (buffer.hasArray()) {
+            object = kryo.readClassAndObject(new Input(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()));
+        } else {
+            object = kryo.readClassAndObject(new ByteBufferInput(buffer.slice()));
+        }
+
+        buffer.position(buffer.limit());
+
+        return object;
+    }
+
+    /**
+     * 兼容旧格式的Participant序列化器.
+     * status不按字段写入，未完成的参与者与旧版本写入的格式完全相同；
+     * 已完成的参与者在字段前写入标记字节和状态id，读取时没有标记则按TRYING处理.
+     */
+    static class ParticipantFieldSerializer extends FieldSerializer<Participant> {
+
+        ParticipantFieldSerializer(Kryo kryo) {
+            super(kryo, Participant.class);
+            removeField("status");
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Participant participant) {
+
+            ParticipantStatus status = participant.getStatus();
+
+            if (status != ParticipantStatus.TRYING) {
+                output.writeByte(PARTICIPANT_STATUS_MARKER);
+                output.writeVarInt(status.getId(), true);
+            }
+
+            super.write(kryo, output, participant);
+        }
+
+        @Override
+        public Participant read(Kryo kryo, Input input, Class<Participant> type) {
+
+            ParticipantStatus status = ParticipantStatus.TRYING;
+
+            if (input.readByte() == PARTICIPANT_STATUS_MARKER) {
+                status = ParticipantStatus.valueOf(input.readVarInt(true));
+            } else {
+                input.setPosition(input.position() - 1);
+            }
+
+            Participant participant = super.read(kryo, input, type);
+            participant.setStatus(status);
+            return participant;
+        }
+
+        @Override
+        public Participant copy(Kryo kryo, Participant original) {
+            Participant participant = super.copy(kryo, original);
+            participant.setStatus(original.getStatus());
+            return participant;
+        }
+    }
+}
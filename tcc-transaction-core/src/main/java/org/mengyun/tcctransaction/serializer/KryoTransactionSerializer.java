@@ -1,15 +1,11 @@
 package org.mengyun.tcctransaction.serializer;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
-public class KryoTransactionSerializer<T> implements ObjectSerializer<T> {
+public class KryoTransactionSerializer<T> implements BufferedObjectSerializer<T> {
 
     private static final ThreadLocal<Kryo> AGG_KRYO_LOCAL = new ThreadLocal<Kryo>() {
         @Override
@@ -17,6 +13,7 @@ public class KryoTransactionSerializer<T> implements ObjectSerializer<T> {
             Kryo kryo = new Kryo();
             kryo.setReferences(true);
             kryo.setRegistrationRequired(false);
+            KryoSupport.registerParticipantSerializer(kryo);
             //Fix the NPE bug when deserializing Collections.
             ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
                     .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
@@ -30,22 +27,11 @@ public class KryoTransactionSerializer<T> implements ObjectSerializer<T> {
     }
 
     public static <T> byte[] writeToByteArray(T obj) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        Output output = new Output(byteArrayOutputStream);
-
-        Kryo kryo = getInstance();
-        kryo.writeClassAndObject(output, obj);
-        output.flush();
-
-        return byteArrayOutputStream.toByteArray();
+        return KryoSupport.writeToByteArray(getInstance(), obj);
     }
 
     public static <T> T readFromByteArray(byte[] byteArray) {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(byteArray);
-        Input input = new Input(byteArrayInputStream);
-
-        Kryo kryo = getInstance();
-        return (T) kryo.readClassAndObject(input);
+        return (T) KryoSupport.read(getInstance(), byteArray);
     }
 
     @Override
@@ -58,6 +44,16 @@ public class KryoTransactionSerializer<T> implements ObjectSerializer<T> {
         return readFromByteArray(data);
     }
 
+    @Override
+    public void serialize(T t, SerializeBuffer buffer) {
+        KryoSupport.write(getInstance(), t, buffer);
+    }
+
+    @Override
+    public T deserialize(ByteBuffer buffer) {
+        return (T) KryoSupport.read(getInstance(), buffer);
+    }
+
     @Override
     public T clone(T object) {
         return getInstance().copy(object);
@@ -0,0 +1,181 @@
+package org.mengyun.tcctransaction.serializer;
+
+import io.protostuff.Input;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.Output;
+import io.protostuff.Pipe;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.WireFormat;
+import io.protostuff.runtime.DefaultIdStrategy;
+import io.protostuff.runtime.Delegate;
+import io.protostuff.runtime.IdStrategy;
+import io.protostuff.runtime.RuntimeSchema;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于protostuff runtime schema的序列化，只能序列化构造时指定的类型，默认为Transaction.
+ * <p>
+ * 使用独立的IdStrategy:
+ * MORPH_MAP_INTERFACES/MORPH_COLLECTION_INTERFACES记录接口类型字段的实际类型，Transaction的attachments反序列化后仍然是ConcurrentHashMap;
+ * ALLOW_NULL_ARRAY_ELEMENT保留具体类型数组中的null;
+ * Object[]的null元素不受这个选项影响，由NullableObjectArrayDelegate按位置保留，保证参与者参数的位置不变.
+ * schema在构造时创建并缓存，LinkedBuffer按线程复用.
+ */
+public class ProtostuffSerializer<T> implements BufferedObjectSerializer<T> {
+
+    private static final DefaultIdStrategy ID_STRATEGY = new DefaultIdStrategy(IdStrategy.DEFAULT_FLAGS
+            | IdStrategy.MORPH_MAP_INTERFACES
+            | IdStrategy.MORPH_COLLECTION_INTERFACES
+            | IdStrategy.ALLOW_NULL_ARRAY_ELEMENT, null, 0);
+
+    static {
+        ID_STRATEGY.registerDelegate(new NullableObjectArrayDelegate());
+    }
+
+    private static final ThreadLocal<LinkedBuffer> LOCAL_BUFFER = new ThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    private final Schema<T> schema;
+
+    public ProtostuffSerializer() {
+        this((Class<T>) Transaction.class);
+    }
+
+    public ProtostuffSerializer(Class<T> type) {
+        this.schema = RuntimeSchema.getSchema(type, ID_STRATEGY);
+    }
+
+    @Override
+    public byte[] serialize(T object) {
+
+        LinkedBuffer buffer = LOCAL_BUFFER.get();
+
+        try {
+            return ProtostuffIOUtil.toByteArray(object, schema, buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void serialize(T object, SerializeBuffer serializeBuffer) {
+
+        LinkedBuffer buffer = LOCAL_BUFFER.get();
+
+        try {
+            ProtostuffIOUtil.writeTo(serializeBuffer, object, schema, buffer);
+        } catch (IOException e) {
+            throw new SystemException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+
+        if (bytes == null) {
+            return null;
+        }
+
+        T object = schema.newMessage();
+        ProtostuffIOUtil.mergeFrom(bytes, object, schema);
+        return object;
+    }
+
+    @Override
+    public T deserialize(ByteBuffer buffer) {
+
+        T object = schema.newMessage();
+
+        if (buffer.hasArray()) {
+            ProtostuffIOUtil.mergeFrom(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), object, schema);
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            ProtostuffIOUtil.mergeFrom(bytes, object, schema);
+        }
+
+        buffer.position(buffer.limit());
+
+        return object;
+    }
+
+    @Override
+    public T clone(T object) {
+        return deserialize(serialize(object));
+    }
+
+    /**
+     * Object[]的每个元素包装成ObjectSlot后序列化，null元素对应一个空的slot，反序列化后数组长度和元素位置不变.
+     * 嵌套序列化使用独立的LinkedBuffer，外层序列化正在使用线程缓冲区.
+     */
+    private static class NullableObjectArrayDelegate implements Delegate<Object[]> {
+
+        @Override
+        public WireFormat.FieldType getFieldType() {
+            return WireFormat.FieldType.BYTES;
+        }
+
+        @Override
+        public Object[] readFrom(Input input) throws IOException {
+
+            Schema<ObjectSlots> slotsSchema = RuntimeSchema.getSchema(ObjectSlots.class, ID_STRATEGY);
+
+            ObjectSlots slots = slotsSchema.newMessage();
+            ProtostuffIOUtil.mergeFrom(input.readByteArray(), slots, slotsSchema);
+
+            Object[] value = new Object[slots.slots == null ? 0 : slots.slots.length];
+
+            for (int i = 0; i < value.length; i++) {
+                value[i] = slots.slots[i].value;
+            }
+
+            return value;
+        }
+
+        @Override
+        public void writeTo(Output output, int number, Object[] value, boolean repeated) throws IOException {
+
+            ObjectSlots slots = new ObjectSlots();
+            slots.slots = new ObjectSlot[value.length];
+
+            for (int i = 0; i < value.length; i++) {
+                slots.slots[i] = new ObjectSlot();
+                slots.slots[i].value = value[i];
+            }
+
+            output.writeByteArray(number, ProtostuffIOUtil.toByteArray(slots,
+                    RuntimeSchema.getSchema(ObjectSlots.class, ID_STRATEGY), LinkedBuffer.allocate(256)), repeated);
+        }
+
+        @Override
+        public void transfer(Pipe pipe, Input input, Output output, int number, boolean repeated) throws IOException {
+            input.transferByteRangeTo(output, false, number, repeated);
+        }
+
+        @Override
+        public Class<?> typeClass() {
+            return Object[].class;
+        }
+    }
+
+    static class ObjectSlots {
+
+        private ObjectSlot[] slots;
+    }
+
+    static class ObjectSlot {
+
+        private Object value;
+    }
+}
@@ -0,0 +1,161 @@
+package org.mengyun.tcctransaction.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 可复用、自动扩容的序列化缓冲区，序列化结果直接写入其中，调用方以ByteBuffer或InputStream的形式读取，不需要再复制成byte[].
+ * <p>
+ * {@link #local()}返回当前线程的缓冲区，内容在当前线程下一次使用前有效.
+ * 非线程安全.
+ */
+public class SerializeBuffer extends OutputStream {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * 线程缓冲区超过该大小时在下次使用前释放，避免偶尔的大事务长期占用内存
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<SerializeBuffer> LOCAL_BUFFER = new ThreadLocal<SerializeBuffer>() {
+        @Override
+        protected SerializeBuffer initialValue() {
+            return new SerializeBuffer();
+        }
+    };
+
+    private static final ThreadLocal<SerializeBuffer> SCRATCH_BUFFER = new ThreadLocal<SerializeBuffer>() {
+        @Override
+        protected SerializeBuffer initialValue() {
+            return new SerializeBuffer();
+        }
+    };
+
+    private byte[] array;
+
+    private int size;
+
+    public SerializeBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SerializeBuffer(int initialCapacity) {
+        this.array = new byte[initialCapacity];
+    }
+
+    /**
+     * 当前线程的缓冲区，已经清空
+     */
+    public static SerializeBuffer local() {
+        SerializeBuffer buffer = LOCAL_BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * 序列化器内部生成byte[]时使用，与{@link #local()}分开，调用方持有local()时仍然可以调用byte[]版本的序列化
+     */
+    static SerializeBuffer scratch() {
+        SerializeBuffer buffer = SCRATCH_BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    public void reset() {
+
+        if (array.length > MAX_RETAINED_CAPACITY) {
+            array = new byte[INITIAL_CAPACITY];
+        }
+
+        size = 0;
+    }
+
+    /**
+     * 底层数组，有效数据为[0, size)
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 调整有效数据的长度，用于跳过稍后回填的位置
+     */
+    public void setSize(int size) {
+        ensureCapacity(size);
+        this.size = size;
+    }
+
+    /**
+     * 接管序列化框架扩容后的数组，避免再复制一次
+     */
+    public void set(byte[] array, int size) {
+        this.array = array;
+        this.size = size;
+    }
+
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > array.length) {
+            array = Arrays.copyOf(array, Math.max(minCapacity, array.length << 1));
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        array[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(bytes, offset, array, size, length);
+        size += length;
+    }
+
+    public void putShort(short value) {
+        ensureCapacity(size + 2);
+        array[size++] = (byte) (value >>> 8);
+        array[size++] = (byte) value;
+    }
+
+    public void putInt(int value) {
+        ensureCapacity(size + 4);
+        putInt(size, value);
+        size += 4;
+    }
+
+    public void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+
+    /**
+     * 回填指定位置的int，大端，不改变size
+     */
+    public void putInt(int index, int value) {
+        array[index] = (byte) (value >>> 24);
+        array[index + 1] = (byte) (value >>> 16);
+        array[index + 2] = (byte) (value >>> 8);
+        array[index + 3] = (byte) value;
+    }
+
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(array, 0, size);
+    }
+
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(array, 0, size);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(array, size);
+    }
+}
@@ -1,8 +1,8 @@
 package org.mengyun.tcctransaction.support;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by changming.xie on 2/23/17.
@@ -14,26 +14,39 @@ public final class FactoryBuilder {
 
     }
 
-    private static List<BeanFactory> beanFactories = new ArrayList<BeanFactory>();
+    /**
+     * 写时复制，查找时不加锁
+     */
+    private static List<BeanFactory> beanFactories = new CopyOnWriteArrayList<BeanFactory>();
 
     private static ConcurrentHashMap<Class, SingeltonFactory> classFactoryMap = new ConcurrentHashMap<Class, SingeltonFactory>();
 
+    /**
+     * 获取类的单例工厂，已创建时只有一次map查找.
+     * 调用方可以保存返回的工厂，工厂的实例创建后直接返回.
+     */
     public static <T> SingeltonFactory<T> factoryOf(Class<T> clazz) {
 
-        if (!classFactoryMap.containsKey(clazz)) {
+        SingeltonFactory<T> factory = classFactoryMap.get(clazz);
 
-            for (BeanFactory beanFactory : beanFactories) {
-                if (beanFactory.isFactoryOf(clazz)) {
-                    classFactoryMap.putIfAbsent(clazz, new SingeltonFactory<T>(clazz, beanFactory.getBean(clazz)));
-                }
-            }
+        if (factory != null) {
+            return factory;
+        }
 
-            if (!classFactoryMap.containsKey(clazz)) {
-                classFactoryMap.putIfAbsent(clazz, new SingeltonFactory<T>(clazz));
+        for (BeanFactory beanFactory : beanFactories) {
+            if (beanFactory.isFactoryOf(clazz)) {
+                factory = new SingeltonFactory<T>(clazz, beanFactory.getBean(clazz));
+                break;
             }
         }
 
-        return classFactoryMap.get(clazz);
+        if (factory == null) {
+            factory = new SingeltonFactory<T>(clazz);
+        }
+
+        SingeltonFactory<T> existing = classFactoryMap.putIfAbsent(clazz, factory);
+
+        return existing != null ? existing : factory;
     }
 
     public static void registerBeanFactory(BeanFactory beanFactory) {
@@ -58,7 +71,8 @@ public final class FactoryBuilder {
         public T getInstance() {
 
             if (instance == null) {
-                synchronized (SingeltonFactory.class) {
+                // 每个类单独加锁，不同类的实例可以同时创建
+                synchronized (this) {
                     if (instance == null) {
                         try {
                             ClassLoader loader = Thread.currentThread().getContextClassLoader();
@@ -0,0 +1,95 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按前缀命名的线程工厂，创建守护线程.
+ * <p>
+ * 开启虚拟线程且运行在JDK 21及以上时创建虚拟线程，适合confirm/cancel和事务恢复这类主要阻塞在IO上的任务，
+ * 线程池的线程数可以远大于平台线程.虚拟线程通过反射创建，低版本JDK上使用平台线程.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    static final Logger logger = Logger.getLogger(NamedThreadFactory.class.getSimpleName());
+
+    private static final Method OF_VIRTUAL_METHOD;
+
+    private static final Method NAME_METHOD;
+
+    private static final Method UNSTARTED_METHOD;
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method unstartedMethod = null;
+
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            nameMethod = builderClass.getMethod("name", String.class);
+            unstartedMethod = builderClass.getMethod("unstarted", Runnable.class);
+            // JDK 19/20上虚拟线程是预览特性，未开启时抛出异常
+            ofVirtualMethod.invoke(null);
+        } catch (Exception e) {
+            ofVirtualMethod = null;
+        }
+
+        OF_VIRTUAL_METHOD = ofVirtualMethod;
+        NAME_METHOD = nameMethod;
+        UNSTARTED_METHOD = unstartedMethod;
+    }
+
+    private final String threadNamePrefix;
+
+    private final boolean virtualThread;
+
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    public NamedThreadFactory(String threadNamePrefix) {
+        this(threadNamePrefix, false);
+    }
+
+    public NamedThreadFactory(String threadNamePrefix, boolean virtualThread) {
+
+        if (virtualThread && !isVirtualThreadSupported()) {
+            logger.warn("virtual thread is not supported by the running jdk, use platform thread instead. thread name prefix:" + threadNamePrefix);
+        }
+
+        this.threadNamePrefix = threadNamePrefix;
+        this.virtualThread = virtualThread && isVirtualThreadSupported();
+    }
+
+    /**
+     * 运行的JDK是否支持虚拟线程.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL_METHOD != null;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+
+        String threadName = threadNamePrefix + threadNumber.getAndIncrement();
+
+        if (virtualThread) {
+            try {
+                Object builder = NAME_METHOD.invoke(OF_VIRTUAL_METHOD.invoke(null), threadName);
+                return (Thread) UNSTARTED_METHOD.invoke(builder, runnable);
+            } catch (Exception e) {
+                throw new IllegalStateException("failed to create virtual thread " + threadName, e);
+            }
+        }
+
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public boolean isVirtualThread() {
+        return virtualThread;
+    }
+}
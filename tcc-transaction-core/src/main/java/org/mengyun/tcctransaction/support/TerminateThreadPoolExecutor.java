@@ -0,0 +1,138 @@
+package org.mengyun.tcctransaction.support;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步confirm/cancel线程池.
+ * <p>
+ * 线程数和队列长度都有上限，队列满时拒绝并抛出RejectedExecutionException，
+ * 调用方不再等待，事务记录已经是CONFIRMING/CANCELLING状态，由恢复任务完成confirm/cancel.
+ * 关闭时等待已提交的任务执行完，超时未执行的任务同样留给恢复任务.
+ * 使用虚拟线程时不放入线程池复用，每个任务一个虚拟线程，poolSize限制同时执行的任务数.
+ */
+public class TerminateThreadPoolExecutor extends AbstractExecutorService {
+
+    static final Logger logger = Logger.getLogger(TerminateThreadPoolExecutor.class.getSimpleName());
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final ThreadPoolExecutor threadPoolExecutor;
+
+    private final VirtualThreadPerTaskExecutor virtualThreadExecutor;
+
+    public TerminateThreadPoolExecutor(String threadNamePrefix, int poolSize, int queueSize) {
+        this(threadNamePrefix, poolSize, queueSize, false);
+    }
+
+    /**
+     * @param virtualThread 是否使用虚拟线程，JDK 21以下忽略
+     */
+    public TerminateThreadPoolExecutor(String threadNamePrefix, int poolSize, int queueSize, boolean virtualThread) {
+
+        NamedThreadFactory threadFactory = new NamedThreadFactory(threadNamePrefix, virtualThread);
+
+        if (threadFactory.isVirtualThread()) {
+            threadPoolExecutor = null;
+            virtualThreadExecutor = new VirtualThreadPerTaskExecutor(threadFactory, poolSize, Math.max(queueSize, 1), false);
+        } else {
+            threadPoolExecutor = new ThreadPoolExecutor(Math.max(poolSize, 1), Math.max(poolSize, 1), 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)), threadFactory);
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            virtualThreadExecutor = null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+
+        try {
+            getExecutor().execute(command);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(String.format("terminate executor is %s, active:%d, queue depth:%d, rejected:%d",
+                    isShutdown() ? "shutdown" : "full", getActiveCount(), getQueueDepth(), rejectedCount.get()));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        getExecutor().shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return getExecutor().shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return getExecutor().isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return getExecutor().isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return getExecutor().awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 关闭线程池，等待已提交的任务执行完成，超时后中断正在执行的任务并丢弃队列中的任务.
+     *
+     * @return 未执行的任务数
+     */
+    public int shutdownGracefully(long timeout, TimeUnit unit) {
+
+        shutdown();
+
+        try {
+            if (awaitTermination(timeout, unit)) {
+                return 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Runnable> droppedTasks = shutdownNow();
+
+        logger.warn(String.format("terminate executor shutdown timeout, %d queued tasks are left to recovery job.", droppedTasks.size()));
+
+        return droppedTasks.size();
+    }
+
+    /**
+     * 正在执行的任务数.
+     */
+    public int getActiveCount() {
+        return threadPoolExecutor != null ? threadPoolExecutor.getActiveCount() : virtualThreadExecutor.getActiveCount();
+    }
+
+    /**
+     * 等待执行的任务数.
+     */
+    public int getQueueDepth() {
+        return threadPoolExecutor != null ? threadPoolExecutor.getQueue().size() : virtualThreadExecutor.getQueueDepth();
+    }
+
+    /**
+     * 队列满或关闭后被拒绝的任务数.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private AbstractExecutorService getExecutor() {
+        return threadPoolExecutor != null ? threadPoolExecutor : virtualThreadExecutor;
+    }
+}
@@ -0,0 +1,242 @@
+package org.mengyun.tcctransaction.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个任务一个虚拟线程的执行器.
+ * <p>
+ * 虚拟线程创建开销很小，不放进线程池复用，每个任务启动一个新的虚拟线程，用信号量限制同时执行的任务数，
+ * 等待许可的虚拟线程相当于线程池的等待队列. 同时执行和等待的任务数达到上限后拒绝，或者在提交线程中执行.
+ */
+public class VirtualThreadPerTaskExecutor extends AbstractExecutorService {
+
+    private final NamedThreadFactory threadFactory;
+
+    /**
+     * 执行许可，限制同时执行的任务数
+     */
+    private final Semaphore concurrencyPermits;
+
+    /**
+     * 提交许可，限制执行中和等待执行的任务总数
+     */
+    private final Semaphore admissionPermits;
+
+    private final boolean callerRunsWhenFull;
+
+    /**
+     * 还没有拿到执行许可的任务，shutdownNow时返回
+     */
+    private final Map<Thread, Runnable> waitingTasks = new ConcurrentHashMap<Thread, Runnable>();
+
+    private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    private final Object terminationLock = new Object();
+
+    private int taskCount = 0;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param maxConcurrency     同时执行的最大任务数
+     * @param queueSize          等待执行的最大任务数
+     * @param callerRunsWhenFull 达到上限时是否在提交线程中执行，否则抛出RejectedExecutionException
+     */
+    public VirtualThreadPerTaskExecutor(NamedThreadFactory threadFactory, int maxConcurrency, int queueSize, boolean callerRunsWhenFull) {
+        this.threadFactory = threadFactory;
+        this.concurrencyPermits = new Semaphore(Math.max(maxConcurrency, 1));
+        this.admissionPermits = new Semaphore(Math.max(maxConcurrency, 1) + Math.max(queueSize, 0));
+        this.callerRunsWhenFull = callerRunsWhenFull;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+
+        if (command == null) {
+            throw new NullPointerException();
+        }
+
+        if (!admissionPermits.tryAcquire()) {
+
+            if (callerRunsWhenFull && !shutdown) {
+                command.run();
+                return;
+            }
+
+            throw new RejectedExecutionException(String.format("virtual thread executor is %s, active:%d, queue depth:%d",
+                    shutdown ? "shutdown" : "full", getActiveCount(), getQueueDepth()));
+        }
+
+        synchronized (terminationLock) {
+
+            if (shutdown) {
+                admissionPermits.release();
+                throw new RejectedExecutionException("virtual thread executor is shutdown");
+            }
+
+            taskCount++;
+        }
+
+        Thread thread = null;
+
+        try {
+            thread = threadFactory.newThread(new Worker(command));
+            waitingTasks.put(thread, command);
+            threads.add(thread);
+            thread.start();
+        } catch (RuntimeException e) {
+            if (thread != null) {
+                waitingTasks.remove(thread);
+                threads.remove(thread);
+            }
+            taskFinished();
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (terminationLock) {
+            shutdown = true;
+            terminationLock.notifyAll();
+        }
+    }
+
+    /**
+     * 关闭并中断正在执行的任务，返回还没有开始执行的任务.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+
+        shutdown();
+
+        List<Runnable> droppedTasks = new ArrayList<Runnable>();
+
+        // 先取走等待的任务再中断，被取走的任务拿到执行许可后不再执行
+        for (Thread thread : waitingTasks.keySet()) {
+            Runnable task = waitingTasks.remove(thread);
+            if (task != null) {
+                droppedTasks.add(task);
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+
+        return droppedTasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (terminationLock) {
+            return shutdown && taskCount == 0;
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (terminationLock) {
+
+            while (!(shutdown && taskCount == 0)) {
+
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * 正在执行的任务数.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * 等待执行许可的任务数.
+     */
+    public int getQueueDepth() {
+        return waitingTasks.size();
+    }
+
+    private void taskFinished() {
+
+        admissionPermits.release();
+
+        synchronized (terminationLock) {
+            taskCount--;
+            if (taskCount == 0) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final Runnable task;
+
+        Worker(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+
+            Thread thread = Thread.currentThread();
+
+            try {
+                concurrencyPermits.acquire();
+            } catch (InterruptedException e) {
+                // 只有shutdownNow会中断等待中的任务，任务已经被取走
+                waitingTasks.remove(thread);
+                threads.remove(thread);
+                taskFinished();
+                return;
+            }
+
+            try {
+                // 已经被shutdownNow取走的任务不再执行
+                if (waitingTasks.remove(thread) != null) {
+                    activeCount.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        activeCount.decrementAndGet();
+                    }
+                }
+            } finally {
+                concurrencyPermits.release();
+                threads.remove(thread);
+                taskFinished();
+            }
+        }
+    }
+}
@@ -5,7 +5,9 @@ import org.aspectj.lang.reflect.MethodSignature;
 import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.common.MethodType;
+import org.mengyun.tcctransaction.context.MethodTransactionContextEditor;
 
 import java.lang.reflect.Method;
 
@@ -72,6 +74,14 @@ public class CompensableMethodUtils {
         return position;
     }
 
+    /**
+     * 事务上下文编辑器是否按参数位置读写事务上下文，是时可以使用预先计算的参数位置
+     */
+    public static boolean isParameterTransactionContextEditor(TransactionContextEditor transactionContextEditor) {
+        Class editorClass = transactionContextEditor.getClass();
+        return editorClass == Compensable.DefaultTransactionContextEditor.class || editorClass == MethodTransactionContextEditor.class;
+    }
+
     public static TransactionContext getTransactionContextFromArgs(Object[] args) {
 
         TransactionContext transactionContext = null;
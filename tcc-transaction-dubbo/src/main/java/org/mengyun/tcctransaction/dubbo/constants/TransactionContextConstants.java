@@ -5,4 +5,9 @@ package org.mengyun.tcctransaction.dubbo.constants;
  */
 public class TransactionContextConstants {
     public static final String TRANSACTION_CONTEXT = "TRANSACTION_CONTEXT";
+
+    /**
+     * 系统属性，为true时事务上下文使用紧凑格式写入attachment，所有提供方都能读取紧凑格式后再开启
+     */
+    public static final String COMPACT_TRANSACTION_CONTEXT = "tcc.dubbo.compactTransactionContext";
 }
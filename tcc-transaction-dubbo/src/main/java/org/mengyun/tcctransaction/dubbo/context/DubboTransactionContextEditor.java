@@ -2,7 +2,6 @@ package org.mengyun.tcctransaction.dubbo.context;
 
 import com.alibaba.dubbo.common.utils.StringUtils;
 import com.alibaba.dubbo.rpc.RpcContext;
-import com.alibaba.fastjson.JSON;
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
@@ -12,6 +11,8 @@ import java.lang.reflect.Method;
 
 /**
  * Created by changming.xie on 1/19/17.
+ * <p>
+ * 事务上下文按TransactionContextSerializer的格式放在attachment中，默认为JSON，读取时兼容紧凑格式.
  */
 public class DubboTransactionContextEditor implements TransactionContextEditor {
 
@@ -26,7 +27,7 @@ public class DubboTransactionContextEditor implements TransactionContextEditor {
         String context = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
 
         if (StringUtils.isNotEmpty(context)) {
-            return JSON.parseObject(context, TransactionContext.class);
+            return TransactionContextSerializer.deserialize(context);
         }
 
         return null;
@@ -37,6 +38,6 @@ public class DubboTransactionContextEditor implements TransactionContextEditor {
 
         logger.debug("DubboTransactionContextEditor set start");
 
-        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, JSON.toJSONString(transactionContext));
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, TransactionContextSerializer.serialize(transactionContext));
     }
 }
@@ -0,0 +1,140 @@
+package org.mengyun.tcctransaction.dubbo.context;
+
+import com.alibaba.fastjson.JSON;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+
+/**
+ * Dubbo attachment中事务上下文的编码.
+ * <p>
+ * 默认写成JSON，旧版本的提供方可以读取；系统属性tcc.dubbo.compactTransactionContext为true时写成紧凑格式.
+ * 紧凑格式：版本号(1个字符) + base64(globalTxId(16) branchQualifier(16) status(4))，共49个字符，整数为大端.
+ * 上下文带有attachments或事务ID不是16字节时仍然写成JSON.
+ * 读取时两种格式都支持.
+ */
+public class TransactionContextSerializer {
+
+    private static final boolean COMPACT_ENABLED = Boolean.getBoolean(TransactionContextConstants.COMPACT_TRANSACTION_CONTEXT);
+
+    private static final char FORMAT_VERSION = '1';
+
+    private static final int ID_LENGTH = 16;
+
+    private static final int PAYLOAD_LENGTH = ID_LENGTH + ID_LENGTH + 4;
+
+    private static final int ENCODED_LENGTH = 1 + PAYLOAD_LENGTH / 3 * 4;
+
+    private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) {
+            BASE64_VALUES[i] = -1;
+        }
+        for (int i = 0; i < BASE64_CHARS.length; i++) {
+            BASE64_VALUES[BASE64_CHARS[i]] = i;
+        }
+    }
+
+    private TransactionContextSerializer() {
+    }
+
+    public static String serialize(TransactionContext transactionContext) {
+        return COMPACT_ENABLED ? serializeCompact(transactionContext) : JSON.toJSONString(transactionContext);
+    }
+
+    /**
+     * 按紧凑格式编码，无法按紧凑格式编码时写成JSON.
+     */
+    public static String serializeCompact(TransactionContext transactionContext) {
+
+        TransactionXid xid = transactionContext.getXid();
+
+        if (xid == null
+                || (transactionContext.getAttachments() != null && !transactionContext.getAttachments().isEmpty())
+                || xid.getGlobalTransactionId() == null || xid.getGlobalTransactionId().length != ID_LENGTH
+                || xid.getBranchQualifier() == null || xid.getBranchQualifier().length != ID_LENGTH) {
+            return JSON.toJSONString(transactionContext);
+        }
+
+        byte[] globalTransactionId = xid.getGlobalTransactionId();
+        byte[] branchQualifier = xid.getBranchQualifier();
+        int status = transactionContext.getStatus();
+
+        char[] chars = new char[ENCODED_LENGTH];
+        chars[0] = FORMAT_VERSION;
+
+        for (int i = 0, position = 1; i < PAYLOAD_LENGTH; i += 3, position += 4) {
+
+            int group = (byteAt(globalTransactionId, branchQualifier, status, i) << 16)
+                    | (byteAt(globalTransactionId, branchQualifier, status, i + 1) << 8)
+                    | byteAt(globalTransactionId, branchQualifier, status, i + 2);
+
+            chars[position] = BASE64_CHARS[(group >>> 18) & 0x3F];
+            chars[position + 1] = BASE64_CHARS[(group >>> 12) & 0x3F];
+            chars[position + 2] = BASE64_CHARS[(group >>> 6) & 0x3F];
+            chars[position + 3] = BASE64_CHARS[group & 0x3F];
+        }
+
+        return new String(chars);
+    }
+
+    public static TransactionContext deserialize(String value) {
+
+        if (value.length() != ENCODED_LENGTH || value.charAt(0) != FORMAT_VERSION) {
+            return JSON.parseObject(value, TransactionContext.class);
+        }
+
+        byte[] payload = new byte[PAYLOAD_LENGTH];
+
+        for (int i = 0, position = 1; i < PAYLOAD_LENGTH; i += 3, position += 4) {
+
+            int group = (decode(value, position) << 18) | (decode(value, position + 1) << 12)
+                    | (decode(value, position + 2) << 6) | decode(value, position + 3);
+
+            payload[i] = (byte) (group >>> 16);
+            payload[i + 1] = (byte) (group >>> 8);
+            payload[i + 2] = (byte) group;
+        }
+
+        byte[] globalTransactionId = new byte[ID_LENGTH];
+        byte[] branchQualifier = new byte[ID_LENGTH];
+        System.arraycopy(payload, 0, globalTransactionId, 0, ID_LENGTH);
+        System.arraycopy(payload, ID_LENGTH, branchQualifier, 0, ID_LENGTH);
+
+        int offset = ID_LENGTH + ID_LENGTH;
+        int status = ((payload[offset] & 0xFF) << 24) | ((payload[offset + 1] & 0xFF) << 16)
+                | ((payload[offset + 2] & 0xFF) << 8) | (payload[offset + 3] & 0xFF);
+
+        return new TransactionContext(new TransactionXid(globalTransactionId, branchQualifier), status);
+    }
+
+    /**
+     * 不复制到临时数组，直接按位置取编码内容的字节.
+     */
+    private static int byteAt(byte[] globalTransactionId, byte[] branchQualifier, int status, int index) {
+
+        if (index < ID_LENGTH) {
+            return globalTransactionId[index] & 0xFF;
+        } else if (index < ID_LENGTH + ID_LENGTH) {
+            return branchQualifier[index - ID_LENGTH] & 0xFF;
+        }
+
+        return (status >>> ((PAYLOAD_LENGTH - 1 - index) * 8)) & 0xFF;
+    }
+
+    private static int decode(String value, int position) {
+
+        char c = value.charAt(position);
+
+        int decoded = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+
+        if (decoded < 0) {
+            throw new IllegalArgumentException("illegal transaction context: " + value);
+        }
+
+        return decoded;
+    }
+}
@@ -1,17 +1,19 @@
 package org.mengyun.tcctransaction.server.dao;
 
-import org.apache.commons.lang3.time.DateUtils;
-import org.mengyun.tcctransaction.SystemException;
+import com.alibaba.fastjson.JSON;
+import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.server.vo.TransactionVo;
 import org.mengyun.tcctransaction.utils.ByteUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
 
-import java.text.ParseException;
 import java.util.*;
 
 /**
@@ -19,12 +21,16 @@ import java.util.*;
  */
 public class RedisTransactionDao implements TransactionDao {
 
+    static final Logger logger = Logger.getLogger(RedisTransactionDao.class.getSimpleName());
+
     private String KEY_NAME_SPACE = "TCC";
 
     private JedisPool jedisPool;
 
     private String keySuffix;
 
+    private ObjectSerializer serializer = new JdkSerializationSerializer();
+
     private String domain;
 
     private String getKeyPrefix() {
@@ -69,32 +75,27 @@ public class RedisTransactionDao implements TransactionDao {
 
                             List<TransactionVo> list = new ArrayList<TransactionVo>();
                             for (Object data : result) {
-                                try {
 
-                                    Map<byte[], byte[]> map1 = (Map<byte[], byte[]>) data;
+                                Map<byte[], byte[]> map1 = (Map<byte[], byte[]>) data;
 
-                                    Map<String, byte[]> propertyMap = new HashMap<String, byte[]>();
-
-                                    for (Map.Entry<byte[], byte[]> entry : map1.entrySet()) {
-                                        propertyMap.put(new String(entry.getKey()), entry.getValue());
-                                    }
+                                Map<String, byte[]> propertyMap = new HashMap<String, byte[]>();
 
+                                for (Map.Entry<byte[], byte[]> entry : map1.entrySet()) {
+                                    propertyMap.put(new String(entry.getKey()), entry.getValue());
+                                }
 
-                                    TransactionVo transactionVo = new TransactionVo();
-                                    transactionVo.setDomain(domain);
-                                    transactionVo.setGlobalTxId(UUID.nameUUIDFromBytes(propertyMap.get("GLOBAL_TX_ID")).toString());
-                                    transactionVo.setBranchQualifier(UUID.nameUUIDFromBytes(propertyMap.get("BRANCH_QUALIFIER")).toString());
-                                    transactionVo.setStatus(ByteUtils.bytesToInt(propertyMap.get("STATUS")));
-                                    transactionVo.setTransactionType(ByteUtils.bytesToInt(propertyMap.get("TRANSACTION_TYPE")));
-                                    transactionVo.setRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
-                                    transactionVo.setCreateTime(DateUtils.parseDate(new String(propertyMap.get("CREATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
-                                    transactionVo.setLastUpdateTime(DateUtils.parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
-                                    transactionVo.setContentView(new String(propertyMap.get("CONTENT_VIEW")));
-                                    list.add(transactionVo);
 
-                                } catch (ParseException e) {
-                                    throw new SystemException(e);
-                                }
+                                TransactionVo transactionVo = new TransactionVo();
+                                transactionVo.setDomain(domain);
+                                transactionVo.setGlobalTxId(UUID.nameUUIDFromBytes(propertyMap.get("GLOBAL_TX_ID")).toString());
+                                transactionVo.setBranchQualifier(UUID.nameUUIDFromBytes(propertyMap.get("BRANCH_QUALIFIER")).toString());
+                                transactionVo.setStatus(ByteUtils.bytesToInt(propertyMap.get("STATUS")));
+                                transactionVo.setTransactionType(ByteUtils.bytesToInt(propertyMap.get("TRANSACTION_TYPE")));
+                                transactionVo.setRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
+                                transactionVo.setCreateTime(ExpandTransactionSerializer.parseTime(propertyMap.get("CREATE_TIME")));
+                                transactionVo.setLastUpdateTime(ExpandTransactionSerializer.parseTime(propertyMap.get("LAST_UPDATE_TIME")));
+                                transactionVo.setContentView(getContentView(propertyMap));
+                                list.add(transactionVo);
                             }
 
                             return list;
@@ -109,6 +110,32 @@ public class RedisTransactionDao implements TransactionDao {
         });
     }
 
+    /**
+     * 事务写入时默认不再生成CONTENT_VIEW，查看时从CONTENT反序列化后生成.
+     * 需要与事务仓库使用相同的serializer，且参与者参数的类在classpath中.
+     */
+    private String getContentView(Map<String, byte[]> propertyMap) {
+
+        byte[] contentView = propertyMap.get("CONTENT_VIEW");
+
+        if (contentView != null) {
+            return new String(contentView);
+        }
+
+        byte[] content = propertyMap.get("CONTENT");
+
+        if (content == null) {
+            return "";
+        }
+
+        try {
+            return JSON.toJSONString(serializer.deserialize(content));
+        } catch (Exception e) {
+            logger.warn("generate content view failed", e);
+            return "";
+        }
+    }
+
     @Override
     public Integer countOfFindTransactions() {
 
@@ -143,6 +170,10 @@ public class RedisTransactionDao implements TransactionDao {
         this.domain = domain;
     }
 
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
     public void setJedisPool(JedisPool jedisPool) {
         this.jedisPool = jedisPool;
     }
@@ -1,6 +1,7 @@
 package org.mengyun.tcctransaction.spring.recover;
 
 import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.recover.AbstractRecoverConfig;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
 
 import java.net.SocketTimeoutException;
@@ -11,7 +12,7 @@ import java.util.Set;
  * 默认事务恢复配置.
  * Created by changming.xie on 6/1/16.
  */
-public class DefaultRecoverConfig implements RecoverConfig {
+public class DefaultRecoverConfig extends AbstractRecoverConfig {
 
     public static final RecoverConfig INSTANCE = new DefaultRecoverConfig();
 
@@ -31,6 +32,9 @@ public class DefaultRecoverConfig implements RecoverConfig {
      */
     private String cronExpression = "0 */1 * * * ?";
 
+    /**
+     * 异步confirm/cancel线程池大小，默认是1024
+     */
     private int asyncTerminateThreadPoolSize = 1024;
 
     private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
@@ -2,14 +2,20 @@ package org.mengyun.tcctransaction.spring.support;
 
 import org.mengyun.tcctransaction.TransactionManager;
 import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.recover.AbstractRecoverConfig;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
 import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
 import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.NamedThreadFactory;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.support.VirtualThreadPerTaskExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TCC事务配置器.
@@ -17,7 +23,14 @@ import java.util.concurrent.Executors;
  */
 public class SpringTransactionConfigurator implements TransactionConfigurator {
 
-    private static volatile ExecutorService executorService = null;
+    /**
+     * 关闭时等待异步confirm/cancel执行完成的最长时间（秒）
+     */
+    private static final long ASYNC_TERMINATE_SHUTDOWN_TIMEOUT = 30;
+
+    private static volatile TerminateThreadPoolExecutor executorService = null;
+
+    private static volatile ExecutorService parallelTerminateExecutorService = null;
 
     /**
      * 事务库
@@ -37,6 +50,9 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
     private TransactionManager transactionManager;
 
     public void init() {
+        // 自定义的RecoverConfig没有继承AbstractRecoverConfig时，可选配置使用默认值
+        AbstractRecoverConfig recoverConfig = AbstractRecoverConfig.from(this.recoverConfig);
+
         transactionManager = new TransactionManager();
         transactionManager.setTransactionRepository(transactionRepository);
 
@@ -45,22 +61,78 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
             synchronized (SpringTransactionConfigurator.class) {
 
                 if (executorService == null) {
-//                    executorService = new ThreadPoolExecutor(recoverConfig.getAsyncTerminateThreadPoolSize(),
-//                            recoverConfig.getAsyncTerminateThreadPoolSize(),
-//                            0L, TimeUnit.SECONDS,
-//                            new SynchronousQueue<Runnable>());
-                    executorService = Executors.newCachedThreadPool();
+                    executorService = new TerminateThreadPoolExecutor("tcc-async-terminate-",
+                            recoverConfig.getAsyncTerminateThreadPoolSize(), recoverConfig.getAsyncTerminateQueueSize(),
+                            recoverConfig.isVirtualThreadEnabled());
                 }
             }
         }
 
         transactionManager.setExecutorService(executorService);
+        transactionManager.setDurabilityMode(recoverConfig.getDurabilityMode());
+        transactionManager.setLazyEnlistEnabled(recoverConfig.isLazyEnlistEnabled());
+
+        if (parallelTerminateExecutorService == null) {
+
+            synchronized (SpringTransactionConfigurator.class) {
+
+                if (parallelTerminateExecutorService == null) {
+                    int poolSize = Math.max(recoverConfig.getParallelTerminateThreadPoolSize(), 1);
+                    NamedThreadFactory threadFactory = new NamedThreadFactory("tcc-parallel-terminate-", recoverConfig.isVirtualThreadEnabled());
+
+                    // 不排队，线程用满时由提交线程自己执行参与者的confirm/cancel
+                    if (threadFactory.isVirtualThread()) {
+                        parallelTerminateExecutorService = new VirtualThreadPerTaskExecutor(threadFactory, poolSize, 0, false);
+                    } else {
+                        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize,
+                                60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+                        threadPoolExecutor.allowCoreThreadTimeOut(true);
+                        parallelTerminateExecutorService = threadPoolExecutor;
+                    }
+                }
+            }
+        }
+
+        transactionManager.setParallelTerminateEnabled(recoverConfig.isParallelTerminateEnabled());
+        transactionManager.setParallelTerminateExecutorService(parallelTerminateExecutorService);
 
         if (transactionRepository instanceof CachableTransactionRepository) {
             ((CachableTransactionRepository) transactionRepository).setExpireDuration(recoverConfig.getRecoverDuration());
         }
     }
 
+    /**
+     * 关闭异步confirm/cancel线程池，等待已提交的任务执行完成，未执行的由恢复任务处理.
+     */
+    public void destroy() {
+
+        synchronized (SpringTransactionConfigurator.class) {
+
+            if (executorService != null) {
+                executorService.shutdownGracefully(ASYNC_TERMINATE_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+                executorService = null;
+            }
+
+            if (parallelTerminateExecutorService != null) {
+                // 关闭后提交的参与者在事务提交线程中执行
+                parallelTerminateExecutorService.shutdown();
+                parallelTerminateExecutorService = null;
+            }
+
+            // 异步confirm/cancel结束后再执行等待中的write-behind删除
+            if (transactionRepository instanceof CachableTransactionRepository) {
+                ((CachableTransactionRepository) transactionRepository).shutdown();
+            }
+        }
+    }
+
+    /**
+     * 异步confirm/cancel线程池，可以获取队列长度、活动线程数和拒绝数等指标.
+     */
+    public TerminateThreadPoolExecutor getAsyncTerminateExecutor() {
+        return executorService;
+    }
+
     @Override
     public TransactionManager getTransactionManager() {
         return transactionManager;
@@ -11,8 +11,11 @@ CREATE TABLE `TCC_TRANSACTION_CAP` (
   `CREATE_TIME` datetime DEFAULT NULL,
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
+  `RECOVER_BUCKET` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IDX_LAST_UPDATE_TIME` (`LAST_UPDATE_TIME`),
+  KEY `IDX_RECOVER_BUCKET` (`RECOVER_BUCKET`,`LAST_UPDATE_TIME`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_ORD` (
@@ -27,8 +30,11 @@ CREATE TABLE `TCC_TRANSACTION_ORD` (
   `CREATE_TIME` datetime DEFAULT NULL,
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
+  `RECOVER_BUCKET` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IDX_LAST_UPDATE_TIME` (`LAST_UPDATE_TIME`),
+  KEY `IDX_RECOVER_BUCKET` (`RECOVER_BUCKET`,`LAST_UPDATE_TIME`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_RED` (
@@ -43,8 +49,11 @@ CREATE TABLE `TCC_TRANSACTION_RED` (
   `CREATE_TIME` datetime DEFAULT NULL,
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
+  `RECOVER_BUCKET` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IDX_LAST_UPDATE_TIME` (`LAST_UPDATE_TIME`),
+  KEY `IDX_RECOVER_BUCKET` (`RECOVER_BUCKET`,`LAST_UPDATE_TIME`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 
@@ -60,6 +69,77 @@ CREATE TABLE `TCC_TRANSACTION_UT` (
   `CREATE_TIME` datetime DEFAULT NULL,
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
+  `RECOVER_BUCKET` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IDX_LAST_UPDATE_TIME` (`LAST_UPDATE_TIME`),
+  KEY `IDX_RECOVER_BUCKET` (`RECOVER_BUCKET`,`LAST_UPDATE_TIME`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_RECOVER_LEASE_CAP` (
+  `DOMAIN` varchar(100) NOT NULL DEFAULT '',
+  `LEASE_NAME` varchar(128) NOT NULL,
+  `OWNER` varchar(128) NOT NULL,
+  `EXPIRE_TIME` bigint(20) NOT NULL,
+  PRIMARY KEY (`DOMAIN`,`LEASE_NAME`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_RECOVER_LEASE_ORD` (
+  `DOMAIN` varchar(100) NOT NULL DEFAULT '',
+  `LEASE_NAME` varchar(128) NOT NULL,
+  `OWNER` varchar(128) NOT NULL,
+  `EXPIRE_TIME` bigint(20) NOT NULL,
+  PRIMARY KEY (`DOMAIN`,`LEASE_NAME`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_RECOVER_LEASE_RED` (
+  `DOMAIN` varchar(100) NOT NULL DEFAULT '',
+  `LEASE_NAME` varchar(128) NOT NULL,
+  `OWNER` varchar(128) NOT NULL,
+  `EXPIRE_TIME` bigint(20) NOT NULL,
+  PRIMARY KEY (`DOMAIN`,`LEASE_NAME`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_RECOVER_LEASE_UT` (
+  `DOMAIN` varchar(100) NOT NULL DEFAULT '',
+  `LEASE_NAME` varchar(128) NOT NULL,
+  `OWNER` varchar(128) NOT NULL,
+  `EXPIRE_TIME` bigint(20) NOT NULL,
+  PRIMARY KEY (`DOMAIN`,`LEASE_NAME`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_TRANSACTION_PARTICIPANT_CAP` (
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `PARTICIPANT_INDEX` int(11) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  PRIMARY KEY (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`,`PARTICIPANT_INDEX`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_TRANSACTION_PARTICIPANT_ORD` (
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `PARTICIPANT_INDEX` int(11) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  PRIMARY KEY (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`,`PARTICIPANT_INDEX`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_TRANSACTION_PARTICIPANT_RED` (
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `PARTICIPANT_INDEX` int(11) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  PRIMARY KEY (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`,`PARTICIPANT_INDEX`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE `TCC_TRANSACTION_PARTICIPANT_UT` (
+  `DOMAIN` varchar(100) DEFAULT NULL,
+  `GLOBAL_TX_ID` varbinary(32) NOT NULL,
+  `BRANCH_QUALIFIER` varbinary(32) NOT NULL,
+  `PARTICIPANT_INDEX` int(11) NOT NULL,
+  `CONTENT` varbinary(8000) DEFAULT NULL,
+  PRIMARY KEY (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`,`PARTICIPANT_INDEX`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
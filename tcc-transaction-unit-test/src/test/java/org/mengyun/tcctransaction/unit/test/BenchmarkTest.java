@@ -0,0 +1,961 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.fastjson.JSON;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.DurabilityMode;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.context.TransactionContextSerializer;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodDescriptor;
+import org.mengyun.tcctransaction.interceptor.CompensableTransactionInterceptor;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.RedisTransactionRepository;
+import org.mengyun.tcctransaction.repository.helper.JedisCallback;
+import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.KryoThreadLocalSerializer;
+import org.mengyun.tcctransaction.serializer.KryoTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.ProtostuffSerializer;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.support.NamedThreadFactory;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
+import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 性能对比，手动执行.
+ * <p>
+ * 每个方法对比一项优化前后（或不同配置）的耗时，断言优化后更快，失败信息中带有测得的数据.
+ * 单线程的对比用bestNanosPerCall交替执行各个循环，并发的对比用runConcurrently让所有线程同时开始.
+ */
+@Ignore("benchmark, run manually")
+public class BenchmarkTest {
+
+    private static final int ROUND_COUNT = 5;
+
+    private static final int CALL_COUNT = 1000000;
+
+    private static final int JDBC_THREAD_COUNT = 32;
+
+    private static final int JDBC_TRANSACTION_COUNT = 20000;
+
+    private static final long MAX_JDBC_BYTES_PER_OPERATION = 512 * 1024;
+
+    private static final int WRITE_BEHIND_THREAD_COUNT = 16;
+
+    private static final int WRITE_BEHIND_TRANSACTION_COUNT = 10000;
+
+    private static final int REDIS_TRANSACTION_COUNT = 10000;
+
+    private static final int SERIALIZE_COUNT = 100000;
+
+    private static final int LOOKUP_COUNT = 200000;
+
+    private static final int XID_THREAD_COUNT = 64;
+
+    private static final int BEGIN_COUNT = 20000;
+
+    private static final String XID_KEY_PREFIX = "TCC:UT:";
+
+    private static final int CONFIRM_COUNT = 10000;
+
+    private static final long CONFIRM_MILLIS = 1000;
+
+    private static final int PLATFORM_POOL_SIZE = 1024;
+
+    /**
+     * jdbc逐行写入和批量写入的吞吐量.
+     */
+    @Test
+    public void jdbcBatchWriteTest() throws Exception {
+
+        JdbcDataSource dataSource = newJdbcDataSource();
+
+        long perRowCostTime = JdbcBatchWriteTest.writeConcurrently(newJdbcRepository(dataSource, false), JDBC_THREAD_COUNT, JDBC_TRANSACTION_COUNT);
+        long batchedCostTime = JdbcBatchWriteTest.writeConcurrently(newJdbcRepository(dataSource, true), JDBC_THREAD_COUNT, JDBC_TRANSACTION_COUNT);
+
+        Assert.assertTrue(String.format("per-row tps: %d, batched tps: %d", tps(JDBC_TRANSACTION_COUNT, perRowCostTime),
+                tps(JDBC_TRANSACTION_COUNT, batchedCostTime)), batchedCostTime < perRowCostTime);
+    }
+
+    /**
+     * jdbc事务库每次操作的分配字节数，单线程执行，线程分配字节数只统计事务库的分配.
+     * 嵌入的H2占了大部分分配，上限只用来发现数量级的退化.
+     */
+    @Test
+    public void jdbcAllocationTest() throws Exception {
+
+        JdbcDataSource dataSource = newJdbcDataSource();
+
+        JdbcTransactionRepository writeRepository = newJdbcRepository(dataSource, false);
+        JdbcTransactionRepository readRepository = newJdbcRepository(dataSource, false);
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        for (int i = 0; i < 10000; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            writeRepository.create(transaction);
+            writeRepository.update(transaction);
+            transactions.add(transaction);
+        }
+
+        long writeBytes = (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes) / transactions.size();
+
+        allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        for (Transaction transaction : transactions) {
+            Assert.assertNotNull(readRepository.findByXid((TransactionXid) transaction.getXid()));
+        }
+
+        long readBytes = (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes) / transactions.size();
+
+        Assert.assertTrue("create+update bytes/op: " + writeBytes, writeBytes < MAX_JDBC_BYTES_PER_OPERATION);
+        Assert.assertTrue("findByXid bytes/op: " + readBytes, readBytes < MAX_JDBC_BYTES_PER_OPERATION);
+    }
+
+    /**
+     * 各持久化模式下begin+commit的平均延迟，ASYNC_TERMINATE模式write-behind删除事务记录.
+     */
+    @Test
+    public void durabilityModeTest() throws Exception {
+
+        JdbcDataSource dataSource = newJdbcDataSource();
+
+        Map<DurabilityMode, Long> latencies = new EnumMap<DurabilityMode, Long>(DurabilityMode.class);
+
+        for (DurabilityMode durabilityMode : DurabilityMode.values()) {
+            latencies.put(durabilityMode, getCommitLatency(newJdbcRepository(dataSource, false), durabilityMode));
+        }
+
+        Assert.assertTrue(latencies.toString(), latencies.get(DurabilityMode.ASYNC_TERMINATE) < latencies.get(DurabilityMode.SYNC));
+    }
+
+    /**
+     * redis事务库写入CONTENT_VIEW和不写入时每个事务占用的redis内存，需要127.0.0.1:6379上的redis，没有时跳过.
+     */
+    @Test
+    public void redisContentViewTest() {
+
+        JedisPool jedisPool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", 6379, 1000);
+
+        try {
+            try {
+                RedisHelper.execute(jedisPool, new JedisCallback<String>() {
+                    @Override
+                    public String doInJedis(Jedis jedis) {
+                        return jedis.ping();
+                    }
+                });
+            } catch (Exception e) {
+                Assume.assumeNoException(e);
+            }
+
+            long withoutViewMemory = getRedisMemoryPerTransaction(jedisPool, "tcc_bm_view_0:", 0);
+            long withViewMemory = getRedisMemoryPerTransaction(jedisPool, "tcc_bm_view_100:", 100);
+
+            Assert.assertTrue(String.format("redis memory without view %d bytes/transaction, with view %d", withoutViewMemory, withViewMemory),
+                    withoutViewMemory < withViewMemory);
+        } finally {
+            jedisPool.destroy();
+        }
+    }
+
+    /**
+     * 注册类的kryo序列化器和按类名写入的kryo序列化器的序列化+反序列化耗时，事务有两个参与者.
+     */
+    @Test
+    public void kryoRegisteredSerializerTest() throws Exception {
+
+        final Transaction transaction = KryoRegisteredSerializerTest.newTransaction();
+
+        List<ObjectSerializer<Transaction>> serializers = Arrays.<ObjectSerializer<Transaction>>asList(
+                KryoRegisteredSerializerTest.newRegisteredSerializer(), new KryoPoolSerializer<Transaction>(),
+                new KryoThreadLocalSerializer<Transaction>(), new KryoTransactionSerializer<Transaction>());
+
+        long[] costTimes = bestNanosPerCall(SERIALIZE_COUNT, roundTrips(serializers, transaction));
+
+        for (int i = 1; i < serializers.size(); i++) {
+            Assert.assertTrue(String.format("%s: %dns/round trip, registered: %dns/round trip", serializers.get(i).getClass().getSimpleName(),
+                    costTimes[i], costTimes[0]), costTimes[0] < costTimes[i]);
+        }
+    }
+
+    /**
+     * protostuff、jdk和kryo序列化的序列化+反序列化耗时，事务有三个参与者，参数是带明细的订单.
+     */
+    @Test
+    public void protostuffSerializerTest() throws Exception {
+
+        Transaction transaction = ProtostuffSerializerTest.newTransaction();
+
+        List<ObjectSerializer<Transaction>> serializers = Arrays.<ObjectSerializer<Transaction>>asList(
+                new ProtostuffSerializer<Transaction>(), new JdkSerializationSerializer<Transaction>(), new KryoPoolSerializer<Transaction>());
+
+        long[] costTimes = bestNanosPerCall(SERIALIZE_COUNT / 2, roundTrips(serializers, transaction));
+
+        Assert.assertTrue(String.format("ns/round trip, protostuff: %d, jdk: %d, kryo: %d", costTimes[0], costTimes[1], costTimes[2]),
+                costTimes[0] < costTimes[1]);
+    }
+
+    /**
+     * 同时提交大量慢confirm（每个阻塞一秒），平台线程池（默认大小）和每个confirm一个虚拟线程下同时执行的confirm数，
+     * JDK 21以下跳过虚拟线程.
+     */
+    @Test
+    public void terminateExecutorTest() throws Exception {
+
+        Assert.assertEquals(PLATFORM_POOL_SIZE, getPeakInFlight(PLATFORM_POOL_SIZE, false));
+
+        if (NamedThreadFactory.isVirtualThreadSupported()) {
+            Assert.assertEquals(CONFIRM_COUNT, getPeakInFlight(CONFIRM_COUNT, true));
+        }
+    }
+
+    /**
+     * Participant.commit调用空confirm方法的分派耗时，对比每次调用都重新解析目标对象、方法和上下文编辑器.
+     */
+    @Test
+    public void terminatorTest() throws Exception {
+
+        final InvocationContext invocationContext = new InvocationContext(ConfirmService.class, "confirm",
+                new Class[]{TransactionContext.class, long.class}, null, 1L);
+
+        final Participant participant = new Participant(new TransactionXid(), invocationContext, invocationContext,
+                Compensable.DefaultTransactionContextEditor.class);
+
+        long[] costTimes = bestNanosPerCall(CALL_COUNT, new Call() {
+            @Override
+            public void call() {
+                participant.commit();
+            }
+        }, new Call() {
+            @Override
+            public void call() throws Exception {
+                resolveAndInvoke(participant, invocationContext);
+            }
+        });
+
+        Assert.assertEquals(2L * (ROUND_COUNT + 1) * CALL_COUNT, ConfirmService.count);
+
+        Assert.assertTrue(String.format("Participant.commit: %dns/call, resolving on every call: %dns/call",
+                costTimes[0], costTimes[1]), costTimes[0] < costTimes[1]);
+    }
+
+    /**
+     * 拦截接口上声明的方法时解析@Compensable元数据的耗时，缓存的描述对象对比每次调用都重新解析，
+     * 以及事务外调用SUPPORTS方法的整个拦截耗时.
+     */
+    @Test
+    public void compensableMethodDescriptorTest() throws Exception {
+
+        final CompensableMethodDescriptorTest.AccountServiceImpl target = new CompensableMethodDescriptorTest.AccountServiceImpl();
+
+        final ProceedingJoinPoint pjp = CompensableMethodDescriptorTest.newJoinPoint(target,
+                CompensableMethodDescriptorTest.AccountService.class.getMethod("transfer", TransactionContext.class, long.class),
+                new Object[]{null, 100L});
+
+        final CompensableTransactionInterceptor interceptor = new CompensableTransactionInterceptor();
+        interceptor.setTransactionManager(new TransactionManager());
+
+        long[] costTimes = bestNanosPerCall(CALL_COUNT, new Call() {
+            @Override
+            public void call() {
+                resolveByDescriptor(pjp);
+            }
+        }, new Call() {
+            @Override
+            public void call() {
+                resolveOnEveryCall(pjp);
+            }
+        }, new Call() {
+            @Override
+            public void call() throws Exception {
+                try {
+                    interceptor.interceptCompensableMethod(pjp);
+                } catch (Throwable throwable) {
+                    throw new Exception(throwable);
+                }
+            }
+        });
+
+        Assert.assertEquals((ROUND_COUNT + 1) * CALL_COUNT, target.count);
+
+        Assert.assertTrue(String.format("metadata with descriptor: %dns/call, resolved on every call: %dns/call, interception: %dns/call",
+                costTimes[0], costTimes[1], costTimes[2]), costTimes[0] < costTimes[1]);
+    }
+
+    /**
+     * 64个线程同时使用FactoryBuilder：多个构造方法很慢的类首次getInstance，按类加锁对比原来的全局锁；
+     * 稳定状态下factoryOf().getInstance()的吞吐，对比原来的containsKey/get查找.
+     */
+    @Test
+    public void factoryBuilderTest() throws Exception {
+
+        final Class[] slowClasses = FactoryBuilderTest.SLOW_CLASSES;
+        final int threadCount = FactoryBuilderTest.THREAD_COUNT;
+
+        final LegacySingeltonFactory[] legacyFactories = new LegacySingeltonFactory[slowClasses.length];
+        final FactoryBuilder.SingeltonFactory[] factories = new FactoryBuilder.SingeltonFactory[slowClasses.length];
+
+        for (int i = 0; i < slowClasses.length; i++) {
+            legacyFactories[i] = new LegacySingeltonFactory(slowClasses[i]);
+            factories[i] = new FactoryBuilder.SingeltonFactory(slowClasses[i]);
+        }
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+
+        FactoryBuilderTest.constructCount.set(0);
+        long legacyInitCostTime = runConcurrently(threadCount, new Call() {
+            @Override
+            public void call() {
+                legacyFactories[threadIndex.getAndIncrement() % legacyFactories.length].getInstance();
+            }
+        });
+        Assert.assertEquals(slowClasses.length, FactoryBuilderTest.constructCount.get());
+
+        FactoryBuilderTest.constructCount.set(0);
+        long initCostTime = runConcurrently(threadCount, new Call() {
+            @Override
+            public void call() {
+                factories[threadIndex.getAndIncrement() % factories.length].getInstance();
+            }
+        });
+        Assert.assertEquals(slowClasses.length, FactoryBuilderTest.constructCount.get());
+
+        Assert.assertTrue(String.format("first getInstance of %d slow classes from %d threads, global lock: %dms, lock per class: %dms",
+                slowClasses.length, threadCount, legacyInitCostTime / 1000000, initCostTime / 1000000), initCostTime < legacyInitCostTime);
+
+        Call legacyLookup = new Call() {
+            @Override
+            public void call() {
+                for (int i = 0; i < LOOKUP_COUNT; i++) {
+                    LegacyFactoryBuilder.factoryOf(FastBean.class).getInstance();
+                }
+            }
+        };
+
+        Call lookup = new Call() {
+            @Override
+            public void call() {
+                for (int i = 0; i < LOOKUP_COUNT; i++) {
+                    FactoryBuilder.factoryOf(FastBean.class).getInstance();
+                }
+            }
+        };
+
+        // 先预热两种查找
+        runConcurrently(threadCount, legacyLookup);
+        runConcurrently(threadCount, lookup);
+
+        long legacyLookupCostTime = runConcurrently(threadCount, legacyLookup);
+        long lookupCostTime = runConcurrently(threadCount, lookup);
+
+        Assert.assertSame(FactoryBuilder.factoryOf(FastBean.class).getInstance(), FactoryBuilder.factoryOf(FastBean.class).getInstance());
+
+        long lookupTotal = (long) threadCount * LOOKUP_COUNT;
+
+        Assert.assertTrue(String.format("steady state factoryOf().getInstance() from %d threads, former lookup: %d ops/ms, current: %d ops/ms",
+                threadCount, lookupTotal * 1000000 / legacyLookupCostTime, lookupTotal * 1000000 / lookupCostTime), lookupCostTime < legacyLookupCostTime);
+    }
+
+    /**
+     * 开始根事务并构建各种key的耗时：创建xid、放入和移出事务缓存、两次构建redis key、创建分支xid，
+     * 单线程和64个线程下对比原来的xid（每个xid两次UUID.randomUUID，每次getXid都复制，不缓存哈希和字符串）.
+     */
+    @Test
+    public void transactionXidTest() throws Exception {
+
+        Call current = new Call() {
+
+            private final ConcurrentHashMap<Object, Object> cache = new ConcurrentHashMap<Object, Object>();
+
+            @Override
+            public void call() {
+                for (int i = 0; i < BEGIN_COUNT; i++) {
+                    Transaction transaction = new Transaction(TransactionType.ROOT);
+                    cache.put(transaction.getXid(), transaction);
+                    RedisHelper.getRedisKey(XID_KEY_PREFIX, transaction.getXid());
+                    new TransactionXid(transaction.getXid().getGlobalTransactionId());
+                    RedisHelper.getRedisKey(XID_KEY_PREFIX, transaction.getXid());
+                    cache.remove(transaction.getXid());
+                }
+            }
+        };
+
+        Call legacy = new Call() {
+
+            private final ConcurrentHashMap<Object, Object> cache = new ConcurrentHashMap<Object, Object>();
+
+            @Override
+            public void call() {
+                for (int i = 0; i < BEGIN_COUNT; i++) {
+                    LegacyXid transactionXid = new LegacyXid();
+                    cache.put(transactionXid.clone(), transactionXid);
+                    RedisHelper.getRedisKey(XID_KEY_PREFIX, transactionXid.clone());
+                    new LegacyXid(transactionXid.clone().getGlobalTransactionId());
+                    RedisHelper.getRedisKey(XID_KEY_PREFIX, transactionXid.clone());
+                    cache.remove(transactionXid.clone());
+                }
+            }
+        };
+
+        // 先预热两种xid
+        runConcurrently(1, legacy);
+        runConcurrently(1, current);
+
+        long legacySingleCostTime = runConcurrently(1, legacy);
+        long currentSingleCostTime = runConcurrently(1, current);
+        long legacyConcurrentCostTime = runConcurrently(XID_THREAD_COUNT, legacy);
+        long currentConcurrentCostTime = runConcurrently(XID_THREAD_COUNT, current);
+
+        Assert.assertTrue(String.format("begin + key building, 1 thread, former xid: %dns/op, current: %dns/op",
+                legacySingleCostTime / BEGIN_COUNT, currentSingleCostTime / BEGIN_COUNT), currentSingleCostTime < legacySingleCostTime);
+        Assert.assertTrue(String.format("begin + key building, %d threads, former xid: %d ops/ms, current: %d ops/ms",
+                XID_THREAD_COUNT, (long) XID_THREAD_COUNT * BEGIN_COUNT * 1000000 / legacyConcurrentCostTime,
+                (long) XID_THREAD_COUNT * BEGIN_COUNT * 1000000 / currentConcurrentCostTime), currentConcurrentCostTime < legacyConcurrentCostTime);
+    }
+
+    /**
+     * 通过dubbo附件传递事务上下文的耗时（消费端设置加提供端读取），紧凑编码对比默认的fastjson编码.
+     */
+    @Test
+    public void dubboTransactionContextTest() throws Exception {
+
+        final DubboTransactionContextEditor editor = new DubboTransactionContextEditor();
+        final TransactionContext transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+
+        final long[] checksum = new long[1];
+
+        long[] costTimes = bestNanosPerCall(CALL_COUNT, new Call() {
+            @Override
+            public void call() {
+                checksum[0] += propagateCompact(editor, transactionContext);
+            }
+        }, new Call() {
+            @Override
+            public void call() {
+                checksum[0] += propagateByJson(transactionContext);
+            }
+        });
+
+        Assert.assertEquals(2L * (ROUND_COUNT + 1) * CALL_COUNT * TransactionStatus.TRYING.getId(), checksum[0]);
+
+        Assert.assertTrue(String.format("context in attachment, compact: %dns/call, fastjson: %dns/call",
+                costTimes[0], costTimes[1]), costTimes[0] < costTimes[1]);
+    }
+
+    /**
+     * 先预热一轮，再交替执行各个循环ROUND_COUNT轮，每个循环取最好的一轮，减少JIT和GC的干扰.
+     *
+     * @param callCount 每轮每个循环的调用次数
+     * @return 每个循环每次调用的纳秒数
+     */
+    static long[] bestNanosPerCall(int callCount, Call... calls) throws Exception {
+
+        for (Call call : calls) {
+            for (int i = 0; i < callCount; i++) {
+                call.call();
+            }
+        }
+
+        long[] costTimes = new long[calls.length];
+
+        for (int i = 0; i < calls.length; i++) {
+            costTimes[i] = Long.MAX_VALUE;
+        }
+
+        for (int round = 0; round < ROUND_COUNT; round++) {
+            for (int i = 0; i < calls.length; i++) {
+
+                long currentTime = System.nanoTime();
+
+                for (int j = 0; j < callCount; j++) {
+                    calls[i].call();
+                }
+
+                costTimes[i] = Math.min(costTimes[i], System.nanoTime() - currentTime);
+            }
+        }
+
+        for (int i = 0; i < calls.length; i++) {
+            costTimes[i] /= callCount;
+        }
+
+        return costTimes;
+    }
+
+    /**
+     * threadCount个线程同时开始执行task.
+     *
+     * @return 全部线程执行完的纳秒数
+     */
+    static long runConcurrently(int threadCount, final Call task) throws Exception {
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        task.call();
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long currentTime = System.nanoTime();
+
+        startLatch.countDown();
+        doneLatch.await();
+
+        long costTime = System.nanoTime() - currentTime;
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        return costTime;
+    }
+
+    private static Call[] roundTrips(List<ObjectSerializer<Transaction>> serializers, final Transaction transaction) {
+
+        Call[] calls = new Call[serializers.size()];
+
+        for (int i = 0; i < calls.length; i++) {
+            final ObjectSerializer<Transaction> serializer = serializers.get(i);
+            calls[i] = new Call() {
+                @Override
+                public void call() {
+                    serializer.deserialize(serializer.serialize(transaction));
+                }
+            };
+        }
+
+        return calls;
+    }
+
+    private static long tps(int count, long costMillis) {
+        return count * 1000L / Math.max(costMillis, 1);
+    }
+
+    /**
+     * @return begin+commit的平均纳秒数
+     */
+    private static long getCommitLatency(JdbcTransactionRepository repository, DurabilityMode durabilityMode) throws Exception {
+
+        final TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+        transactionManager.setDurabilityMode(durabilityMode);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(WRITE_BEHIND_THREAD_COUNT);
+
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+        for (int i = 0; i < WRITE_BEHIND_TRANSACTION_COUNT; i++) {
+            futures.add(executorService.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+
+                    long startTime = System.nanoTime();
+
+                    Transaction transaction = transactionManager.begin();
+
+                    try {
+                        transactionManager.commit(false);
+                    } finally {
+                        transactionManager.cleanAfterCompletion(transaction);
+                    }
+
+                    return System.nanoTime() - startTime;
+                }
+            }));
+        }
+
+        long totalLatency = 0;
+
+        for (Future<Long> future : futures) {
+            totalLatency += future.get();
+        }
+
+        executorService.shutdown();
+
+        repository.shutdown();
+
+        return totalLatency / WRITE_BEHIND_TRANSACTION_COUNT;
+    }
+
+    /**
+     * @return 同时执行的confirm数的峰值
+     */
+    private static int getPeakInFlight(int poolSize, boolean virtualThread) throws InterruptedException {
+
+        TerminateThreadPoolExecutor executor = new TerminateThreadPoolExecutor("bench-terminate-", poolSize, CONFIRM_COUNT, virtualThread);
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(CONFIRM_COUNT);
+
+        for (int i = 0; i < CONFIRM_COUNT; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int current = inFlight.incrementAndGet();
+
+                    int peak = peakInFlight.get();
+                    while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+                        peak = peakInFlight.get();
+                    }
+
+                    try {
+                        Thread.sleep(CONFIRM_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        inFlight.decrementAndGet();
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        latch.await();
+
+        executor.shutdownGracefully(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(0, executor.getRejectedCount());
+
+        return peakInFlight.get();
+    }
+
+    /**
+     * 缓存调用信息之前Participant.commit的做法.
+     */
+    private static void resolveAndInvoke(Participant participant, InvocationContext invocationContext) throws Exception {
+
+        TransactionContext transactionContext = new TransactionContext(participant.getXid(), TransactionStatus.CONFIRMING.getId());
+
+        Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
+
+        Method method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
+
+        FactoryBuilder.factoryOf(participant.getTransactionContextEditorClass()).getInstance().set(transactionContext, target, method, invocationContext.getArgs());
+
+        method.invoke(target, invocationContext.getArgs());
+    }
+
+    private static Object resolveByDescriptor(ProceedingJoinPoint pjp) {
+
+        CompensableMethodDescriptor descriptor = CompensableMethodDescriptor.of(pjp);
+
+        descriptor.getTransactionContext(pjp.getTarget(), pjp.getArgs());
+
+        return descriptor.getDeclaringType();
+    }
+
+    /**
+     * 缓存描述对象之前拦截器的做法.
+     */
+    private static Object resolveOnEveryCall(ProceedingJoinPoint pjp) {
+
+        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
+
+        Compensable compensable = method.getAnnotation(Compensable.class);
+
+        FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs());
+
+        return ReflectionUtils.getDeclaringType(pjp.getTarget().getClass(), method.getName(), method.getParameterTypes());
+    }
+
+    /**
+     * 开启紧凑编码时DubboTransactionContextEditor的做法.
+     */
+    private static int propagateCompact(DubboTransactionContextEditor editor, TransactionContext transactionContext) {
+
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, TransactionContextSerializer.serializeCompact(transactionContext));
+
+        return editor.get(null, null, null).getStatus();
+    }
+
+    /**
+     * 默认的fastjson编码.
+     */
+    private static int propagateByJson(TransactionContext transactionContext) {
+
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, JSON.toJSONString(transactionContext));
+
+        String context = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
+
+        return JSON.parseObject(context, TransactionContext.class).getStatus();
+    }
+
+    private static long getRedisMemoryPerTransaction(JedisPool jedisPool, String keyPrefix, int contentViewSampleRate) {
+
+        RedisTransactionRepository repository = new RedisTransactionRepository();
+        repository.setJedisPool(jedisPool);
+        repository.setKeyPrefix(keyPrefix);
+        repository.setContentViewSampleRate(contentViewSampleRate);
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (int i = 0; i < REDIS_TRANSACTION_COUNT; i++) {
+            transactions.add(ExpandTransactionSerializerTest.newTransaction(i));
+        }
+
+        long usedMemory = getRedisUsedMemory(jedisPool);
+
+        for (Transaction transaction : transactions) {
+            repository.create(transaction);
+            repository.update(transaction);
+        }
+
+        long memoryPerTransaction = (getRedisUsedMemory(jedisPool) - usedMemory) / REDIS_TRANSACTION_COUNT;
+
+        for (Transaction transaction : transactions) {
+            repository.delete(transaction);
+        }
+
+        return memoryPerTransaction;
+    }
+
+    private static long getRedisUsedMemory(JedisPool jedisPool) {
+
+        return RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+            @Override
+            public Long doInJedis(Jedis jedis) {
+
+                for (String line : jedis.info("memory").split("\r\n")) {
+                    if (line.startsWith("used_memory:")) {
+                        return Long.parseLong(line.substring("used_memory:".length()));
+                    }
+                }
+
+                return 0L;
+            }
+        });
+    }
+
+    private static JdbcDataSource newJdbcDataSource() throws SQLException {
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:./target/h2/tcc;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_BM");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_BM (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), " +
+                "STATUS INT, TRANSACTION_TYPE INT, RETRIED_COUNT INT, CREATE_TIME DATETIME, LAST_UPDATE_TIME DATETIME, VERSION INT, " +
+                "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+
+        stmt.close();
+        connection.close();
+
+        return dataSource;
+    }
+
+    private static JdbcTransactionRepository newJdbcRepository(JdbcDataSource dataSource, boolean batchEnabled) {
+
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain("BM");
+        repository.setTbSuffix("_BM");
+        repository.setBatchEnabled(batchEnabled);
+
+        return repository;
+    }
+
+    /**
+     * 原来的FactoryBuilder：先containsKey再get，所有类在一个全局锁下创建实例.
+     */
+    private static class LegacyFactoryBuilder {
+
+        private static ConcurrentHashMap<Class, LegacySingeltonFactory> classFactoryMap = new ConcurrentHashMap<Class, LegacySingeltonFactory>();
+
+        static LegacySingeltonFactory factoryOf(Class clazz) {
+
+            if (!classFactoryMap.containsKey(clazz)) {
+                classFactoryMap.putIfAbsent(clazz, new LegacySingeltonFactory(clazz));
+            }
+
+            return classFactoryMap.get(clazz);
+        }
+    }
+
+    private static class LegacySingeltonFactory {
+
+        private volatile Object instance = null;
+
+        private String className;
+
+        LegacySingeltonFactory(Class clazz) {
+            this.className = clazz.getName();
+        }
+
+        Object getInstance() {
+
+            if (instance == null) {
+                synchronized (LegacySingeltonFactory.class) {
+                    if (instance == null) {
+                        try {
+                            instance = Thread.currentThread().getContextClassLoader().loadClass(className).newInstance();
+                        } catch (Exception e) {
+                            throw new RuntimeException("Failed to create an instance of " + className, e);
+                        }
+                    }
+                }
+            }
+
+            return instance;
+        }
+    }
+
+    /**
+     * 原来的TransactionXid.
+     */
+    private static class LegacyXid implements javax.transaction.xa.Xid {
+
+        private byte[] globalTransactionId;
+
+        private byte[] branchQualifier;
+
+        LegacyXid() {
+            globalTransactionId = uuidToByteArray(UUID.randomUUID());
+            branchQualifier = uuidToByteArray(UUID.randomUUID());
+        }
+
+        LegacyXid(byte[] globalTransactionId) {
+            this.globalTransactionId = globalTransactionId;
+            branchQualifier = uuidToByteArray(UUID.randomUUID());
+        }
+
+        LegacyXid(byte[] globalTransactionId, byte[] branchQualifier) {
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+        }
+
+        @Override
+        public int getFormatId() {
+            return 1;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return globalTransactionId;
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return branchQualifier;
+        }
+
+        @Override
+        public String toString() {
+            return UUID.nameUUIDFromBytes(globalTransactionId).toString() + ":" + UUID.nameUUIDFromBytes(branchQualifier).toString();
+        }
+
+        @Override
+        public LegacyXid clone() {
+            return new LegacyXid(globalTransactionId.clone(), branchQualifier.clone());
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 + getFormatId();
+            result = 31 * result + Arrays.hashCode(branchQualifier);
+            return 31 * result + Arrays.hashCode(globalTransactionId);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LegacyXid)) {
+                return false;
+            }
+            LegacyXid other = (LegacyXid) obj;
+            return Arrays.equals(branchQualifier, other.branchQualifier) && Arrays.equals(globalTransactionId, other.globalTransactionId);
+        }
+
+        private static byte[] uuidToByteArray(UUID uuid) {
+            ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
+            bb.putLong(uuid.getMostSignificantBits());
+            bb.putLong(uuid.getLeastSignificantBits());
+            return bb.array();
+        }
+    }
+
+    public static class FastBean {
+    }
+
+    public static class ConfirmService {
+
+        static long count;
+
+        public void confirm(TransactionContext transactionContext, long amount) {
+            count += amount;
+        }
+    }
+
+    interface Call {
+
+        void call() throws Exception;
+    }
+}
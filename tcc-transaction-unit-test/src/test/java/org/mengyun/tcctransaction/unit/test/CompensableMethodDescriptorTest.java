@@ -0,0 +1,111 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodDescriptor;
+import org.mengyun.tcctransaction.interceptor.CompensableTransactionInterceptor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * 接口上声明的被拦截方法（切点签名上没有注解）按实现方法解析@Compensable元数据，每个方法和目标类只解析一次.
+ */
+public class CompensableMethodDescriptorTest {
+
+    @Test
+    public void descriptorTest() throws Throwable {
+
+        AccountServiceImpl target = new AccountServiceImpl();
+        TransactionContext transactionContext = new TransactionContext(new TransactionXid(), 1);
+
+        ProceedingJoinPoint pjp = newJoinPoint(target, AccountService.class.getMethod("transfer", TransactionContext.class, long.class),
+                new Object[]{transactionContext, 100L});
+
+        CompensableMethodDescriptor descriptor = CompensableMethodDescriptor.of(pjp);
+
+        Assert.assertSame(descriptor, CompensableMethodDescriptor.of(pjp));
+        Assert.assertEquals(AccountServiceImpl.class.getMethod("transfer", TransactionContext.class, long.class), descriptor.getMethod());
+        Assert.assertEquals(Propagation.SUPPORTS, descriptor.getPropagation());
+        Assert.assertEquals("confirmTransfer", descriptor.getConfirmMethodName());
+        Assert.assertEquals("cancelTransfer", descriptor.getCancelMethodName());
+        Assert.assertEquals(AccountService.class, descriptor.getDeclaringType());
+        Assert.assertSame(transactionContext, descriptor.getTransactionContext(target, pjp.getArgs()));
+
+        ProceedingJoinPoint otherPjp = newJoinPoint(target, AccountServiceImpl.class.getMethod("confirmTransfer", TransactionContext.class, long.class),
+                new Object[]{null, 100L});
+
+        Assert.assertNull(CompensableMethodDescriptor.of(otherPjp));
+
+        CompensableTransactionInterceptor interceptor = new CompensableTransactionInterceptor();
+        interceptor.setTransactionManager(new TransactionManager());
+
+        interceptor.interceptCompensableMethod(newJoinPoint(target, AccountService.class.getMethod("transfer", TransactionContext.class, long.class),
+                new Object[]{null, 100L}));
+
+        Assert.assertEquals(1, target.count);
+    }
+
+    static ProceedingJoinPoint newJoinPoint(final Object target, final Method method, final Object[] args) {
+
+        final MethodSignature signature = (MethodSignature) Proxy.newProxyInstance(CompensableMethodDescriptorTest.class.getClassLoader(),
+                new Class[]{MethodSignature.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method invokedMethod, Object[] invokedArgs) throws Throwable {
+                        if ("getMethod".equals(invokedMethod.getName())) {
+                            return method;
+                        } else if ("getName".equals(invokedMethod.getName())) {
+                            return method.getName();
+                        }
+                        throw new UnsupportedOperationException(invokedMethod.getName());
+                    }
+                });
+
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(CompensableMethodDescriptorTest.class.getClassLoader(),
+                new Class[]{ProceedingJoinPoint.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method invokedMethod, Object[] invokedArgs) throws Throwable {
+                        if ("getSignature".equals(invokedMethod.getName())) {
+                            return signature;
+                        } else if ("getTarget".equals(invokedMethod.getName())) {
+                            return target;
+                        } else if ("getArgs".equals(invokedMethod.getName())) {
+                            return args;
+                        } else if ("proceed".equals(invokedMethod.getName())) {
+                            return method.invoke(target, args);
+                        }
+                        throw new UnsupportedOperationException(invokedMethod.getName());
+                    }
+                });
+    }
+
+    public interface AccountService {
+
+        void transfer(TransactionContext transactionContext, long amount);
+    }
+
+    public static class AccountServiceImpl implements AccountService {
+
+        long count;
+
+        @Override
+        @Compensable(propagation = Propagation.SUPPORTS, confirmMethod = "confirmTransfer", cancelMethod = "cancelTransfer")
+        public void transfer(TransactionContext transactionContext, long amount) {
+            count++;
+        }
+
+        public void confirmTransfer(TransactionContext transactionContext, long amount) {
+        }
+
+        public void cancelTransfer(TransactionContext transactionContext, long amount) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.fastjson.JSON;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.context.TransactionContextSerializer;
+
+/**
+ * Dubbo attachment中事务上下文的编码测试：默认写成JSON，紧凑格式和JSON格式都可以读取，
+ * 带有attachments的上下文在紧凑编码时仍然写成JSON.
+ */
+public class DubboTransactionContextTest {
+
+    @Test
+    public void compatibilityTest() {
+
+        TransactionContext transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId());
+
+        String encoded = TransactionContextSerializer.serializeCompact(transactionContext);
+        TransactionContext decoded = TransactionContextSerializer.deserialize(encoded);
+
+        Assert.assertEquals(49, encoded.length());
+        Assert.assertEquals(transactionContext.getXid(), decoded.getXid());
+        Assert.assertEquals(transactionContext.getStatus(), decoded.getStatus());
+
+        decoded = TransactionContextSerializer.deserialize(JSON.toJSONString(transactionContext));
+
+        Assert.assertEquals(transactionContext.getXid(), decoded.getXid());
+        Assert.assertEquals(transactionContext.getStatus(), decoded.getStatus());
+
+        transactionContext.getAttachments().put("source", "remote");
+        encoded = TransactionContextSerializer.serializeCompact(transactionContext);
+        decoded = TransactionContextSerializer.deserialize(encoded);
+
+        Assert.assertEquals('{', encoded.charAt(0));
+        Assert.assertEquals(transactionContext.getXid(), decoded.getXid());
+        Assert.assertEquals("remote", decoded.getAttachments().get("source"));
+    }
+
+    /**
+     * 没有开启紧凑格式时编辑器写入JSON，旧版本的提供方可以读取；开启紧凑格式的消费方写入的上下文同样可以读取.
+     */
+    @Test
+    public void editorTest() {
+
+        DubboTransactionContextEditor editor = new DubboTransactionContextEditor();
+        TransactionContext transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+
+        editor.set(transactionContext, null, null, null);
+
+        String attachment = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
+
+        Assert.assertEquals(JSON.toJSONString(transactionContext), attachment);
+
+        TransactionContext propagated = editor.get(null, null, null);
+
+        Assert.assertEquals(transactionContext.getXid(), propagated.getXid());
+        Assert.assertEquals(transactionContext.getStatus(), propagated.getStatus());
+
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, TransactionContextSerializer.serializeCompact(transactionContext));
+
+        propagated = editor.get(null, null, null);
+
+        Assert.assertEquals(transactionContext.getXid(), propagated.getXid());
+        Assert.assertEquals(transactionContext.getStatus(), propagated.getStatus());
+    }
+}
@@ -0,0 +1,54 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import java.util.Map;
+
+/**
+ * redis事务hash的编码测试：CONTENT_VIEW是可选的，不写CONTENT_VIEW的hash和写了的加载出相同的事务.
+ */
+public class ExpandTransactionSerializerTest {
+
+    @Test
+    public void contentViewIsOptionalTest() {
+
+        ObjectSerializer serializer = new JdkSerializationSerializer();
+        Transaction transaction = newTransaction(0);
+
+        Map<byte[], byte[]> withoutView = ExpandTransactionSerializer.serialize(serializer, transaction, false);
+        Map<byte[], byte[]> withView = ExpandTransactionSerializer.serialize(serializer, transaction, true);
+
+        Assert.assertFalse(withoutView.containsKey(ExpandTransactionSerializer.CONTENT_VIEW));
+        Assert.assertTrue(withView.containsKey(ExpandTransactionSerializer.CONTENT_VIEW));
+        Assert.assertEquals(withView.size() - 1, withoutView.size());
+
+        for (Map<byte[], byte[]> hash : new Map[]{withoutView, withView}) {
+
+            Transaction loaded = ExpandTransactionSerializer.deserialize(serializer, hash);
+
+            Assert.assertEquals(transaction.getXid(), loaded.getXid());
+            Assert.assertEquals(transaction.getVersion(), loaded.getVersion());
+            Assert.assertEquals(1, loaded.getParticipants().size());
+        }
+    }
+
+    static Transaction newTransaction(int i) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        InvocationContext confirmInvocationContext = new InvocationContext(String.class, "confirm", new Class[]{String.class, long.class}, "account-" + i, 100L);
+        InvocationContext cancelInvocationContext = new InvocationContext(String.class, "cancel", new Class[]{String.class, long.class}, "account-" + i, 100L);
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                confirmInvocationContext, cancelInvocationContext, null));
+
+        return transaction;
+    }
+}
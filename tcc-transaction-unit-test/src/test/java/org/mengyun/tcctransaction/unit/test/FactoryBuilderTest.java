@@ -0,0 +1,91 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多线程同时首次获取实例：每个类只创建一次，不同类的构造方法按类加锁并行执行.
+ */
+public class FactoryBuilderTest {
+
+    static final int THREAD_COUNT = 64;
+
+    static final long CONSTRUCT_MILLIS = 50;
+
+    static final Class[] SLOW_CLASSES = new Class[]{SlowBean1.class, SlowBean2.class, SlowBean3.class, SlowBean4.class,
+            SlowBean5.class, SlowBean6.class, SlowBean7.class, SlowBean8.class};
+
+    static final AtomicInteger constructCount = new AtomicInteger();
+
+    @Test
+    public void lockPerClassTest() throws Exception {
+
+        final FactoryBuilder.SingeltonFactory[] factories = new FactoryBuilder.SingeltonFactory[SLOW_CLASSES.length];
+        for (int i = 0; i < SLOW_CLASSES.length; i++) {
+            factories[i] = new FactoryBuilder.SingeltonFactory(SLOW_CLASSES[i]);
+        }
+
+        final AtomicInteger threadIndex = new AtomicInteger();
+        final Map<Class, Object> instances = new ConcurrentHashMap<Class, Object>();
+        final AtomicInteger mismatchCount = new AtomicInteger();
+
+        constructCount.set(0);
+
+        long initCostTime = BenchmarkTest.runConcurrently(THREAD_COUNT, new BenchmarkTest.Call() {
+            @Override
+            public void call() {
+                Object instance = factories[threadIndex.getAndIncrement() % factories.length].getInstance();
+                Object existing = instances.put(instance.getClass(), instance);
+                if (existing != null && existing != instance) {
+                    mismatchCount.incrementAndGet();
+                }
+            }
+        });
+
+        Assert.assertEquals(SLOW_CLASSES.length, constructCount.get());
+        Assert.assertEquals(SLOW_CLASSES.length, instances.size());
+        Assert.assertEquals(0, mismatchCount.get());
+        Assert.assertTrue(initCostTime / 1000000 + "ms", initCostTime / 1000000 < SLOW_CLASSES.length * CONSTRUCT_MILLIS);
+    }
+
+    public static class SlowBean {
+
+        public SlowBean() {
+            constructCount.incrementAndGet();
+            try {
+                Thread.sleep(CONSTRUCT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class SlowBean1 extends SlowBean {
+    }
+
+    public static class SlowBean2 extends SlowBean {
+    }
+
+    public static class SlowBean3 extends SlowBean {
+    }
+
+    public static class SlowBean4 extends SlowBean {
+    }
+
+    public static class SlowBean5 extends SlowBean {
+    }
+
+    public static class SlowBean6 extends SlowBean {
+    }
+
+    public static class SlowBean7 extends SlowBean {
+    }
+
+    public static class SlowBean8 extends SlowBean {
+    }
+}
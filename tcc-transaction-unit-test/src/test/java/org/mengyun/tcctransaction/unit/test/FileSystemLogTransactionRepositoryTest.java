@@ -0,0 +1,288 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.FileSystemLogTransactionRepository;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * replay, compaction and close of the segmented log repository, against a temporary directory.
+ */
+public class FileSystemLogTransactionRepositoryTest {
+
+    private File rootPath;
+
+    private List<FileSystemLogTransactionRepository> repositories = new ArrayList<FileSystemLogTransactionRepository>();
+
+    @Before
+    public void before() throws IOException {
+        rootPath = File.createTempFile("tcc_log", "");
+        Assert.assertTrue(rootPath.delete());
+    }
+
+    @After
+    public void after() {
+
+        for (FileSystemLogTransactionRepository repository : repositories) {
+            repository.close();
+        }
+
+        File[] files = rootPath.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        rootPath.delete();
+    }
+
+    @Test
+    public void replayTruncatesTornTail() throws IOException {
+
+        FileSystemLogTransactionRepository repository = open(64 * 1024 * 1024);
+
+        Transaction first = create(repository);
+        Transaction second = create(repository);
+        repository.close();
+
+        File segment = lastSegment();
+        long length = segment.length();
+
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            // cut the second record in the middle, as a crash during its write would
+            raf.setLength(length - 5);
+        } finally {
+            raf.close();
+        }
+
+        repository = open(64 * 1024 * 1024);
+
+        Assert.assertNotNull(repository.findByXid((TransactionXid) first.getXid()));
+        Assert.assertNull(repository.findByXid((TransactionXid) second.getXid()));
+        Assert.assertTrue(segment.length() < length - 5);
+
+        // records appended after the truncation are readable after the next replay
+        Transaction third = create(repository);
+        repository.close();
+
+        repository = open(64 * 1024 * 1024);
+
+        Assert.assertNotNull(repository.findByXid((TransactionXid) first.getXid()));
+        Assert.assertNotNull(repository.findByXid((TransactionXid) third.getXid()));
+    }
+
+    @Test
+    public void replayStopsAtCorruptRecord() throws IOException {
+
+        FileSystemLogTransactionRepository repository = open(64 * 1024 * 1024);
+
+        Transaction first = create(repository);
+        Transaction second = create(repository);
+        repository.close();
+
+        File segment = lastSegment();
+
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            // flip the last content byte of the second record, its crc no longer matches
+            raf.seek(segment.length() - 1);
+            int last = raf.read();
+            raf.seek(segment.length() - 1);
+            raf.write(last ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        repository = open(64 * 1024 * 1024);
+
+        Assert.assertNotNull(repository.findByXid((TransactionXid) first.getXid()));
+        Assert.assertNull(repository.findByXid((TransactionXid) second.getXid()));
+    }
+
+    @Test
+    public void compactionRemovesDeadSegmentsAndKeepsLiveRecords() throws InterruptedException {
+
+        FileSystemLogTransactionRepository repository = open(4 * 1024);
+
+        List<Transaction> live = new ArrayList<Transaction>();
+
+        for (int i = 0; i < 40; i++) {
+            Transaction transaction = create(repository);
+            if (i % 10 == 9) {
+                live.add(transaction);
+            } else {
+                repository.delete(transaction);
+            }
+        }
+
+        int segmentCount = segments().size();
+        Assert.assertTrue(segmentCount > 3);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (segments().size() >= segmentCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        Assert.assertTrue(segments().size() < segmentCount);
+
+        repository.close();
+        repository = open(4 * 1024);
+
+        for (Transaction transaction : live) {
+            Transaction found = repository.findByXid((TransactionXid) transaction.getXid());
+            Assert.assertNotNull(found);
+            Assert.assertEquals(transaction.getXid(), found.getXid());
+        }
+    }
+
+    @Test
+    public void compactionRemovesEmptySegments() throws IOException, InterruptedException {
+
+        FileSystemLogTransactionRepository repository = open(4 * 1024);
+
+        for (int i = 0; i < 40; i++) {
+            repository.delete(create(repository));
+        }
+
+        repository.close();
+
+        // an empty segment ahead of the others, as left by a crash right after a segment roll
+        File emptySegment = new File(rootPath, String.format("%020d.log", 0));
+        Assert.assertTrue(emptySegment.createNewFile());
+
+        int segmentCount = segments().size();
+        Assert.assertTrue(segmentCount > 3);
+
+        open(4 * 1024).findByXid(new TransactionXid());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (segments().size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        Assert.assertFalse(emptySegment.exists());
+        Assert.assertEquals(1, segments().size());
+    }
+
+    @Test
+    public void replaySkipsFilesWhichAreNotSegments() throws IOException {
+
+        FileSystemLogTransactionRepository repository = open(64 * 1024 * 1024);
+
+        Transaction transaction = create(repository);
+        repository.close();
+
+        File strayFile = new File(rootPath, "backup.log");
+        Assert.assertTrue(strayFile.createNewFile());
+
+        repository = open(64 * 1024 * 1024);
+
+        Assert.assertNotNull(repository.findByXid((TransactionXid) transaction.getXid()));
+        Assert.assertTrue(strayFile.exists());
+    }
+
+    @Test
+    public void closeWhileSubmittingFailsLateRecords() throws InterruptedException {
+
+        final FileSystemLogTransactionRepository repository = open(64 * 1024);
+
+        create(repository);
+
+        final List<TransactionXid> created = Collections.synchronizedList(new ArrayList<TransactionXid>());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        while (true) {
+                            Transaction transaction = new Transaction(TransactionType.ROOT);
+                            repository.create(transaction);
+                            created.add((TransactionXid) transaction.getXid());
+                        }
+                    } catch (TransactionIOException e) {
+                        // closed
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        startLatch.countDown();
+        Thread.sleep(200);
+
+        repository.close();
+
+        for (Thread thread : threads) {
+            thread.join(5000);
+            Assert.assertFalse("submitter is blocked after close", thread.isAlive());
+        }
+
+        FileSystemLogTransactionRepository reopened = open(64 * 1024);
+
+        for (TransactionXid xid : new ArrayList<TransactionXid>(created)) {
+            Assert.assertNotNull(reopened.findByXid(xid));
+        }
+    }
+
+    private FileSystemLogTransactionRepository open(long segmentSize) {
+
+        FileSystemLogTransactionRepository repository = new FileSystemLogTransactionRepository();
+        repository.setRootPath(rootPath.getAbsolutePath());
+        repository.setSegmentSize(segmentSize);
+        repository.setCompactIntervalSeconds(1);
+
+        repositories.add(repository);
+
+        return repository;
+    }
+
+    private Transaction create(FileSystemLogTransactionRepository repository) {
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+        return transaction;
+    }
+
+    private List<File> segments() {
+
+        File[] files = rootPath.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+
+        List<File> segments = new ArrayList<File>(Arrays.asList(files));
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File lastSegment() {
+        List<File> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+}
@@ -0,0 +1,239 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * jdbc批量写入测试：并发写入共用批次时各自得到自己的结果，批次中失败的行只影响它自己的调用方，
+ * 驱动已经执行的行不会再执行一次.
+ */
+public class JdbcBatchWriteTest {
+
+    private static final int THREAD_COUNT = 16;
+
+    private static final int TRANSACTION_COUNT = 500;
+
+    private JdbcDataSource dataSource;
+
+    private JdbcTransactionRepository repository;
+
+    @Before
+    public void before() throws SQLException {
+
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:batch_write;DB_CLOSE_DELAY=-1;MODE=MySQL");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_BW");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_BW (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), " +
+                "STATUS INT, TRANSACTION_TYPE INT, RETRIED_COUNT INT, CREATE_TIME DATETIME, LAST_UPDATE_TIME DATETIME, VERSION INT, " +
+                "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+
+        stmt.close();
+        connection.close();
+
+        repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain("BW");
+        repository.setTbSuffix("_BW");
+        repository.setBatchEnabled(true);
+        repository.setMaxLingerMillis(200);
+    }
+
+    /**
+     * concurrent writers sharing batches still get their own results: stale updates fail, every record is deleted.
+     */
+    @Test
+    public void concurrentWritersGetTheirOwnResults() throws Exception {
+
+        JdbcTransactionRepository batchRepository = new JdbcTransactionRepository();
+        batchRepository.setDataSource(dataSource);
+        batchRepository.setDomain("BW");
+        batchRepository.setTbSuffix("_BW");
+        batchRepository.setBatchEnabled(true);
+
+        writeConcurrently(batchRepository, THREAD_COUNT, TRANSACTION_COUNT);
+
+        Assert.assertEquals(0, count());
+    }
+
+    @Test
+    public void duplicatedCreateOnlyFailsItself() throws Exception {
+
+        final Transaction existing = new Transaction(TransactionType.ROOT);
+        repository.create(existing);
+
+        List<Callable<Object>> writes = new ArrayList<Callable<Object>>();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            writes.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return repository.create(new Transaction(TransactionType.ROOT));
+                }
+            });
+        }
+
+        writes.add(THREAD_COUNT / 2, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return repository.create(new Transaction((TransactionXid) existing.getXid(), existing.getStatus(),
+                        TransactionType.ROOT, existing.getCreateTime()));
+            }
+        });
+
+        List<Throwable> failures = runTogether(writes);
+
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals(THREAD_COUNT + 1, count());
+    }
+
+    @Test
+    public void updatesAppliedBeforeAFailedRowAreNotConflicts() throws Exception {
+
+        List<Callable<Object>> writes = new ArrayList<Callable<Object>>();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+
+            final Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+
+            if (i == THREAD_COUNT / 2) {
+                // content larger than the column, this row fails inside the batch
+                transaction.getAttachments().put("large", new byte[16 * 1024]);
+            }
+
+            writes.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return repository.update(transaction);
+                }
+            });
+        }
+
+        List<Throwable> failures = runTogether(writes);
+
+        Assert.assertEquals(1, failures.size());
+        Assert.assertFalse(failures.get(0) instanceof OptimisticLockException);
+    }
+
+    /**
+     * each transaction is created, updated, updated again with a stale version and deleted.
+     *
+     * @return elapsed milliseconds
+     */
+    static long writeConcurrently(final JdbcTransactionRepository repository, int threadCount, int transactionCount) throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+        long currentTime = System.currentTimeMillis();
+
+        for (int i = 0; i < transactionCount; i++) {
+            futures.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+
+                    Transaction transaction = new Transaction(TransactionType.ROOT);
+
+                    repository.create(transaction);
+                    repository.update(transaction);
+
+                    // stale version must still be reported to its own caller
+                    transaction.setVersion(transaction.getVersion() - 1);
+                    int staleResult;
+                    try {
+                        staleResult = repository.update(transaction);
+                    } catch (OptimisticLockException e) {
+                        staleResult = 0;
+                    }
+
+                    repository.delete(transaction);
+                    return staleResult;
+                }
+            }));
+        }
+
+        for (Future<Integer> future : futures) {
+            Assert.assertEquals(0, (int) future.get());
+        }
+
+        long costTime = System.currentTimeMillis() - currentTime;
+
+        executorService.shutdown();
+
+        return costTime;
+    }
+
+    private List<Throwable> runTogether(List<Callable<Object>> writes) throws InterruptedException {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(writes.size());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+        for (final Callable<Object> write : writes) {
+            futures.add(executorService.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    startLatch.await();
+                    return write.call();
+                }
+            }));
+        }
+
+        startLatch.countDown();
+
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+
+        executorService.shutdown();
+
+        return failures;
+    }
+
+    private int count() throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM TCC_TRANSACTION_BW");
+            resultSet.next();
+            return resultSet.getInt(1);
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.RecoverShardManager;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+
+import javax.transaction.xa.Xid;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * keyset paging of the recovery scan walks every row once, the page size is applied without a LIMIT clause.
+ */
+public class JdbcTransactionPageTest {
+
+    private static final int TRANSACTION_COUNT = 25;
+
+    private static final int PAGE_SIZE = 10;
+
+    private JdbcDataSource dataSource;
+
+    @Test
+    public void pagesCoverEveryTransactionOnce() throws SQLException {
+
+        JdbcTransactionRepository repository = newRepository("page_scan", "DATETIME");
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            repository.create(new Transaction(TransactionType.ROOT));
+        }
+
+        Assert.assertEquals(3, scan(repository));
+    }
+
+    /**
+     * rows updated within the same millisecond of a fractional seconds column are not returned again by the next page.
+     */
+    @Test
+    public void pagesKeepSubMillisecondOrder() throws SQLException {
+
+        JdbcTransactionRepository repository = newRepository("page_scan_micros", "TIMESTAMP(6)");
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            repository.create(new Transaction(TransactionType.ROOT));
+        }
+
+        Connection connection = dataSource.getConnection();
+        PreparedStatement stmt = connection.prepareStatement("UPDATE TCC_TRANSACTION_PG SET LAST_UPDATE_TIME = ? WHERE TRANSACTION_ID = ?");
+
+        // every row in the same millisecond, one microsecond apart
+        for (int i = 1; i <= TRANSACTION_COUNT; i++) {
+            Timestamp lastUpdateTime = new Timestamp(1505700000000L);
+            lastUpdateTime.setNanos(i * 1000);
+            stmt.setTimestamp(1, lastUpdateTime);
+            stmt.setInt(2, i);
+            Assert.assertEquals(1, stmt.executeUpdate());
+        }
+
+        stmt.close();
+        connection.close();
+
+        Assert.assertEquals(3, scan(repository));
+    }
+
+    /**
+     * each shard reads only the rows of its bucket range, rows written before RECOVER_BUCKET was enabled are filtered by GLOBAL_TX_ID.
+     */
+    @Test
+    public void shardPagesReadOwnedBucketsOnly() throws SQLException {
+
+        JdbcTransactionRepository repository = newRepository("page_scan_bucket", "DATETIME");
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            if (i == TRANSACTION_COUNT / 2) {
+                repository.setRecoverBucketEnabled(true);
+            }
+            repository.create(new Transaction(TransactionType.ROOT));
+        }
+
+        RecoverShardManager shardManager = new RecoverShardManager(repository, 3, 60000);
+        Date unmodifiedSince = new Date(System.currentTimeMillis() + 60000);
+
+        Set<Xid> found = new HashSet<Xid>();
+
+        for (int shard = 0; shard < 3; shard++) {
+
+            String cursor = null;
+
+            do {
+                Page<Transaction> page = repository.findAllUnmodifiedSince(unmodifiedSince,
+                        shardManager.getFromBucket(shard), shardManager.getToBucket(shard), cursor, PAGE_SIZE);
+
+                for (Transaction transaction : page.getData()) {
+                    Assert.assertEquals(shard, shardManager.getShard(transaction.getXid()));
+                    Assert.assertTrue(found.add(transaction.getXid()));
+                }
+
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        }
+
+        Assert.assertEquals(TRANSACTION_COUNT, found.size());
+    }
+
+    /**
+     * @return number of pages
+     */
+    private int scan(JdbcTransactionRepository repository) {
+
+        Set<Xid> found = new HashSet<Xid>();
+        Date unmodifiedSince = new Date(System.currentTimeMillis() + 60000);
+        String cursor = null;
+        int pageCount = 0;
+
+        do {
+            Page<Transaction> page = repository.findAllUnmodifiedSince(unmodifiedSince, cursor, PAGE_SIZE);
+
+            Assert.assertTrue(page.getData().size() <= PAGE_SIZE);
+
+            for (Transaction transaction : page.getData()) {
+                Assert.assertTrue(found.add(transaction.getXid()));
+            }
+
+            cursor = page.getNextCursor();
+            pageCount++;
+        } while (cursor != null);
+
+        Assert.assertEquals(TRANSACTION_COUNT, found.size());
+
+        return pageCount;
+    }
+
+    private JdbcTransactionRepository newRepository(String databaseName, String timeType) throws SQLException {
+
+        dataSource = new JdbcDataSource();
+        // not MySQL mode, the page query has to work without LIMIT
+        dataSource.setURL("jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_PG");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_PG (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), " +
+                "STATUS INT, TRANSACTION_TYPE INT, RETRIED_COUNT INT, CREATE_TIME DATETIME, LAST_UPDATE_TIME " + timeType + ", VERSION INT, RECOVER_BUCKET INT, " +
+                "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+
+        stmt.close();
+        connection.close();
+
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain("PG");
+        repository.setTbSuffix("_PG");
+
+        return repository;
+    }
+}
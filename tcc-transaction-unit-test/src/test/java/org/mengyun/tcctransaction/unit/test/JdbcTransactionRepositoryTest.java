@@ -0,0 +1,100 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+
+import javax.transaction.xa.Xid;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * jdbc事务库预先生成的SQL模板测试：按多个xid查询时补齐和分段的模板只返回本域中存储的事务，且每个事务只返回一次.
+ */
+public class JdbcTransactionRepositoryTest {
+
+    private static final int STORED_XID_COUNT = 37;
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public void before() throws SQLException {
+
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:repository_templates;DB_CLOSE_DELAY=-1;MODE=MySQL");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_RT");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_RT (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), " +
+                "STATUS INT, TRANSACTION_TYPE INT, RETRIED_COUNT INT, CREATE_TIME DATETIME, LAST_UPDATE_TIME DATETIME, VERSION INT, " +
+                "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+
+        stmt.close();
+        connection.close();
+    }
+
+    @Test
+    public void findByXidsTest() {
+
+        XidsFindingRepository repository = new XidsFindingRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain("RT");
+        repository.setTbSuffix("_RT");
+
+        JdbcTransactionRepository otherDomainRepository = new JdbcTransactionRepository();
+        otherDomainRepository.setDataSource(dataSource);
+        otherDomainRepository.setDomain("RX");
+        otherDomainRepository.setTbSuffix("_RT");
+
+        List<Xid> xids = new ArrayList<Xid>();
+
+        for (int i = 0; i < STORED_XID_COUNT; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            xids.add(transaction.getXid());
+        }
+
+        Transaction otherDomainTransaction = new Transaction(TransactionType.ROOT);
+        otherDomainRepository.create(otherDomainTransaction);
+
+        xids.add(otherDomainTransaction.getXid());
+        xids.add(new TransactionXid());
+
+        for (int size : new int[]{1, 2, 3, 5, 32, 33, xids.size()}) {
+
+            // 最后两个xid属于其它域或者没有存储
+            Set<Xid> expected = new HashSet<Xid>(xids.subList(0, Math.min(size, STORED_XID_COUNT)));
+
+            Set<Xid> found = new HashSet<Xid>();
+            for (Transaction transaction : repository.find(xids.subList(0, size))) {
+                Assert.assertTrue(found.add(transaction.getXid()));
+            }
+
+            Assert.assertEquals(expected, found);
+        }
+    }
+
+    /**
+     * 暴露按多个xid查询的方法.
+     */
+    static class XidsFindingRepository extends JdbcTransactionRepository {
+
+        List<Transaction> find(List<Xid> xids) {
+            return doFind(xids);
+        }
+    }
+}
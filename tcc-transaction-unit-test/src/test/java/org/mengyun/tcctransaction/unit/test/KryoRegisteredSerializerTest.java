@@ -0,0 +1,104 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.KryoRegisteredSerializer;
+import org.mengyun.tcctransaction.unittest.client.TransferService;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * 注册类的kryo序列化器测试：事务的各个属性序列化后可以恢复，应用的参数类没有注册时失败，而不是写入类名.
+ */
+public class KryoRegisteredSerializerTest {
+
+    @Test
+    public void unregisteredArgumentClassTest() {
+
+        try {
+            new KryoRegisteredSerializer<Transaction>().serialize(newTransaction());
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(TransferRequest.class.getName()));
+        }
+    }
+
+    @Test
+    public void registeredRoundTripTest() {
+
+        KryoRegisteredSerializer<Transaction> serializer = newRegisteredSerializer();
+
+        Transaction transaction = newTransaction();
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.addRetriedCount();
+        transaction.updateVersion();
+
+        Transaction result = serializer.deserialize(serializer.serialize(transaction));
+
+        Assert.assertEquals(transaction.getXid(), result.getXid());
+        Assert.assertEquals(transaction.getStatus(), result.getStatus());
+        Assert.assertEquals(transaction.getTransactionType(), result.getTransactionType());
+        Assert.assertEquals(transaction.getRetriedCount(), result.getRetriedCount());
+        Assert.assertEquals(transaction.getVersion(), result.getVersion());
+        Assert.assertEquals(transaction.getCreateTime(), result.getCreateTime());
+        Assert.assertEquals(transaction.getLastUpdateTime(), result.getLastUpdateTime());
+        Assert.assertEquals(2, result.getParticipants().size());
+        Assert.assertEquals("remote", result.getAttachments().get("source"));
+
+        Participant participant = result.getParticipants().get(0);
+        Assert.assertEquals(transaction.getParticipants().get(0).getXid(), participant.getXid());
+        Assert.assertEquals(TransferService.class, participant.getConfirmInvocationContext().getTargetClass());
+        Assert.assertArrayEquals(new Class[]{TransferRequest.class, long.class}, participant.getConfirmInvocationContext().getParameterTypes());
+        Assert.assertEquals(new BigDecimal("100.25"), ((TransferRequest) participant.getConfirmInvocationContext().getArgs()[0]).amount);
+    }
+
+    static KryoRegisteredSerializer<Transaction> newRegisteredSerializer() {
+
+        KryoRegisteredSerializer<Transaction> serializer = new KryoRegisteredSerializer<Transaction>();
+        serializer.register(TransferRequest.class, KryoRegisteredSerializer.APPLICATION_REGISTRATION_ID_START);
+
+        return serializer;
+    }
+
+    static Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (int i = 0; i < 2; i++) {
+
+            TransferRequest request = new TransferRequest();
+            request.fromAccountId = 1000L + i;
+            request.toAccountId = 2000L + i;
+            request.amount = new BigDecimal("100.25");
+
+            Class[] parameterTypes = new Class[]{TransferRequest.class, long.class};
+
+            transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                    new InvocationContext(TransferService.class, "confirmTransfer", parameterTypes, request, 1L),
+                    new InvocationContext(TransferService.class, "cancelTransfer", parameterTypes, request, 1L),
+                    null));
+        }
+
+        transaction.getAttachments().put("source", "remote");
+
+        return transaction;
+    }
+
+    public static class TransferRequest implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        long fromAccountId;
+
+        long toAccountId;
+
+        BigDecimal amount;
+    }
+}
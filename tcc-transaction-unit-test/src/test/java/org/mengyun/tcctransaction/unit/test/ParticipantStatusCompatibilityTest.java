@@ -0,0 +1,121 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.KryoRegisteredSerializer;
+import org.mengyun.tcctransaction.serializer.KryoThreadLocalSerializer;
+import org.mengyun.tcctransaction.serializer.KryoTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.ProtostuffSerializer;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 参与者状态作为Participant的字段序列化，各序列化器都能恢复已完成的参与者，加入该字段之前写入的kryo记录仍然可以读取.
+ */
+public class ParticipantStatusCompatibilityTest {
+
+    /**
+     * a transaction with two participants and the attachment source=baseline, written by KryoPoolSerializer
+     * before the participant status was persisted (KryoThreadLocalSerializer and KryoTransactionSerializer write the same bytes).
+     */
+    private static final String KRYO_RECORD =
+            "AQBvcmcubWVuZ3l1bi50Y2N0cmFuc2FjdGlvbi5UcmFuc2FjdGlv7gEBAWphdmEudXRpbC5jb25jdXJyZW50LkNvbmN1cnJlbnRI" +
+            "YXNoTWHwAQEDAXNvdXJj5QMBYmFzZWxpbuUBAmphdmEudXRpbC5EYXTlAbuFkvmUNAECAYCw3vfTKwEDamF2YS51dGlsLkFycmF5" +
+            "TGlz9AECAQRvcmcubWVuZ3l1bi50Y2N0cmFuc2FjdGlvbi5QYXJ0aWNpcGFu9AEBBW9yZy5tZW5neXVuLnRjY3RyYW5zYWN0aW9u" +
+            "Lkludm9jYXRpb25Db250ZXj0AQEGW0xqYXZhLmxhbmcuT2JqZWN0uwECAgABdmFsdWVP5gECAQIBAQMAAQUKAQdvcmcubWVuZ3l1" +
+            "bi50Y2N0cmFuc2FjdGlvbi5UZXJtaW5hdG/yAQEBCMwBb3JnLm1lbmd5dW4udGNjdHJhbnNhY3Rpb24uYXBpLkNvbXBlbnNhYmxl" +
+            "JE51bGxhYmxlVHJhbnNhY3Rpb25Db250ZXh0RWRpdG9yAAEJb3JnLm1lbmd5dW4udGNjdHJhbnNhY3Rpb24uYXBpLlRyYW5zYWN0" +
+            "aW9uWGnkAQEREBESExQVFhcYGRobHB0eZAIBEQABAgMEBQYHCAkKCwwNDg8BBAEBBQEBBgECAgIMAQIODwEFFgEHAREBCQEBERAR" +
+            "EhMUFRYXGBkaGxwdHmUCFAABAQECAgEJAQEREBESExQVFhcYGRobHB0eHwIBEQABAgMEBQYHCAkKCwwNDg8=";
+
+    @Test
+    public void readRecordWrittenBeforeParticipantStatus() {
+
+        byte[] record = DatatypeConverter.parseBase64Binary(KRYO_RECORD);
+
+        List<ObjectSerializer<Transaction>> serializers = Arrays.<ObjectSerializer<Transaction>>asList(
+                new KryoPoolSerializer<Transaction>(), new KryoThreadLocalSerializer<Transaction>(), new KryoTransactionSerializer<Transaction>());
+
+        for (ObjectSerializer<Transaction> serializer : serializers) {
+
+            Transaction transaction = serializer.deserialize(record);
+
+            Assert.assertEquals(16, transaction.getXid().getGlobalTransactionId().length);
+            Assert.assertEquals(15, transaction.getXid().getGlobalTransactionId()[15]);
+            Assert.assertEquals("baseline", transaction.getAttachments().get("source"));
+            Assert.assertEquals(2, transaction.getParticipants().size());
+
+            for (Participant participant : transaction.getParticipants()) {
+                Assert.assertEquals(ParticipantStatus.TRYING, participant.getStatus());
+                Assert.assertEquals("valueOf", participant.getConfirmInvocationContext().getMethodName());
+            }
+        }
+    }
+
+    @Test
+    public void finishedParticipantsAreSkippedAfterReload() {
+
+        List<ObjectSerializer<Transaction>> serializers = Arrays.<ObjectSerializer<Transaction>>asList(
+                new KryoPoolSerializer<Transaction>(), new KryoThreadLocalSerializer<Transaction>(), new KryoTransactionSerializer<Transaction>(),
+                new KryoRegisteredSerializer<Transaction>(), new ProtostuffSerializer<Transaction>(), new JdkSerializationSerializer<Transaction>());
+
+        for (ObjectSerializer<Transaction> serializer : serializers) {
+
+            String name = serializer.getClass().getSimpleName();
+
+            CountingService.reset();
+
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+
+            for (int i = 0; i < 3; i++) {
+                InvocationContext invocationContext = new InvocationContext(CountingService.class, "confirm", new Class[]{int.class}, i);
+                transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                        invocationContext, invocationContext, Compensable.NullableTransactionContextEditor.class));
+            }
+
+            try {
+                transaction.commit();
+                Assert.fail(name);
+            } catch (RuntimeException e) {
+                // the second participant fails once
+            }
+
+            Transaction reloaded = serializer.deserialize(serializer.serialize(transaction));
+
+            reloaded.commit();
+
+            Assert.assertEquals(name, Arrays.asList(1, 2, 1), Arrays.asList(CountingService.CALLS[0].get(),
+                    CountingService.CALLS[1].get(), CountingService.CALLS[2].get()));
+        }
+    }
+
+    public static class CountingService {
+
+        static final AtomicInteger[] CALLS = new AtomicInteger[]{new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+
+        static void reset() {
+            for (AtomicInteger calls : CALLS) {
+                calls.set(0);
+            }
+        }
+
+        public void confirm(int index) {
+            if (CALLS[index].incrementAndGet() == 1 && index == 1) {
+                throw new IllegalStateException("injected confirm failure");
+            }
+        }
+    }
+}
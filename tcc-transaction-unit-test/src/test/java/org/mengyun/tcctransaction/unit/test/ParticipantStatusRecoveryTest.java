@@ -0,0 +1,225 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.ConfirmingException;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.ParticipantStatusPersister;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.recover.TransactionRecovery;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 故障注入：五个参与者中的一个连续几次confirm失败，统计事务管理器和恢复任务直到事务完成的confirm调用次数，
+ * 分别对比持久化参与者状态和加载时丢弃参与者状态（持久化之前的行为）两种情况.
+ */
+public class ParticipantStatusRecoveryTest {
+
+    private static final int PARTICIPANT_COUNT = 5;
+
+    private static final int FAILED_PARTICIPANT = 3;
+
+    private static final int FAILED_ATTEMPTS = 3;
+
+    /**
+     * 注入的失败是预期的，屏蔽这些类打印的错误堆栈
+     */
+    private static final String[] SILENCED_LOGGERS = new String[]{TransactionManager.class.getSimpleName(),
+            TransactionRecovery.class.getSimpleName(), ParticipantStatusPersister.class.getSimpleName(), Participant.class.getSimpleName()};
+
+    private final Map<String, Level> loggerLevels = new HashMap<String, Level>();
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public void before() throws SQLException {
+
+        for (String name : SILENCED_LOGGERS) {
+            Logger logger = Logger.getLogger(name);
+            loggerLevels.put(name, logger.getLevel());
+            logger.setLevel(Level.OFF);
+        }
+
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:participant_status;DB_CLOSE_DELAY=-1;MODE=MySQL");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_PS");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_PS (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), " +
+                "STATUS INT, TRANSACTION_TYPE INT, RETRIED_COUNT INT, CREATE_TIME DATETIME, LAST_UPDATE_TIME DATETIME, VERSION INT, " +
+                "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_PARTICIPANT_PS");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_PARTICIPANT_PS (DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, PARTICIPANT_INDEX INT NOT NULL, " +
+                "CONTENT VARBINARY(8000), PRIMARY KEY (GLOBAL_TX_ID, BRANCH_QUALIFIER, PARTICIPANT_INDEX))");
+
+        stmt.close();
+        connection.close();
+    }
+
+    @After
+    public void after() {
+
+        for (Map.Entry<String, Level> entry : loggerLevels.entrySet()) {
+            Logger.getLogger(entry.getKey()).setLevel(entry.getValue());
+        }
+    }
+
+    @Test
+    public void compareTest() throws Exception {
+
+        // 4 calls until the failure, then one call per retry and the last participant once it succeeds
+        Assert.assertEquals(8, run(new JdbcTransactionRepository(), false));
+        Assert.assertEquals(8, run(new JdbcTransactionRepository(), true));
+
+        // every retry starts again from the first participant
+        Assert.assertEquals(17, run(new StatusDroppingTransactionRepository(), false));
+    }
+
+    private int run(JdbcTransactionRepository repository, boolean deltaEnabled) throws Exception {
+
+        FlakyService.reset(FAILED_ATTEMPTS);
+
+        repository.setDataSource(dataSource);
+        repository.setDomain("PS");
+        repository.setTbSuffix("_PS");
+        repository.setDeltaEnabled(deltaEnabled);
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            for (int i = 0; i < PARTICIPANT_COUNT; i++) {
+                InvocationContext invocationContext = new InvocationContext(FlakyService.class, "confirm", new Class[]{int.class}, i);
+                transactionManager.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                        invocationContext, invocationContext, Compensable.NullableTransactionContextEditor.class));
+            }
+
+            transactionManager.commit(false);
+            Assert.fail();
+        } catch (ConfirmingException e) {
+            // the injected failure, left to the recovery job
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        TransactionRecovery transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(newTransactionConfigurator(transactionManager, repository));
+
+        for (int i = 0; i < FAILED_ATTEMPTS && countRows() > 0; i++) {
+            Thread.sleep(50);
+            transactionRecovery.startRecover();
+        }
+
+        Assert.assertEquals(0, countRows());
+
+        return FlakyService.CALLS.get();
+    }
+
+    private TransactionConfigurator newTransactionConfigurator(final TransactionManager transactionManager, final TransactionRepository transactionRepository) {
+
+        final DefaultRecoverConfig recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(0);
+
+        return new TransactionConfigurator() {
+            @Override
+            public TransactionManager getTransactionManager() {
+                return transactionManager;
+            }
+
+            @Override
+            public TransactionRepository getTransactionRepository() {
+                return transactionRepository;
+            }
+
+            @Override
+            public RecoverConfig getRecoverConfig() {
+                return recoverConfig;
+            }
+        };
+    }
+
+    private int countRows() throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM TCC_TRANSACTION_PS");
+            resultSet.next();
+            return resultSet.getInt(1);
+        } finally {
+            connection.close();
+        }
+    }
+
+    public static class FlakyService {
+
+        static final AtomicInteger CALLS = new AtomicInteger();
+
+        static final AtomicInteger REMAINING_FAILURES = new AtomicInteger();
+
+        static void reset(int failures) {
+            CALLS.set(0);
+            REMAINING_FAILURES.set(failures);
+        }
+
+        public void confirm(int index) {
+
+            CALLS.incrementAndGet();
+
+            if (index == FAILED_PARTICIPANT && REMAINING_FAILURES.getAndDecrement() > 0) {
+                throw new IllegalStateException("injected confirm failure of participant " + index);
+            }
+        }
+    }
+
+    /**
+     * loads the transactions as if the participant status were not persisted.
+     */
+    static class StatusDroppingTransactionRepository extends JdbcTransactionRepository {
+
+        @Override
+        protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String cursor, int pageSize) {
+
+            Page<Transaction> page = super.doFindAllUnmodifiedSince(date, cursor, pageSize);
+
+            for (Transaction transaction : page.getData()) {
+                for (Participant participant : transaction.getParticipants()) {
+                    participant.setStatus(ParticipantStatus.TRYING);
+                }
+            }
+
+            return page;
+        }
+    }
+}
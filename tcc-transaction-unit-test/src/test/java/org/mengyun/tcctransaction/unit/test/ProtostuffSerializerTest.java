@@ -0,0 +1,118 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ProtostuffSerializer;
+import org.mengyun.tcctransaction.unittest.client.TransferService;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * protostuff序列化器测试：事务有三个参与者，参数是带明细的订单，序列化后可以恢复，
+ * 按schema写入的记录不带类描述，比jdk序列化的记录小.
+ */
+public class ProtostuffSerializerTest {
+
+    @Test
+    public void recordSizeTest() {
+
+        int jdkSize = new JdkSerializationSerializer<Transaction>().serialize(newTransaction()).length;
+        int protostuffSize = new ProtostuffSerializer<Transaction>().serialize(newTransaction()).length;
+
+        Assert.assertTrue("jdk: " + jdkSize + " bytes, protostuff: " + protostuffSize + " bytes", protostuffSize < jdkSize);
+    }
+
+    @Test
+    public void roundTripTest() {
+
+        ProtostuffSerializer<Transaction> serializer = new ProtostuffSerializer<Transaction>();
+
+        Transaction transaction = newTransaction();
+
+        Transaction result = serializer.deserialize(serializer.serialize(transaction));
+
+        Assert.assertEquals(transaction.getXid(), result.getXid());
+        Assert.assertEquals(transaction.getStatus(), result.getStatus());
+        Assert.assertEquals(transaction.getVersion(), result.getVersion());
+        Assert.assertTrue(result.getAttachments() instanceof ConcurrentHashMap);
+        Assert.assertEquals("remote", result.getAttachments().get("source"));
+        Assert.assertEquals(3, result.getParticipants().size());
+
+        InvocationContext invocationContext = result.getParticipants().get(0).getConfirmInvocationContext();
+
+        Assert.assertEquals(TransferService.class, invocationContext.getTargetClass());
+        Assert.assertEquals(3, invocationContext.getArgs().length);
+        Assert.assertNull(invocationContext.getArgs()[1]);
+        Assert.assertEquals(2, ((OrderRequest) invocationContext.getArgs()[0]).items.size());
+    }
+
+    static Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (int i = 0; i < 3; i++) {
+
+            OrderRequest request = new OrderRequest();
+            request.orderNo = "ORDER-20170918-" + i;
+            request.userId = 10000L + i;
+            request.createTime = new Date();
+            request.items.add(new OrderItem("SKU-1", 2, new BigDecimal("19.90")));
+            request.items.add(new OrderItem("SKU-2", 1, new BigDecimal("5.00")));
+
+            Class[] parameterTypes = new Class[]{OrderRequest.class, String.class, long.class};
+
+            transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                    new InvocationContext(TransferService.class, "confirmOrder", parameterTypes, request, null, 1L),
+                    new InvocationContext(TransferService.class, "cancelOrder", parameterTypes, request, null, 1L),
+                    null));
+        }
+
+        transaction.getAttachments().put("source", "remote");
+
+        return transaction;
+    }
+
+    public static class OrderRequest implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String orderNo;
+
+        long userId;
+
+        Date createTime;
+
+        List<OrderItem> items = new ArrayList<OrderItem>();
+    }
+
+    public static class OrderItem implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        String sku;
+
+        int quantity;
+
+        BigDecimal price;
+
+        public OrderItem() {
+        }
+
+        public OrderItem(String sku, int quantity, BigDecimal price) {
+            this.sku = sku;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+}
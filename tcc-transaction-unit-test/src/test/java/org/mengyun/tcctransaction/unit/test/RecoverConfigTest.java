@@ -0,0 +1,81 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.common.DurabilityMode;
+import org.mengyun.tcctransaction.recover.AbstractRecoverConfig;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 只实现RecoverConfig接口的自定义配置不需要修改，可选配置使用默认值.
+ */
+public class RecoverConfigTest {
+
+    @Test
+    public void customRecoverConfigUsesDefaults() {
+
+        AbstractRecoverConfig recoverConfig = AbstractRecoverConfig.from(new CustomRecoverConfig());
+
+        Assert.assertEquals(5, recoverConfig.getMaxRetryCount());
+        Assert.assertEquals(60, recoverConfig.getRecoverDuration());
+        Assert.assertEquals("0 */5 * * * ?", recoverConfig.getCronExpression());
+        Assert.assertEquals(16, recoverConfig.getAsyncTerminateThreadPoolSize());
+
+        Assert.assertEquals(0, recoverConfig.getRecoverShardCount());
+        Assert.assertEquals(1, recoverConfig.getRecoverThreadPoolSize());
+        Assert.assertEquals(DurabilityMode.SYNC, recoverConfig.getDurabilityMode());
+        Assert.assertFalse(recoverConfig.isVirtualThreadEnabled());
+    }
+
+    @Test
+    public void defaultRecoverConfigKeepsItsSettings() {
+
+        DefaultRecoverConfig defaultRecoverConfig = new DefaultRecoverConfig();
+        defaultRecoverConfig.setRecoverShardCount(8);
+
+        Assert.assertSame(defaultRecoverConfig, AbstractRecoverConfig.from(defaultRecoverConfig));
+        Assert.assertEquals(8, AbstractRecoverConfig.from(defaultRecoverConfig).getRecoverShardCount());
+    }
+
+    /**
+     * 按升级前的RecoverConfig接口实现的配置.
+     */
+    static class CustomRecoverConfig implements RecoverConfig {
+
+        private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
+
+        @Override
+        public int getMaxRetryCount() {
+            return 5;
+        }
+
+        @Override
+        public int getRecoverDuration() {
+            return 60;
+        }
+
+        @Override
+        public String getCronExpression() {
+            return "0 */5 * * * ?";
+        }
+
+        @Override
+        public Set<Class<? extends Exception>> getDelayCancelExceptions() {
+            return delayCancelExceptions;
+        }
+
+        @Override
+        public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayRecoverExceptions) {
+            delayCancelExceptions.addAll(delayRecoverExceptions);
+        }
+
+        @Override
+        public int getAsyncTerminateThreadPoolSize() {
+            return 16;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.recover.RecoverShardManager;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * several in-process recovery nodes sharing the lease table of an embedded H2 database.
+ */
+public class RecoverShardManagerTest {
+
+    private static final int SHARD_COUNT = 16;
+
+    private JdbcTransactionRepository transactionRepository;
+
+    @Before
+    public void before() throws SQLException {
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:recover_shard;DB_CLOSE_DELAY=-1;MODE=MySQL");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_RECOVER_LEASE_ST");
+        stmt.execute("CREATE TABLE TCC_RECOVER_LEASE_ST (DOMAIN VARCHAR(100) NOT NULL DEFAULT '', LEASE_NAME VARCHAR(128) NOT NULL, " +
+                "OWNER VARCHAR(128) NOT NULL, EXPIRE_TIME BIGINT NOT NULL, PRIMARY KEY (DOMAIN, LEASE_NAME))");
+
+        stmt.close();
+        connection.close();
+
+        transactionRepository = new JdbcTransactionRepository();
+        transactionRepository.setDataSource(dataSource);
+        transactionRepository.setDomain("ST");
+        transactionRepository.setTbSuffix("_ST");
+    }
+
+    @Test
+    public void shardsAreDisjointAndRebalanced() {
+
+        List<RecoverShardManager> nodes = new ArrayList<RecoverShardManager>();
+
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new RecoverShardManager(transactionRepository, SHARD_COUNT, 60000, "node-" + i));
+        }
+
+        rebalance(nodes, 3);
+        assertDisjointAndComplete(nodes);
+
+        for (RecoverShardManager node : nodes) {
+            Assert.assertTrue(node.getOwnedShards().size() <= (SHARD_COUNT + 2) / 3);
+        }
+
+        // a node leaves, its shards are taken over by the others
+        nodes.remove(2).releaseAll();
+
+        rebalance(nodes, 2);
+        assertDisjointAndComplete(nodes);
+
+        // a node joins, the others release their extra shards
+        nodes.add(new RecoverShardManager(transactionRepository, SHARD_COUNT, 60000, "node-3"));
+
+        rebalance(nodes, 3);
+        assertDisjointAndComplete(nodes);
+        Assert.assertFalse(nodes.get(2).getOwnedShards().isEmpty());
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws InterruptedException {
+
+        RecoverShardManager crashedNode = new RecoverShardManager(transactionRepository, SHARD_COUNT, 100, "crashed");
+        crashedNode.rebalance();
+
+        Assert.assertEquals(SHARD_COUNT, crashedNode.getOwnedShards().size());
+
+        Thread.sleep(200);
+
+        RecoverShardManager node = new RecoverShardManager(transactionRepository, SHARD_COUNT, 60000, "node");
+        node.rebalance();
+
+        Assert.assertEquals(SHARD_COUNT, node.getOwnedShards().size());
+    }
+
+    @Test
+    public void bucketRangesMatchShards() {
+
+        for (int shardCount : new int[]{1, 3, SHARD_COUNT, RecoverShardManager.BUCKET_COUNT}) {
+
+            RecoverShardManager shardManager = new RecoverShardManager(transactionRepository, shardCount, 60000, "node");
+
+            // contiguous ranges covering every bucket
+            Assert.assertEquals(0, shardManager.getFromBucket(0));
+            Assert.assertEquals(RecoverShardManager.BUCKET_COUNT, shardManager.getToBucket(shardCount - 1));
+
+            for (int shard = 0; shard < shardCount; shard++) {
+                Assert.assertTrue(shardManager.getFromBucket(shard) < shardManager.getToBucket(shard));
+            }
+
+            for (int i = 0; i < 1000; i++) {
+
+                TransactionXid xid = new TransactionXid();
+                int shard = shardManager.getShard(xid);
+                int bucket = RecoverShardManager.getBucket(xid);
+
+                Assert.assertTrue(bucket >= shardManager.getFromBucket(shard) && bucket < shardManager.getToBucket(shard));
+                // a branch of the same global transaction falls into the same bucket
+                Assert.assertEquals(bucket, RecoverShardManager.getBucket(new TransactionXid(xid.getGlobalTransactionId())));
+            }
+        }
+    }
+
+    private void rebalance(List<RecoverShardManager> nodes, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            for (RecoverShardManager node : nodes) {
+                node.rebalance();
+            }
+        }
+    }
+
+    private void assertDisjointAndComplete(List<RecoverShardManager> nodes) {
+
+        Set<Integer> allShards = new HashSet<Integer>();
+
+        for (RecoverShardManager node : nodes) {
+            for (Integer shard : node.getOwnedShards()) {
+                Assert.assertTrue("shard " + shard + " is owned by two nodes", allShards.add(shard));
+            }
+        }
+
+        Assert.assertEquals(SHARD_COUNT, allShards.size());
+    }
+}
@@ -0,0 +1,114 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.CancellingException;
+import org.mengyun.tcctransaction.ConfirmingException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * a rejected async confirm/cancel is left to recovery for a root transaction, a branch reports it to its root.
+ */
+public class RejectedTerminateTest {
+
+    private TransactionManager transactionManager;
+
+    private Transaction transaction;
+
+    @Before
+    public void before() {
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(new MemoryTransactionRepository());
+        transactionManager.setExecutorService(executorService);
+    }
+
+    @After
+    public void after() {
+        transactionManager.cleanAfterCompletion(transaction);
+    }
+
+    @Test
+    public void rootConfirmRejectedIsLeftToRecovery() {
+
+        transaction = transactionManager.begin();
+
+        transactionManager.commit(true);
+
+        Assert.assertEquals(TransactionStatus.CONFIRMING, transaction.getStatus());
+    }
+
+    @Test
+    public void rootCancelRejectedIsLeftToRecovery() {
+
+        transaction = transactionManager.begin();
+
+        transactionManager.rollback(true);
+
+        Assert.assertEquals(TransactionStatus.CANCELLING, transaction.getStatus());
+    }
+
+    @Test(expected = ConfirmingException.class)
+    public void branchConfirmRejectedFails() {
+
+        transaction = transactionManager.propagationNewBegin(new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId()));
+
+        transactionManager.commit(true);
+    }
+
+    @Test(expected = CancellingException.class)
+    public void branchCancelRejectedFails() {
+
+        transaction = transactionManager.propagationNewBegin(new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId()));
+
+        transactionManager.rollback(true);
+    }
+
+    static class MemoryTransactionRepository extends CachableTransactionRepository {
+
+        private final ConcurrentHashMap<Xid, Transaction> transactions = new ConcurrentHashMap<Xid, Transaction>();
+
+        @Override
+        protected int doCreate(Transaction transaction) {
+            return transactions.putIfAbsent(transaction.getXid(), transaction) == null ? 1 : 0;
+        }
+
+        @Override
+        protected int doUpdate(Transaction transaction) {
+            return transactions.containsKey(transaction.getXid()) ? 1 : 0;
+        }
+
+        @Override
+        protected int doDelete(Transaction transaction) {
+            return transactions.remove(transaction.getXid()) == null ? 0 : 1;
+        }
+
+        @Override
+        protected Transaction doFindOne(Xid xid) {
+            return transactions.get(xid);
+        }
+
+        @Override
+        protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+            return new ArrayList<Transaction>(transactions.values());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.support.NamedThreadFactory;
+import org.mengyun.tcctransaction.support.TerminateThreadPoolExecutor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步confirm/cancel线程池测试：平台线程和虚拟线程（JDK 21及以上）下都按poolSize限制同时执行的任务数，
+ * 超过poolSize + queueSize的任务被拒绝，关闭超时时返回未执行的任务数.
+ */
+public class TerminateThreadPoolExecutorTest {
+
+    private static final int POOL_SIZE = 2;
+
+    private static final int QUEUE_SIZE = 3;
+
+    @Test
+    public void virtualThreadFallbackTest() throws Exception {
+
+        TerminateThreadPoolExecutor executor = new TerminateThreadPoolExecutor("fallback-terminate-", 1, 1, true);
+
+        final Thread[] worker = new Thread[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                worker[0] = Thread.currentThread();
+                latch.countDown();
+            }
+        });
+
+        latch.await();
+
+        Assert.assertEquals(0, executor.shutdownGracefully(10, TimeUnit.SECONDS));
+        Assert.assertTrue(worker[0].getName(), worker[0].getName().startsWith("fallback-terminate-"));
+        Assert.assertEquals(NamedThreadFactory.isVirtualThreadSupported(), isVirtual(worker[0]));
+    }
+
+    @Test
+    public void platformThreadLimitTest() throws Exception {
+        limitTest(false);
+    }
+
+    @Test
+    public void virtualThreadLimitTest() throws Exception {
+        limitTest(true);
+    }
+
+    private void limitTest(boolean virtualThread) throws Exception {
+
+        TerminateThreadPoolExecutor executor = new TerminateThreadPoolExecutor("limit-terminate-", POOL_SIZE, QUEUE_SIZE, virtualThread);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(POOL_SIZE);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+
+        for (int i = 0; i < POOL_SIZE + QUEUE_SIZE; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    int current = inFlight.incrementAndGet();
+
+                    int peak = peakInFlight.get();
+                    while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+                        peak = peakInFlight.get();
+                    }
+
+                    started.countDown();
+
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            });
+        }
+
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        Assert.assertEquals(POOL_SIZE, executor.getActiveCount());
+        Assert.assertEquals(QUEUE_SIZE, executor.getQueueDepth());
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            Assert.assertEquals(1, executor.getRejectedCount());
+        }
+
+        // 关闭超时时中断执行中的任务，等待中的任务留给恢复任务
+        Assert.assertEquals(QUEUE_SIZE, executor.shutdownGracefully(100, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        release.countDown();
+
+        Assert.assertEquals(POOL_SIZE, peakInFlight.get());
+        Assert.assertEquals(0, inFlight.get());
+    }
+
+    private boolean isVirtual(Thread thread) throws Exception {
+
+        Method isVirtualMethod;
+
+        try {
+            isVirtualMethod = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+
+        return (Boolean) isVirtualMethod.invoke(thread);
+    }
+}
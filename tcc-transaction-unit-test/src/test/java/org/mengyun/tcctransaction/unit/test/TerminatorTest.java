@@ -0,0 +1,110 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * 参与者confirm/cancel调用测试：方法按签名缓存，事务上下文每次调用重新传入，
+ * 目标实例每次从FactoryBuilder获取，容器刷新替换实例后调用新的实例.
+ */
+public class TerminatorTest {
+
+    private static final Class[] PARAMETER_TYPES = new Class[]{TransactionContext.class, long.class};
+
+    @Test
+    public void cachedInvokerTest() {
+
+        InvocationContext confirmInvocationContext = new InvocationContext(ContextRecordingService.class, "confirm", PARAMETER_TYPES, null, 1L);
+        InvocationContext cancelInvocationContext = new InvocationContext(ContextRecordingService.class, "cancel", PARAMETER_TYPES, null, 1L);
+
+        Participant participant = new Participant(new TransactionXid(), confirmInvocationContext, cancelInvocationContext,
+                Compensable.DefaultTransactionContextEditor.class);
+        Participant otherParticipant = new Participant(new TransactionXid(), confirmInvocationContext, cancelInvocationContext,
+                Compensable.DefaultTransactionContextEditor.class);
+
+        participant.commit();
+        assertRecorded("confirm", participant.getXid(), TransactionStatus.CONFIRMING);
+
+        otherParticipant.commit();
+        assertRecorded("confirm", otherParticipant.getXid(), TransactionStatus.CONFIRMING);
+
+        participant.rollback();
+        assertRecorded("cancel", participant.getXid(), TransactionStatus.CANCELLING);
+    }
+
+    @Test
+    public void targetResolvedOnEveryCallTest() throws Exception {
+
+        InvocationContext invocationContext = new InvocationContext(CountingService.class, "confirm", PARAMETER_TYPES, null, 1L);
+
+        CountingService first = new CountingService();
+        replaceInstance(CountingService.class, first);
+
+        new Participant(new TransactionXid(), invocationContext, invocationContext, Compensable.DefaultTransactionContextEditor.class).commit();
+
+        // 容器刷新后的实例，类是原来的子类（如新的代理类）
+        CountingService second = new CountingService() {
+        };
+        replaceInstance(CountingService.class, second);
+
+        new Participant(new TransactionXid(), invocationContext, invocationContext, Compensable.DefaultTransactionContextEditor.class).commit();
+
+        Assert.assertEquals(1, first.count);
+        Assert.assertEquals(1, second.count);
+    }
+
+    private void assertRecorded(String methodName, TransactionXid xid, TransactionStatus status) {
+
+        Assert.assertEquals(methodName, ContextRecordingService.methodName);
+        Assert.assertEquals(xid, ContextRecordingService.transactionContext.getXid());
+        Assert.assertEquals(status.getId(), ContextRecordingService.transactionContext.getStatus());
+    }
+
+    /**
+     * 模拟容器刷新，替换FactoryBuilder中缓存的单例.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void replaceInstance(Class<T> clazz, T instance) throws Exception {
+
+        Field field = FactoryBuilder.class.getDeclaredField("classFactoryMap");
+        field.setAccessible(true);
+
+        ((Map<Class, FactoryBuilder.SingeltonFactory>) field.get(null)).put(clazz, new FactoryBuilder.SingeltonFactory<T>(clazz, instance));
+    }
+
+    public static class CountingService {
+
+        int count;
+
+        public void confirm(TransactionContext transactionContext, long amount) {
+            count += amount;
+        }
+    }
+
+    public static class ContextRecordingService {
+
+        static String methodName;
+
+        static TransactionContext transactionContext;
+
+        public void confirm(TransactionContext transactionContext, long amount) {
+            ContextRecordingService.methodName = "confirm";
+            ContextRecordingService.transactionContext = transactionContext;
+        }
+
+        public void cancel(TransactionContext transactionContext, long amount) {
+            ContextRecordingService.methodName = "cancel";
+            ContextRecordingService.transactionContext = transactionContext;
+        }
+    }
+}
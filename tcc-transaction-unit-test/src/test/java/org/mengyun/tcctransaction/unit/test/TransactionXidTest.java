@@ -0,0 +1,35 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 事务XID不再每次生成两个随机UUID，仍然唯一，字符串格式、相等和哈希与原来一致，分支XID保留全局事务id.
+ */
+public class TransactionXidTest {
+
+    @Test
+    public void xidTest() {
+
+        Set<TransactionXid> xids = new HashSet<TransactionXid>();
+        for (int i = 0; i < 100000; i++) {
+            Assert.assertTrue(xids.add(new TransactionXid()));
+        }
+
+        TransactionXid xid = new TransactionXid();
+        Assert.assertEquals(UUID.nameUUIDFromBytes(xid.getGlobalTransactionId()) + ":" + UUID.nameUUIDFromBytes(xid.getBranchQualifier()), xid.toString());
+        Assert.assertEquals(xid, new TransactionXid(xid.getGlobalTransactionId().clone(), xid.getBranchQualifier().clone()));
+        Assert.assertEquals(xid.hashCode(), new TransactionXid(xid.getGlobalTransactionId().clone(), xid.getBranchQualifier().clone()).hashCode());
+
+        TransactionXid branchXid = new TransactionXid(xid.getGlobalTransactionId());
+        Assert.assertArrayEquals(xid.getGlobalTransactionId(), branchXid.getGlobalTransactionId());
+        Assert.assertFalse(Arrays.equals(xid.getBranchQualifier(), branchXid.getBranchQualifier()));
+        Assert.assertFalse(xid.equals(branchXid));
+    }
+}
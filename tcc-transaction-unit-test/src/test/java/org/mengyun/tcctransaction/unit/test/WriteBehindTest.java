@@ -0,0 +1,174 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.DurabilityMode;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * write-behind删除测试：各持久化模式下参与者confirm前CONFIRMING状态已经持久化，停止时执行等待中的删除.
+ */
+public class WriteBehindTest {
+
+    private static JdbcDataSource dataSource;
+
+    @Before
+    public void before() throws SQLException {
+
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:./target/h2/tcc_wb;MODE=MySQL");
+        dataSource.setUser("sa");
+
+        Connection connection = dataSource.getConnection();
+        Statement stmt = connection.createStatement();
+
+        stmt.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_WB");
+        stmt.execute("CREATE TABLE TCC_TRANSACTION_WB (" +
+                "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), " +
+                "GLOBAL_TX_ID VARBINARY(32) NOT NULL, BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), " +
+                "STATUS INT, TRANSACTION_TYPE INT, RETRIED_COUNT INT, CREATE_TIME DATETIME, LAST_UPDATE_TIME DATETIME, VERSION INT, " +
+                "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))");
+
+        stmt.close();
+        connection.close();
+    }
+
+    @Test
+    public void confirmingIsDurableBeforeParticipantsConfirm() throws Exception {
+
+        for (DurabilityMode durabilityMode : DurabilityMode.values()) {
+
+            JdbcTransactionRepository repository = newRepository();
+
+            TransactionManager transactionManager = new TransactionManager();
+            transactionManager.setTransactionRepository(repository);
+            transactionManager.setDurabilityMode(durabilityMode);
+
+            StatusProbeService.observedStatus = -1;
+
+            Transaction transaction = transactionManager.begin();
+
+            try {
+                InvocationContext invocationContext = new InvocationContext(StatusProbeService.class, "confirm", new Class[0]);
+                transactionManager.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                        invocationContext, invocationContext, Compensable.NullableTransactionContextEditor.class));
+
+                transactionManager.commit(false);
+            } finally {
+                transactionManager.cleanAfterCompletion(transaction);
+            }
+
+            repository.flush();
+
+            Assert.assertEquals(durabilityMode.name(), TransactionStatus.CONFIRMING.getId(), StatusProbeService.observedStatus);
+            Assert.assertEquals(0, countRows());
+        }
+    }
+
+    /**
+     * shutdown runs the pending deletes and stops the flusher thread, later deletes run in the calling thread.
+     */
+    @Test
+    public void shutdownDrainsPendingDeletes() throws Exception {
+
+        JdbcTransactionRepository repository = newRepository();
+
+        Set<Thread> otherFlushers = findFlusherThreads();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+        repository.deleteLater(transaction);
+
+        Set<Thread> flushers = findFlusherThreads();
+        flushers.removeAll(otherFlushers);
+        Assert.assertEquals(1, flushers.size());
+
+        Thread flusher = flushers.iterator().next();
+
+        repository.shutdown();
+
+        Assert.assertEquals(0, countRows());
+
+        flusher.join(1000);
+        Assert.assertFalse(flusher.isAlive());
+
+        transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+        repository.deleteLater(transaction);
+
+        Assert.assertEquals(0, countRows());
+    }
+
+    private static Set<Thread> findFlusherThreads() {
+
+        Set<Thread> threads = new HashSet<Thread>();
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("tcc-write-behind-flusher") && thread.isAlive()) {
+                threads.add(thread);
+            }
+        }
+
+        return threads;
+    }
+
+    private JdbcTransactionRepository newRepository() {
+
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain("WB");
+        repository.setTbSuffix("_WB");
+
+        return repository;
+    }
+
+    private static int countRows() throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM TCC_TRANSACTION_WB");
+            resultSet.next();
+            return resultSet.getInt(1);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * reads the status of the transaction record at the moment it is confirmed.
+     */
+    public static class StatusProbeService {
+
+        static volatile int observedStatus;
+
+        public void confirm() throws SQLException {
+
+            Connection connection = dataSource.getConnection();
+
+            try {
+                ResultSet resultSet = connection.createStatement().executeQuery("SELECT STATUS FROM TCC_TRANSACTION_WB");
+                observedStatus = resultSet.next() ? resultSet.getInt(1) : -1;
+            } finally {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.repository.ZooKeeperTransactionRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+/**
+ * recovery leases in zookeeper expire after leaseMillis without renewal, even while the holder's session is alive.
+ */
+public class ZooKeeperRecoverLeaseTest {
+
+    private static final long LEASE_MILLIS = 300;
+
+    private File dataDir;
+
+    private ServerCnxnFactory serverCnxnFactory;
+
+    private String zkServers;
+
+    @Before
+    public void before() throws Exception {
+
+        dataDir = File.createTempFile("tcc_zk", "");
+        Assert.assertTrue(dataDir.delete());
+        Assert.assertTrue(dataDir.mkdirs());
+
+        int port = freePort();
+
+        serverCnxnFactory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", port), 16);
+        serverCnxnFactory.startup(new ZooKeeperServer(dataDir, dataDir, 500));
+
+        zkServers = "127.0.0.1:" + port;
+    }
+
+    @After
+    public void after() {
+
+        serverCnxnFactory.shutdown();
+
+        delete(dataDir);
+    }
+
+    @Test
+    public void leaseExpiresWithoutRenewal() throws InterruptedException {
+
+        ZooKeeperTransactionRepository first = open();
+        ZooKeeperTransactionRepository second = open();
+
+        Assert.assertTrue(first.tryAcquireLease("shard-0", "first", LEASE_MILLIS));
+        Assert.assertFalse(second.tryAcquireLease("shard-0", "second", LEASE_MILLIS));
+        Assert.assertEquals(1, second.findActiveLeases("shard-").size());
+
+        // renewal extends the lease past the first expiry
+        Thread.sleep(LEASE_MILLIS / 2);
+        Assert.assertTrue(first.tryAcquireLease("shard-0", "first", LEASE_MILLIS));
+        Thread.sleep(LEASE_MILLIS / 2 + 50);
+        Assert.assertFalse(second.tryAcquireLease("shard-0", "second", LEASE_MILLIS));
+
+        // the first holder stops renewing but keeps its session
+        Thread.sleep(LEASE_MILLIS + 100);
+        Assert.assertTrue(second.findActiveLeases("shard-").isEmpty());
+
+        Assert.assertTrue(second.tryAcquireLease("shard-0", "second", LEASE_MILLIS));
+        Assert.assertFalse(first.tryAcquireLease("shard-0", "first", LEASE_MILLIS));
+
+        // release by a former holder leaves the current one in place
+        first.releaseLease("shard-0", "first");
+        Assert.assertEquals(1, first.findActiveLeases("shard-").size());
+
+        second.releaseLease("shard-0", "second");
+        Assert.assertTrue(first.tryAcquireLease("shard-0", "first", LEASE_MILLIS));
+    }
+
+    private ZooKeeperTransactionRepository open() {
+
+        ZooKeeperTransactionRepository repository = new ZooKeeperTransactionRepository();
+        repository.setZkServers(zkServers);
+        repository.setZkTimeout(5000);
+        repository.setZkRootPath("/tcc-ut-lease");
+
+        return repository;
+    }
+
+    private static int freePort() throws IOException {
+
+        ServerSocket serverSocket = new ServerSocket(0);
+
+        try {
+            return serverSocket.getLocalPort();
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    private static void delete(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}